@@ -1,7 +1,9 @@
-import com.indago.gurobi.GurobiInstaller;
 import com.indago.plugins.seg.IndagoSegmentationPluginService;
+import com.indago.tr2d.app.garcia.GurobiAvailabilityCache;
 import com.indago.tr2d.app.garcia.Tr2dApplication;
 
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
 import net.imagej.ops.OpService;
 import org.scijava.command.Command;
 import org.scijava.command.ContextCommand;
@@ -11,6 +13,8 @@ import org.scijava.plugin.Plugin;
 
 import javax.swing.*;
 
+import java.io.File;
+
 /**
  * Tr2d Plugin for Fiji/ImageJ2
  *
@@ -29,15 +33,32 @@ public class Tr2dPlugin implements Command {
 	@Parameter
 	private Logger log;
 
+	/**
+	 * The active image, if there is one. tr2d then works on it directly
+	 * instead of reading the raw data from disk.
+	 */
+	@Parameter( required = false )
+	private Dataset dataset;
+
 	/**
 	 * @see java.lang.Runnable#run()
 	 */
 	@Override
 	public void run() {
-		boolean gurobiWorks = GurobiInstaller.install();
+		// sets up the natives in every session; remembers a working install
+		// such that the standalone and headless runs can skip the Gurobi test
+		boolean gurobiWorks = new GurobiAvailabilityCache().install();
 
 		if(gurobiWorks) {
 			Tr2dApplication app = new Tr2dApplication( opService, tr2dSegmentationPluginService, log );
+			// Gurobi was just installed and tested, no need to test it again
+			app.setGurobiAvailable();
+			if ( dataset != null && isTimeSeries( dataset ) ) {
+				log.info( "Using open image '" + dataset.getName() + "' as raw data." );
+				app.setInput( dataset.getImgPlus(), getSourceFile( dataset ) );
+			} else if ( dataset != null ) {
+				log.warn( "Open image '" + dataset.getName() + "' is not a 2D time series (x,y,t)... choose the raw data from disk." );
+			}
 			try {
 				app.run( null );
 			} catch ( final NoClassDefFoundError err ) {
@@ -49,6 +70,29 @@ public class Tr2dPlugin implements Command {
 			log.warn( "Abort start of Tr2d, because Gurobi is not working properly." );
 	}
 
+	/**
+	 * @return true, iff the given dataset has the axes x, y and time (a z
+	 *         stack or a multi-channel image also has three dimensions).
+	 */
+	private static boolean isTimeSeries( final Dataset dataset ) {
+		return dataset.numDimensions() == 3
+				&& dataset.axis( 0 ).type() == Axes.X
+				&& dataset.axis( 1 ).type() == Axes.Y
+				&& dataset.axis( 2 ).type() == Axes.TIME;
+	}
+
+	/**
+	 * @return the TIFF file the given dataset was read from, or
+	 *         <code>null</code> if there is none.
+	 */
+	private static File getSourceFile( final Dataset dataset ) {
+		final String source = dataset.getSource();
+		if ( source == null || source.isEmpty() ) return null;
+		final File file = new File( source );
+		final String name = file.getName().toLowerCase();
+		return ( file.canRead() && ( name.endsWith( ".tif" ) || name.endsWith( ".tiff" ) ) ) ? file : null;
+	}
+
 	private void showGurobiErrorMessage( NoClassDefFoundError err )
 	{
 		final String jlp = System.getProperty( "java.library.path" );
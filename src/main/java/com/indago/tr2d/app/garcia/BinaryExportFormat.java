@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.nio.ByteOrder;
+
+/**
+ * Constants describing the binary, columnar tr2d export format.
+ * <p>
+ * A file starts with the 8 byte magic <code>TR2DBIN1</code>, followed by the
+ * format version (int32) and the number of columns (int32). Then follows a
+ * directory with one {@value #DIRECTORY_ENTRY_SIZE} byte entry per column:
+ * the column name (ASCII, zero padded to {@value #NAME_LENGTH} bytes), the
+ * element type (one byte, see <code>TYPE_*</code>), the absolute file offset
+ * of the column data (int64) and the number of rows (int64). Column data
+ * starts at offsets aligned to 8 bytes. All numbers are little endian, so
+ * each column can be memory-mapped and used as is.
+ * <p>
+ * Row <code>i</code> of all <code>frame_*</code> columns describes one
+ * time-point, its segments are the rows
+ * <code>[frame_seg_start, frame_seg_start + frame_seg_count)</code> of the
+ * <code>seg_*</code> columns (and analogously for links). Tracks are chains of
+ * movements; the two daughters of a division start new tracks whose parent is
+ * the track of the mother cell.
+ */
+public final class BinaryExportFormat {
+
+	private BinaryExportFormat() {}
+
+	public static final String FILENAME = "tracking.t2b";
+
+	public static final byte[] MAGIC = { 'T', 'R', '2', 'D', 'B', 'I', 'N', '1' };
+	public static final int VERSION = 1;
+	public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	public static final int HEADER_SIZE = 16;
+	public static final int NAME_LENGTH = 23;
+	public static final int DIRECTORY_ENTRY_SIZE = NAME_LENGTH + 1 + 8 + 8;
+
+	public static final byte TYPE_INT8 = 'B';
+	public static final byte TYPE_INT32 = 'I';
+	public static final byte TYPE_INT64 = 'J';
+	public static final byte TYPE_FLOAT64 = 'D';
+
+	public static final String FRAME_T = "frame_t";
+	public static final String FRAME_SEG_START = "frame_seg_start";
+	public static final String FRAME_SEG_COUNT = "frame_seg_count";
+	public static final String FRAME_LINK_START = "frame_link_start";
+	public static final String FRAME_LINK_COUNT = "frame_link_count";
+
+	public static final String SEG_T = "seg_t";
+	public static final String SEG_ID = "seg_id";
+	public static final String SEG_TRACK = "seg_track";
+	public static final String SEG_AREA = "seg_area";
+	public static final String SEG_X = "seg_x";
+	public static final String SEG_Y = "seg_y";
+
+	public static final String LINK_T = "link_t";
+	public static final String LINK_TYPE = "link_type";
+	public static final String LINK_SOURCE = "link_source";
+	public static final String LINK_TARGET1 = "link_target1";
+	public static final String LINK_TARGET2 = "link_target2";
+
+	public static final String TRACK_ID = "track_id";
+	public static final String TRACK_PARENT = "track_parent";
+	public static final String TRACK_START = "track_start";
+	public static final String TRACK_END = "track_end";
+
+	public static int bytesPerElement( final byte type ) {
+		switch ( type ) {
+		case TYPE_INT8:
+			return 1;
+		case TYPE_INT32:
+			return 4;
+		case TYPE_INT64:
+		case TYPE_FLOAT64:
+			return 8;
+		default:
+			throw new IllegalArgumentException( "Unknown column type " + ( char ) type );
+		}
+	}
+}
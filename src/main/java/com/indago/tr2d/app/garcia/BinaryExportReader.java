@@ -0,0 +1,150 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import static com.indago.tr2d.app.garcia.BinaryExportFormat.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads files written by {@link BinaryExportWriter}. Only the directory is
+ * parsed when opening a file; columns are memory-mapped on first access and
+ * returned as typed buffer views, without copying or deserializing the data.
+ */
+public class BinaryExportReader implements Closeable {
+
+	private static class ColumnInfo {
+
+		final byte type;
+		final long offset;
+		final long rows;
+		ByteBuffer mapped;
+
+		ColumnInfo( final byte type, final long offset, final long rows ) {
+			this.type = type;
+			this.offset = offset;
+			this.rows = rows;
+		}
+	}
+
+	private final FileChannel channel;
+	private final Map< String, ColumnInfo > columns = new LinkedHashMap<>();
+
+	public BinaryExportReader( final File file ) throws IOException {
+		channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+		try {
+			readDirectory();
+		} catch ( final IOException | RuntimeException e ) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void readDirectory() throws IOException {
+		final ByteBuffer header = read( 0, HEADER_SIZE );
+		final byte[] magic = new byte[ MAGIC.length ];
+		header.get( magic );
+		if ( !Arrays.equals( magic, MAGIC ) ) throw new IOException( "Not a tr2d binary export." );
+		final int version = header.getInt();
+		if ( version != VERSION ) throw new IOException( "Unsupported tr2d binary export version " + version + "." );
+		final int numColumns = header.getInt();
+
+		final ByteBuffer directory = read( HEADER_SIZE, numColumns * DIRECTORY_ENTRY_SIZE );
+		final byte[] name = new byte[ NAME_LENGTH ];
+		for ( int i = 0; i < numColumns; i++ ) {
+			directory.get( name );
+			int length = 0;
+			while ( length < NAME_LENGTH && name[ length ] != 0 )
+				length++;
+			final byte type = directory.get();
+			final long offset = directory.getLong();
+			final long rows = directory.getLong();
+			columns.put( new String( name, 0, length, StandardCharsets.US_ASCII ), new ColumnInfo( type, offset, rows ) );
+		}
+	}
+
+	private ByteBuffer read( final long position, final int size ) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate( size ).order( BYTE_ORDER );
+		while ( buffer.hasRemaining() ) {
+			if ( channel.read( buffer, position + buffer.position() ) < 0 ) throw new IOException( "Unexpected end of file." );
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	public Set< String > getColumnNames() {
+		return columns.keySet();
+	}
+
+	/**
+	 * @return the number of rows of the given column.
+	 */
+	public long getNumRows( final String name ) {
+		return column( name ).rows;
+	}
+
+	public ByteBuffer getInt8Column( final String name ) throws IOException {
+		return mapped( name, TYPE_INT8 );
+	}
+
+	public IntBuffer getInt32Column( final String name ) throws IOException {
+		return mapped( name, TYPE_INT32 ).asIntBuffer();
+	}
+
+	public LongBuffer getInt64Column( final String name ) throws IOException {
+		return mapped( name, TYPE_INT64 ).asLongBuffer();
+	}
+
+	public DoubleBuffer getFloat64Column( final String name ) throws IOException {
+		return mapped( name, TYPE_FLOAT64 ).asDoubleBuffer();
+	}
+
+	/**
+	 * @return the index of the row in the <code>frame_*</code> columns that
+	 *         describes time-point <code>t</code>, or -1 if there is none.
+	 */
+	public int findFrame( final int t ) throws IOException {
+		final IntBuffer frameT = getInt32Column( FRAME_T );
+		for ( int i = 0; i < frameT.limit(); i++ ) {
+			if ( frameT.get( i ) == t ) return i;
+		}
+		return -1;
+	}
+
+	private ColumnInfo column( final String name ) {
+		final ColumnInfo info = columns.get( name );
+		if ( info == null ) throw new IllegalArgumentException( "No column '" + name + "' in tr2d binary export." );
+		return info;
+	}
+
+	private synchronized ByteBuffer mapped( final String name, final byte type ) throws IOException {
+		final ColumnInfo info = column( name );
+		if ( info.type != type )
+			throw new IllegalArgumentException( String.format( "Column '%s' is of type %c, not %c.", name, ( char ) info.type, ( char ) type ) );
+		if ( info.mapped == null ) {
+			final MappedByteBuffer mapped = channel.map( FileChannel.MapMode.READ_ONLY, info.offset, info.rows * bytesPerElement( type ) );
+			info.mapped = mapped.order( BYTE_ORDER );
+		}
+		return info.mapped.duplicate().order( BYTE_ORDER );
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,262 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import static com.indago.tr2d.app.garcia.BinaryExportFormat.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes {@link TrackedFrame}s in the binary, columnar format described in
+ * {@link BinaryExportFormat}.
+ */
+public class BinaryExportWriter {
+
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	/**
+	 * A column to be written: name, type and the backing primitive array.
+	 */
+	private static class Column {
+
+		final String name;
+		final byte type;
+		final Object data;
+		final int rows;
+		long offset;
+
+		Column( final String name, final byte type, final Object data, final int rows ) {
+			this.name = name;
+			this.type = type;
+			this.data = data;
+			this.rows = rows;
+		}
+
+		long numBytes() {
+			return ( long ) rows * bytesPerElement( type );
+		}
+	}
+
+	private final int timeOffset;
+
+	/**
+	 * @param timeOffset
+	 *            added to the time of each frame (e.g. 'tmin' if only a time
+	 *            window of the raw data was tracked).
+	 */
+	public BinaryExportWriter( final int timeOffset ) {
+		this.timeOffset = timeOffset;
+	}
+
+	/**
+	 * Writes {@link BinaryExportFormat#FILENAME} into the given folder.
+	 *
+	 * @return the written file.
+	 */
+	public File write( final List< TrackedFrame > frames, final File folder ) throws IOException {
+		final File file = new File( folder, FILENAME );
+		write( frames, file.toPath() );
+		return file;
+	}
+
+	public void write( final List< TrackedFrame > frames, final Path path ) throws IOException {
+		final List< Column > columns = toColumns( frames );
+
+		long offset = HEADER_SIZE + ( long ) columns.size() * DIRECTORY_ENTRY_SIZE;
+		for ( final Column column : columns ) {
+			offset = align( offset );
+			column.offset = offset;
+			offset += column.numBytes();
+		}
+
+		try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+			final ByteBuffer buffer = ByteBuffer.allocateDirect( CHUNK_SIZE ).order( BYTE_ORDER );
+
+			buffer.put( MAGIC ).putInt( VERSION ).putInt( columns.size() );
+			for ( final Column column : columns ) {
+				final byte[] name = Arrays.copyOf( column.name.getBytes( StandardCharsets.US_ASCII ), NAME_LENGTH );
+				buffer.put( name ).put( column.type ).putLong( column.offset ).putLong( column.rows );
+				if ( buffer.remaining() < DIRECTORY_ENTRY_SIZE ) flush( channel, buffer );
+			}
+			flush( channel, buffer );
+
+			for ( final Column column : columns ) {
+				channel.position( column.offset );
+				writeData( channel, buffer, column );
+			}
+		}
+	}
+
+	/**
+	 * Transposes the given frames into columns and computes tracks.
+	 */
+	private List< Column > toColumns( final List< TrackedFrame > frames ) {
+		int numSegments = 0;
+		int numLinks = 0;
+		for ( final TrackedFrame frame : frames ) {
+			numSegments += frame.getSegments().size();
+			numLinks += frame.getLinks().size();
+		}
+
+		final int numFrames = frames.size();
+		final int[] frameT = new int[ numFrames ];
+		final long[] frameSegStart = new long[ numFrames ];
+		final int[] frameSegCount = new int[ numFrames ];
+		final long[] frameLinkStart = new long[ numFrames ];
+		final int[] frameLinkCount = new int[ numFrames ];
+
+		final int[] segT = new int[ numSegments ];
+		final int[] segId = new int[ numSegments ];
+		final int[] segTrack = new int[ numSegments ];
+		final long[] segArea = new long[ numSegments ];
+		final double[] segX = new double[ numSegments ];
+		final double[] segY = new double[ numSegments ];
+
+		final int[] linkT = new int[ numLinks ];
+		final byte[] linkType = new byte[ numLinks ];
+		final int[] linkSource = new int[ numLinks ];
+		final int[] linkTarget1 = new int[ numLinks ];
+		final int[] linkTarget2 = new int[ numLinks ];
+
+		// there are never more tracks than segments
+		final int[] trackParent = new int[ numSegments ];
+		final int[] trackStart = new int[ numSegments ];
+		final int[] trackEnd = new int[ numSegments ];
+		int numTracks = 0;
+
+		// segment id -> track id of its predecessor (movement) or mother (division)
+		Map< Integer, Integer > continuedTracks = new HashMap<>();
+		Map< Integer, Integer > motherTracks = new HashMap<>();
+		final Map< Integer, Integer > trackOfSegment = new HashMap<>();
+
+		int s = 0;
+		int l = 0;
+		for ( int f = 0; f < numFrames; f++ ) {
+			final TrackedFrame frame = frames.get( f );
+			final int t = frame.getTime() + timeOffset;
+			frameT[ f ] = t;
+			frameSegStart[ f ] = s;
+			frameSegCount[ f ] = frame.getSegments().size();
+			frameLinkStart[ f ] = l;
+			frameLinkCount[ f ] = frame.getLinks().size();
+
+			trackOfSegment.clear();
+			for ( final TrackedFrame.Segment segment : frame.getSegments() ) {
+				Integer track = continuedTracks.get( segment.getId() );
+				if ( track == null ) {
+					final Integer mother = motherTracks.get( segment.getId() );
+					track = numTracks++;
+					trackParent[ track ] = ( mother == null ) ? TrackedFrame.Link.NONE : mother;
+					trackStart[ track ] = t;
+				}
+				trackEnd[ track ] = t;
+				trackOfSegment.put( segment.getId(), track );
+
+				segT[ s ] = t;
+				segId[ s ] = segment.getId();
+				segTrack[ s ] = track;
+				segArea[ s ] = segment.getArea();
+				segX[ s ] = segment.getX();
+				segY[ s ] = segment.getY();
+				s++;
+			}
+
+			final Map< Integer, Integer > nextContinued = new HashMap<>();
+			final Map< Integer, Integer > nextMothers = new HashMap<>();
+			for ( final TrackedFrame.Link link : frame.getLinks() ) {
+				linkT[ l ] = t;
+				linkType[ l ] = ( byte ) link.getType().ordinal();
+				linkSource[ l ] = link.getSource();
+				linkTarget1[ l ] = link.getTarget1();
+				linkTarget2[ l ] = link.getTarget2();
+				l++;
+
+				final Integer sourceTrack = trackOfSegment.get( link.getSource() );
+				if ( sourceTrack == null ) continue;
+				if ( link.getType() == TrackedFrame.LinkType.MOVEMENT ) {
+					nextContinued.put( link.getTarget1(), sourceTrack );
+				} else if ( link.getType() == TrackedFrame.LinkType.DIVISION ) {
+					nextMothers.put( link.getTarget1(), sourceTrack );
+					nextMothers.put( link.getTarget2(), sourceTrack );
+				}
+			}
+			continuedTracks = nextContinued;
+			motherTracks = nextMothers;
+		}
+
+		final int[] trackId = new int[ numTracks ];
+		for ( int i = 0; i < numTracks; i++ )
+			trackId[ i ] = i;
+
+		final List< Column > columns = new ArrayList<>();
+		columns.add( new Column( FRAME_T, TYPE_INT32, frameT, numFrames ) );
+		columns.add( new Column( FRAME_SEG_START, TYPE_INT64, frameSegStart, numFrames ) );
+		columns.add( new Column( FRAME_SEG_COUNT, TYPE_INT32, frameSegCount, numFrames ) );
+		columns.add( new Column( FRAME_LINK_START, TYPE_INT64, frameLinkStart, numFrames ) );
+		columns.add( new Column( FRAME_LINK_COUNT, TYPE_INT32, frameLinkCount, numFrames ) );
+		columns.add( new Column( SEG_T, TYPE_INT32, segT, numSegments ) );
+		columns.add( new Column( SEG_ID, TYPE_INT32, segId, numSegments ) );
+		columns.add( new Column( SEG_TRACK, TYPE_INT32, segTrack, numSegments ) );
+		columns.add( new Column( SEG_AREA, TYPE_INT64, segArea, numSegments ) );
+		columns.add( new Column( SEG_X, TYPE_FLOAT64, segX, numSegments ) );
+		columns.add( new Column( SEG_Y, TYPE_FLOAT64, segY, numSegments ) );
+		columns.add( new Column( LINK_T, TYPE_INT32, linkT, numLinks ) );
+		columns.add( new Column( LINK_TYPE, TYPE_INT8, linkType, numLinks ) );
+		columns.add( new Column( LINK_SOURCE, TYPE_INT32, linkSource, numLinks ) );
+		columns.add( new Column( LINK_TARGET1, TYPE_INT32, linkTarget1, numLinks ) );
+		columns.add( new Column( LINK_TARGET2, TYPE_INT32, linkTarget2, numLinks ) );
+		columns.add( new Column( TRACK_ID, TYPE_INT32, trackId, numTracks ) );
+		columns.add( new Column( TRACK_PARENT, TYPE_INT32, trackParent, numTracks ) );
+		columns.add( new Column( TRACK_START, TYPE_INT32, trackStart, numTracks ) );
+		columns.add( new Column( TRACK_END, TYPE_INT32, trackEnd, numTracks ) );
+		return columns;
+	}
+
+	private static void writeData( final FileChannel channel, final ByteBuffer buffer, final Column column ) throws IOException {
+		final int bytesPerElement = bytesPerElement( column.type );
+		for ( int i = 0; i < column.rows; i++ ) {
+			if ( buffer.remaining() < bytesPerElement ) flush( channel, buffer );
+			switch ( column.type ) {
+			case TYPE_INT8:
+				buffer.put( ( ( byte[] ) column.data )[ i ] );
+				break;
+			case TYPE_INT32:
+				buffer.putInt( ( ( int[] ) column.data )[ i ] );
+				break;
+			case TYPE_INT64:
+				buffer.putLong( ( ( long[] ) column.data )[ i ] );
+				break;
+			case TYPE_FLOAT64:
+				buffer.putDouble( ( ( double[] ) column.data )[ i ] );
+				break;
+			default:
+				throw new IllegalArgumentException( "Unknown column type " + ( char ) column.type );
+			}
+		}
+		flush( channel, buffer );
+	}
+
+	private static void flush( final FileChannel channel, final ByteBuffer buffer ) throws IOException {
+		buffer.flip();
+		while ( buffer.hasRemaining() ) {
+			channel.write( buffer );
+		}
+		buffer.clear();
+	}
+
+	private static long align( final long offset ) {
+		return ( offset + 7 ) & ~7L;
+	}
+}
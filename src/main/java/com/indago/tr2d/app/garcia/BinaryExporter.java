@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.indago.tr2d.ui.model.Tr2dTrackingModel;
+
+import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
+import net.imglib2.IterableInterval;
+
+/**
+ * Exports the current solution of a {@link Tr2dTrackingModel} in the binary
+ * format (see {@link BinaryExportFormat}) and, optionally, the per-frame label
+ * images (see {@link LabelImageFile}).
+ */
+public class BinaryExporter {
+
+	/**
+	 * @param trackingModel
+	 *            the model to export the solution of.
+	 * @param folder
+	 *            the export folder.
+	 * @param timeOffset
+	 *            added to all exported time-points.
+	 * @param labelDimensions
+	 *            dimensions (x,y,t) of the raw data; if not <code>null</code>
+	 *            the label images are exported as well.
+	 * @return the number of exported frames.
+	 */
+	public static int export( final Tr2dTrackingModel trackingModel, final File folder, final int timeOffset, final Dimensions labelDimensions ) throws IOException {
+		final TrackingSolutionReader reader = new TrackingSolutionReader();
+		final List< TrackedFrame > frames = new ArrayList<>();
+
+		LabelImageFile labels = null;
+		try {
+			if ( labelDimensions != null ) {
+				final int width = ( int ) labelDimensions.dimension( 0 );
+				final int height = ( int ) labelDimensions.dimension( 1 );
+				final int numFrames = ( int ) labelDimensions.dimension( labelDimensions.numDimensions() - 1 );
+				final LabelImageFile labelFile = LabelImageFile.create( new File( folder, LabelImageFile.FILENAME ), width, height, numFrames, timeOffset );
+				labels = labelFile;
+				reader.setRegionHandler( new TrackingSolutionReader.RegionHandler() {
+
+					private int currentTime = -1;
+					private IntBuffer currentFrame;
+
+					@Override
+					public void handle( final int time, final int segmentId, final IterableInterval< ? > region ) throws IOException {
+						if ( time != currentTime ) {
+							currentFrame = labelFile.getFrame( time );
+							currentTime = time;
+						}
+						paint( currentFrame, width, height, segmentId + 1, region );
+					}
+				} );
+			}
+			reader.forEachFrame( trackingModel, frames::add );
+		} finally {
+			if ( labels != null ) labels.close();
+		}
+
+		new BinaryExportWriter( timeOffset ).write( frames, folder );
+		return frames.size();
+	}
+
+	private static void paint( final IntBuffer frame, final int width, final int height, final int label, final IterableInterval< ? > region ) {
+		final Cursor< ? > cursor = region.localizingCursor();
+		while ( cursor.hasNext() ) {
+			cursor.fwd();
+			final int x = cursor.getIntPosition( 0 );
+			final int y = cursor.getIntPosition( 1 );
+			if ( x >= 0 && y >= 0 && x < width && y < height ) frame.put( y * width + x, label );
+		}
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.nio.ByteBuffer;
+
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.AbstractInterval;
+import net.imglib2.Interval;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.ImgView;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * A read-only (x,y,t) image whose pixels are read on access from
+ * <code>ByteBuffer</code>s, one per block of a frame. Blocks tile each frame
+ * in a regular grid starting at (0,0); blocks at the right and bottom border
+ * are cropped to the frame. A block buffer holds the pixels of its block in
+ * row-major order, in the byte order of the buffer.
+ * <p>
+ * Used for memory-mapped TIFF planes (see {@link MappedTiffStack}, one block
+ * per frame) and for the chunked raw data store (see
+ * {@link ChunkedRawStore}).
+ */
+public class BlockBufferImage< T extends NativeType< T > > extends AbstractInterval implements RandomAccessibleInterval< T > {
+
+	/**
+	 * Provides the buffer of block <code>(bx,by)</code> of frame
+	 * <code>t</code>. Called concurrently from several threads.
+	 */
+	public interface BlockSource {
+
+		ByteBuffer getBlock( int t, int bx, int by );
+	}
+
+	/**
+	 * Reads pixel <code>index</code> of a block into a type.
+	 */
+	private interface PixelReader< T > {
+
+		void read( ByteBuffer block, int index, T target );
+	}
+
+	private static final PixelReader< UnsignedByteType > GRAY8 = ( block, index, target ) -> target.set( block.get( index ) & 0xff );
+	private static final PixelReader< UnsignedShortType > GRAY16 = ( block, index, target ) -> target.set( block.getShort( 2 * index ) & 0xffff );
+	private static final PixelReader< FloatType > GRAY32_FLOAT = ( block, index, target ) -> target.set( block.getFloat( 4 * index ) );
+
+	private final int width;
+	private final int blockWidth;
+	private final int blockHeight;
+	private final BlockSource source;
+	private final T type;
+	private final PixelReader< T > reader;
+
+	private BlockBufferImage(
+			final int width,
+			final int height,
+			final int numFrames,
+			final int blockWidth,
+			final int blockHeight,
+			final BlockSource source,
+			final T type,
+			final PixelReader< T > reader ) {
+		super( new long[] { width, height, numFrames } );
+		this.width = width;
+		this.blockWidth = blockWidth;
+		this.blockHeight = blockHeight;
+		this.source = source;
+		this.type = type;
+		this.reader = reader;
+	}
+
+	/**
+	 * @param bytesPerPixel
+	 *            1 (unsigned 8 bit), 2 (unsigned 16 bit) or 4 (32 bit float).
+	 * @return the blocks of the given source as <code>ImgPlus</code> with
+	 *         axes X, Y, TIME.
+	 */
+	public static ImgPlus< ? > wrap(
+			final String name,
+			final int width,
+			final int height,
+			final int numFrames,
+			final int blockWidth,
+			final int blockHeight,
+			final int bytesPerPixel,
+			final BlockSource source ) {
+		switch ( bytesPerPixel ) {
+		case 1:
+			return wrap( name, new BlockBufferImage<>( width, height, numFrames, blockWidth, blockHeight, source, new UnsignedByteType(), GRAY8 ) );
+		case 2:
+			return wrap( name, new BlockBufferImage<>( width, height, numFrames, blockWidth, blockHeight, source, new UnsignedShortType(), GRAY16 ) );
+		case 4:
+			return wrap( name, new BlockBufferImage<>( width, height, numFrames, blockWidth, blockHeight, source, new FloatType(), GRAY32_FLOAT ) );
+		default:
+			throw new IllegalArgumentException( "Unsupported number of bytes per pixel: " + bytesPerPixel );
+		}
+	}
+
+	private static < T extends RealType< T > & NativeType< T > > ImgPlus< T > wrap( final String name, final BlockBufferImage< T > img ) {
+		return new ImgPlus<>(
+				ImgView.wrap( img, new ArrayImgFactory< T >() ),
+				name,
+				new AxisType[] { Axes.X, Axes.Y, Axes.TIME } );
+	}
+
+	/**
+	 * @return number of blocks needed to cover <code>size</code> pixels.
+	 */
+	public static int numBlocks( final int size, final int blockSize ) {
+		return ( size + blockSize - 1 ) / blockSize;
+	}
+
+	@Override
+	public RandomAccess< T > randomAccess() {
+		return new BlockRandomAccess();
+	}
+
+	@Override
+	public RandomAccess< T > randomAccess( final Interval interval ) {
+		return randomAccess();
+	}
+
+	/**
+	 * Reads the pixel at its position whenever {@link #get()} is called and
+	 * remembers the last block it read from. The returned type is a copy,
+	 * writing to it has no effect.
+	 */
+	private class BlockRandomAccess extends Point implements RandomAccess< T > {
+
+		private final T value = type.createVariable();
+
+		private int lastT = -1;
+		private int lastBx = -1;
+		private int lastBy = -1;
+		private ByteBuffer block;
+		private int rowLength;
+
+		BlockRandomAccess() {
+			super( 3 );
+		}
+
+		@Override
+		public T get() {
+			final int x = ( int ) position[ 0 ];
+			final int y = ( int ) position[ 1 ];
+			final int t = ( int ) position[ 2 ];
+			final int bx = x / blockWidth;
+			final int by = y / blockHeight;
+			if ( t != lastT || bx != lastBx || by != lastBy ) {
+				block = source.getBlock( t, bx, by );
+				rowLength = Math.min( blockWidth, width - bx * blockWidth );
+				lastT = t;
+				lastBx = bx;
+				lastBy = by;
+			}
+			reader.read( block, ( y - by * blockHeight ) * rowLength + ( x - bx * blockWidth ), value );
+			return value;
+		}
+
+		@Override
+		public BlockRandomAccess copy() {
+			final BlockRandomAccess copy = new BlockRandomAccess();
+			copy.setPosition( this );
+			return copy;
+		}
+
+		@Override
+		public BlockRandomAccess copyRandomAccess() {
+			return copy();
+		}
+	}
+}
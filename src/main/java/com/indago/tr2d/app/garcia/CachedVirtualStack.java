@@ -0,0 +1,135 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ImageProcessor;
+
+/**
+ * A {@link VirtualStack} that decodes the planes of a (virtual) source stack
+ * only on demand and keeps the most recently used ones in a bounded LRU cache.
+ * Heap usage is therefore bound by the size of the working set instead of the
+ * size of the whole dataset.
+ * Optionally only a contiguous range of planes of the source is exposed, in
+ * which case planes outside this range are never decoded at all.
+ */
+public class CachedVirtualStack extends VirtualStack {
+
+	private final ImageStack source;
+	private final int firstPlane;
+	private final int numPlanes;
+	private final int maxCachedPlanes;
+	private final Map< Integer, ImageProcessor > cache;
+
+	/**
+	 * @param source
+	 *            the stack to read planes from, typically a
+	 *            <code>FileInfoVirtualStack</code>.
+	 * @param maxCachedPlanes
+	 *            the maximum number of decoded planes kept on the heap.
+	 */
+	public CachedVirtualStack( final ImageStack source, final int maxCachedPlanes ) {
+		this( source, 1, source.getSize(), maxCachedPlanes );
+	}
+
+	/**
+	 * @param source
+	 *            the stack to read planes from, typically a
+	 *            <code>FileInfoVirtualStack</code>.
+	 * @param firstPlane
+	 *            the first plane of <code>source</code> (1-based) that is
+	 *            exposed as plane 1 of this stack.
+	 * @param numPlanes
+	 *            the number of planes exposed by this stack.
+	 * @param maxCachedPlanes
+	 *            the maximum number of decoded planes kept on the heap.
+	 */
+	public CachedVirtualStack( final ImageStack source, final int firstPlane, final int numPlanes, final int maxCachedPlanes ) {
+		super( source.getWidth(), source.getHeight(), source.getColorModel(), null );
+		if ( firstPlane < 1 || numPlanes < 1 || firstPlane + numPlanes - 1 > source.getSize() )
+			throw new IllegalArgumentException( String.format(
+					"Planes [%d,%d] are not within source stack of size %d.",
+					firstPlane, firstPlane + numPlanes - 1, source.getSize() ) );
+		this.source = source;
+		this.firstPlane = firstPlane;
+		this.numPlanes = numPlanes;
+		this.maxCachedPlanes = Math.max( 1, maxCachedPlanes );
+		this.cache = new LinkedHashMap< Integer, ImageProcessor >( 16, 0.75f, true ) {
+
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< Integer, ImageProcessor > eldest ) {
+				return size() > CachedVirtualStack.this.maxCachedPlanes;
+			}
+		};
+	}
+
+	/**
+	 * Returns the (cached) processor of plane <code>n</code> (1-based).
+	 * Planes are decoded outside the cache lock so that concurrent readers
+	 * can decode different planes in parallel.
+	 *
+	 * @see ij.VirtualStack#getProcessor(int)
+	 */
+	@Override
+	public ImageProcessor getProcessor( final int n ) {
+		synchronized ( cache ) {
+			final ImageProcessor cached = cache.get( n );
+			if ( cached != null ) return cached;
+		}
+		final ImageProcessor ip = source.getProcessor( toSourcePlane( n ) );
+		synchronized ( cache ) {
+			cache.put( n, ip );
+		}
+		return ip;
+	}
+
+	/**
+	 * @see ij.VirtualStack#getPixels(int)
+	 */
+	@Override
+	public Object getPixels( final int n ) {
+		final ImageProcessor ip = getProcessor( n );
+		return ( ip == null ) ? null : ip.getPixels();
+	}
+
+	/**
+	 * @see ij.VirtualStack#getSize()
+	 */
+	@Override
+	public int getSize() {
+		return numPlanes;
+	}
+
+	/**
+	 * @see ij.VirtualStack#getSliceLabel(int)
+	 */
+	@Override
+	public String getSliceLabel( final int n ) {
+		return source.getSliceLabel( toSourcePlane( n ) );
+	}
+
+	private int toSourcePlane( final int n ) {
+		return firstPlane + n - 1;
+	}
+
+	/**
+	 * @return the maximum number of planes kept in the cache.
+	 */
+	public int getMaxCachedPlanes() {
+		return maxCachedPlanes;
+	}
+
+	/**
+	 * Drops all cached planes.
+	 */
+	public void clearCache() {
+		synchronized ( cache ) {
+			cache.clear();
+		}
+	}
+}
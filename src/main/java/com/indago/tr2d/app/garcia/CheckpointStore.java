@@ -0,0 +1,132 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Finished parts of a run (the solution of a time window, a tile or the
+ * whole movie), stored in {@link #FOLDER_NAME} of the project folder as soon
+ * as they are done, so that a run that died halfway can be resumed without
+ * redoing them. Each checkpoint is one file tagged with a key of everything
+ * the result depends on (input, time range, settings, solver); checkpoints
+ * with another key are ignored. The caller removes the folder once the run
+ * finished.
+ * <p>
+ * A checkpoint file holds the key and all frames with their segments and
+ * links, deflate-compressed (magic <code>TR2DCP01</code>). It is replaced
+ * atomically.
+ */
+public class CheckpointStore {
+
+	public static final String FOLDER_NAME = "checkpoints";
+
+	private static final String SUFFIX = ".bin";
+
+	private static final byte[] MAGIC = { 'T', 'R', '2', 'D', 'C', 'P', '0', '1' };
+
+	private final File folder;
+	private final String runKey;
+
+	/**
+	 * @param folder
+	 *            folder the checkpoints are stored in.
+	 * @param runKey
+	 *            identifies the run; only checkpoints written with the same
+	 *            key are loaded.
+	 */
+	public CheckpointStore( final File folder, final String runKey ) {
+		this.folder = folder;
+		this.runKey = runKey;
+	}
+
+	public File getFolder() {
+		return folder;
+	}
+
+	/**
+	 * @return the frames stored under the given name by a run with the same
+	 *         key, or <code>null</code> if there are none (or they cannot be
+	 *         read).
+	 */
+	public List< TrackedFrame > load( final String name ) {
+		final File file = getFile( name );
+		if ( !file.isFile() ) return null;
+		try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new InflaterInputStream( new FileInputStream( file ) ) ) ) ) {
+			final byte[] magic = new byte[ MAGIC.length ];
+			in.readFully( magic );
+			if ( !Arrays.equals( magic, MAGIC ) || !runKey.equals( in.readUTF() ) ) return null;
+			final int numFrames = in.readInt();
+			final List< TrackedFrame > frames = new ArrayList<>();
+			for ( int i = 0; i < numFrames; i++ ) {
+				final TrackedFrame frame = new TrackedFrame( in.readInt() );
+				final int numSegments = in.readInt();
+				for ( int s = 0; s < numSegments; s++ ) {
+					frame.addSegment( new TrackedFrame.Segment( in.readInt(), in.readLong(), in.readDouble(), in.readDouble() ) );
+				}
+				final int numLinks = in.readInt();
+				for ( int l = 0; l < numLinks; l++ ) {
+					final int type = in.readByte();
+					if ( type < 0 || type >= TrackedFrame.LinkType.values().length ) return null;
+					frame.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.values()[ type ], in.readInt(), in.readInt(), in.readInt() ) );
+				}
+				frames.add( frame );
+			}
+			return frames;
+		} catch ( final IOException e ) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores (atomically replaces) the frames under the given name.
+	 */
+	public void save( final String name, final List< TrackedFrame > frames ) throws IOException {
+		if ( !folder.isDirectory() && !folder.mkdirs() && !folder.isDirectory() )
+			throw new IOException( "Could not create checkpoint folder " + folder );
+		final File file = getFile( name );
+		final File tmp = new File( folder, file.getName() + ".tmp" );
+		try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new DeflaterOutputStream( new FileOutputStream( tmp ) ) ) ) ) {
+			out.write( MAGIC );
+			out.writeUTF( runKey );
+			out.writeInt( frames.size() );
+			for ( final TrackedFrame frame : frames ) {
+				out.writeInt( frame.getTime() );
+				out.writeInt( frame.getSegments().size() );
+				for ( final TrackedFrame.Segment segment : frame.getSegments() ) {
+					out.writeInt( segment.getId() );
+					out.writeLong( segment.getArea() );
+					out.writeDouble( segment.getX() );
+					out.writeDouble( segment.getY() );
+				}
+				out.writeInt( frame.getLinks().size() );
+				for ( final TrackedFrame.Link link : frame.getLinks() ) {
+					out.writeByte( link.getType().ordinal() );
+					out.writeInt( link.getSource() );
+					out.writeInt( link.getTarget1() );
+					out.writeInt( link.getTarget2() );
+				}
+			}
+		}
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+	}
+
+	private File getFile( final String name ) {
+		return new File( folder, name + SUFFIX );
+	}
+}
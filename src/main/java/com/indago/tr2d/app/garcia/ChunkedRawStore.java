@@ -0,0 +1,429 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import net.imagej.ImgPlus;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * The raw data of a tr2d project, converted once into deflate-compressed
+ * blocks (tiles of one frame) inside the project folder (see
+ * {@link #FOLDER_NAME}).
+ * <p>
+ * Other than the monolithic TIFF stack, single frames and regions of
+ * interest can be read without touching the rest of the data, and blocks are
+ * decompressed in parallel. Layout of the store folder:
+ * <ul>
+ * <li><code>attributes.properties</code> -- dimensions, pixel type, block
+ * size and the TIFF stack the store was converted from (path, size, last
+ * modification). It is written last and marks a complete store.</li>
+ * <li><code>&lt;t&gt;/&lt;bx&gt;_&lt;by&gt;.blk</code> -- the pixels of block
+ * <code>(bx,by)</code> of frame <code>t</code>, row-major, big-endian,
+ * deflate-compressed.</li>
+ * </ul>
+ * A store is converted into a temporary folder next to it and then moved into
+ * place, while holding a lock on <code>&lt;folder&gt;.lock</code>, so
+ * concurrent launchers on the same project convert it only once and never see
+ * a half written store. Only unsigned 8 and 16 bit and 32 bit float raw data
+ * can be stored.
+ */
+public class ChunkedRawStore {
+
+	public static final String FOLDER_NAME = "raw_chunks";
+	public static final String ATTRIBUTES_FILENAME = "attributes.properties";
+
+	/**
+	 * Default edge length of the (square) blocks in pixels.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 256;
+
+	private static final String BLOCK_SUFFIX = ".blk";
+	private static final String LOCK_SUFFIX = ".lock";
+
+	/**
+	 * One monitor per store folder: file locks are held by the JVM, so they
+	 * do not exclude threads of the same JVM from each other.
+	 */
+	private static final Map< String, Object > FOLDER_MONITORS = new ConcurrentHashMap<>();
+
+	private final File folder;
+	private final int width;
+	private final int height;
+	private final int numFrames;
+	private final int bytesPerPixel;
+	private final int blockSize;
+
+	/**
+	 * Opens an existing store.
+	 *
+	 * @throws IOException
+	 *             if the folder does not hold a complete store.
+	 */
+	public ChunkedRawStore( final File folder ) throws IOException {
+		this.folder = folder;
+		final Properties attributes = readAttributes( folder );
+		if ( attributes == null ) throw new IOException( "No chunked raw data in " + folder.getAbsolutePath() );
+		try {
+			width = Integer.parseInt( attributes.getProperty( "width" ) );
+			height = Integer.parseInt( attributes.getProperty( "height" ) );
+			numFrames = Integer.parseInt( attributes.getProperty( "frames" ) );
+			bytesPerPixel = Integer.parseInt( attributes.getProperty( "bytesPerPixel" ) );
+			blockSize = Integer.parseInt( attributes.getProperty( "blockSize" ) );
+		} catch ( final NumberFormatException e ) {
+			throw new IOException( "Broken attributes in " + folder.getAbsolutePath(), e );
+		}
+	}
+
+	/**
+	 * @return true, iff the given folder holds a complete store converted
+	 *         from the given stack in its current version.
+	 */
+	public static boolean isUpToDate( final File folder, final File source ) {
+		final Properties attributes = readAttributes( folder );
+		return attributes != null
+				&& source.getAbsolutePath().equals( attributes.getProperty( "source" ) )
+				&& Long.toString( source.length() ).equals( attributes.getProperty( "sourceLength" ) )
+				&& Long.toString( source.lastModified() ).equals( attributes.getProperty( "sourceLastModified" ) );
+	}
+
+	/**
+	 * Converts the given raw data (x,y,t) into a store in the given folder,
+	 * replacing whatever was there, unless another thread or process
+	 * converted the same stack in the meantime. Frames are converted in
+	 * parallel.
+	 *
+	 * @param source
+	 *            the stack <code>raw</code> was read from, recorded to detect
+	 *            outdated stores (see {@link #isUpToDate(File, File)}).
+	 * @throws IOException
+	 *             also if the pixel type of <code>raw</code> is not supported
+	 *             or a frame does not fit into a single buffer.
+	 */
+	public static void convert(
+			final RandomAccessibleInterval< ? extends RealType< ? > > raw,
+			final File source,
+			final File folder,
+			final int blockSize,
+			final int numThreads ) throws IOException, InterruptedException {
+		final int bytesPerPixel = bytesPerPixel( Util.getTypeFromInterval( raw ) );
+		final long frameBytes = raw.dimension( 0 ) * raw.dimension( 1 ) * bytesPerPixel;
+		if ( frameBytes > Integer.MAX_VALUE )
+			throw new IOException( String.format( "Frames of %dx%d pixels are too large for the chunk store.", raw.dimension( 0 ), raw.dimension( 1 ) ) );
+
+		final Path target = folder.getAbsoluteFile().toPath();
+		Files.createDirectories( target.getParent() );
+		synchronized ( FOLDER_MONITORS.computeIfAbsent( target.toString(), path -> new Object() ) ) {
+			try ( FileChannel lockFile = FileChannel.open( target.resolveSibling( target.getFileName() + LOCK_SUFFIX ), StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+					FileLock lock = lockFile.lock() ) {
+				if ( isUpToDate( folder, source ) ) return;
+				final Path tmp = Files.createTempDirectory( target.getParent(), target.getFileName() + ".tmp" );
+				try {
+					writeStore( raw, source, tmp.toFile(), bytesPerPixel, blockSize, numThreads );
+					replace( tmp, target );
+				} finally {
+					SubProjectFolders.delete( tmp.toFile() );
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return bytes per pixel in a store of the given pixel type.
+	 * @throws IOException
+	 *             if the type cannot be stored without loss.
+	 */
+	private static int bytesPerPixel( final Object type ) throws IOException {
+		if ( type instanceof UnsignedByteType ) return 1;
+		if ( type instanceof UnsignedShortType ) return 2;
+		if ( type instanceof FloatType ) return 4;
+		throw new IOException( "Raw data of type " + type.getClass().getSimpleName() + " cannot be stored in the chunk store (only 8/16 bit unsigned and 32 bit float)." );
+	}
+
+	/**
+	 * Moves the store in <code>tmp</code> to <code>target</code>. An old
+	 * store is moved aside first (directories cannot be replaced in one
+	 * atomic step), so <code>target</code> is either missing or complete.
+	 */
+	private static void replace( final Path tmp, final Path target ) throws IOException {
+		Path old = null;
+		if ( Files.exists( target ) ) {
+			old = Files.createTempDirectory( target.getParent(), target.getFileName() + ".old" );
+			Files.delete( old );
+			Files.move( target, old, StandardCopyOption.ATOMIC_MOVE );
+		}
+		Files.move( tmp, target, StandardCopyOption.ATOMIC_MOVE );
+		if ( old != null ) SubProjectFolders.delete( old.toFile() );
+	}
+
+	/**
+	 * Writes all frames and, last, the attributes of a store into the given
+	 * (empty) folder.
+	 */
+	private static void writeStore(
+			final RandomAccessibleInterval< ? extends RealType< ? > > raw,
+			final File source,
+			final File folder,
+			final int bytesPerPixel,
+			final int blockSize,
+			final int numThreads ) throws IOException, InterruptedException {
+		final int width = ( int ) raw.dimension( 0 );
+		final int height = ( int ) raw.dimension( 1 );
+		final int numFrames = ( int ) raw.dimension( 2 );
+
+		final ExecutorService pool = newPool( numThreads );
+		try {
+			final List< Future< Void > > futures = new ArrayList<>();
+			for ( int t = 0; t < numFrames; t++ ) {
+				final int frame = t;
+				futures.add( pool.submit( ( Callable< Void > ) () -> {
+					writeFrame( Views.hyperSlice( raw, 2, frame ), new File( folder, Integer.toString( frame ) ), width, height, bytesPerPixel, blockSize );
+					return null;
+				} ) );
+			}
+			for ( final Future< Void > future : futures ) {
+				future.get();
+			}
+		} catch ( final ExecutionException e ) {
+			if ( e.getCause() instanceof IOException ) throw ( IOException ) e.getCause();
+			throw new RuntimeException( e.getCause() );
+		} finally {
+			pool.shutdownNow();
+		}
+
+		final Properties attributes = new Properties();
+		attributes.setProperty( "width", Integer.toString( width ) );
+		attributes.setProperty( "height", Integer.toString( height ) );
+		attributes.setProperty( "frames", Integer.toString( numFrames ) );
+		attributes.setProperty( "bytesPerPixel", Integer.toString( bytesPerPixel ) );
+		attributes.setProperty( "blockSize", Integer.toString( blockSize ) );
+		attributes.setProperty( "source", source.getAbsolutePath() );
+		attributes.setProperty( "sourceLength", Long.toString( source.length() ) );
+		attributes.setProperty( "sourceLastModified", Long.toString( source.lastModified() ) );
+		try ( OutputStream out = new FileOutputStream( new File( folder, ATTRIBUTES_FILENAME ) ) ) {
+			attributes.store( out, "tr2d chunked raw data" );
+		}
+	}
+
+	private static void writeFrame(
+			final RandomAccessibleInterval< ? extends RealType< ? > > plane,
+			final File frameFolder,
+			final int width,
+			final int height,
+			final int bytesPerPixel,
+			final int blockSize ) throws IOException {
+		Files.createDirectories( frameFolder.toPath() );
+		final long frameBytes = ( long ) width * height * bytesPerPixel;
+		if ( frameBytes > Integer.MAX_VALUE ) throw new IOException( String.format( "Frames of %dx%d pixels are too large for the chunk store.", width, height ) );
+		final ByteBuffer pixels = ByteBuffer.allocate( ( int ) frameBytes ).order( ByteOrder.BIG_ENDIAN );
+		final Cursor< ? extends RealType< ? > > cursor = Views.flatIterable( plane ).cursor();
+		while ( cursor.hasNext() ) {
+			final double value = cursor.next().getRealDouble();
+			if ( bytesPerPixel == 1 )
+				pixels.put( ( byte ) value );
+			else if ( bytesPerPixel == 2 )
+				pixels.putShort( ( short ) value );
+			else
+				pixels.putFloat( ( float ) value );
+		}
+
+		final byte[] row = new byte[ blockSize * bytesPerPixel ];
+		for ( int by = 0; by < BlockBufferImage.numBlocks( height, blockSize ); by++ ) {
+			for ( int bx = 0; bx < BlockBufferImage.numBlocks( width, blockSize ); bx++ ) {
+				final int x0 = bx * blockSize;
+				final int y0 = by * blockSize;
+				final int rowBytes = Math.min( blockSize, width - x0 ) * bytesPerPixel;
+				try ( OutputStream out = new BufferedOutputStream( new DeflaterOutputStream( new FileOutputStream( new File( frameFolder, blockName( bx, by ) ) ) ) ) ) {
+					for ( int y = y0; y < Math.min( y0 + blockSize, height ); y++ ) {
+						pixels.position( ( y * width + x0 ) * bytesPerPixel );
+						pixels.get( row, 0, rowBytes );
+						out.write( row, 0, rowBytes );
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens the frames <code>[tmin, tmax]</code> (0-based, inclusive,
+	 * <code>tmax</code> is clipped to the number of frames) of the store.
+	 * Accessing a block decompresses all blocks of its frame in parallel;
+	 * decompressed blocks are kept in an LRU cache.
+	 *
+	 * @param maxCachedFrames
+	 *            number of frames the cache can hold; if all requested frames
+	 *            fit, they are all decompressed right away.
+	 * @return an image with axes X, Y, TIME, or <code>null</code> if
+	 *         <code>tmin</code> is out of range.
+	 */
+	public ImgPlus< ? > open( final int tmin, final int tmax, final int maxCachedFrames, final int numThreads ) {
+		if ( tmin >= numFrames ) return null;
+		final int numOpened = Math.min( tmax, numFrames - 1 ) - tmin + 1;
+		final BlockCache cache = new BlockCache( tmin, Math.max( 1, Math.min( maxCachedFrames, numOpened ) ), newPool( numThreads ) );
+		if ( maxCachedFrames >= numOpened ) {
+			for ( int t = 0; t < numOpened; t++ ) {
+				cache.prefetch( t );
+			}
+		}
+		return BlockBufferImage.wrap( folder.getName(), width, height, numOpened, blockSize, blockSize, bytesPerPixel, cache );
+	}
+
+	/**
+	 * Decompressed blocks, loaded a frame at a time by a pool of threads.
+	 */
+	private class BlockCache implements BlockBufferImage.BlockSource {
+
+		private final int tmin;
+		private final int blocksX = BlockBufferImage.numBlocks( width, blockSize );
+		private final int blocksY = BlockBufferImage.numBlocks( height, blockSize );
+		private final ExecutorService pool;
+		private final Map< Long, Future< ByteBuffer > > blocks;
+
+		BlockCache( final int tmin, final int maxCachedFrames, final ExecutorService pool ) {
+			this.tmin = tmin;
+			this.pool = pool;
+			final int maxBlocks = maxCachedFrames * blocksX * blocksY;
+			this.blocks = new LinkedHashMap< Long, Future< ByteBuffer > >( 16, 0.75f, true ) {
+
+				@Override
+				protected boolean removeEldestEntry( final Map.Entry< Long, Future< ByteBuffer > > eldest ) {
+					return size() > maxBlocks;
+				}
+			};
+		}
+
+		@Override
+		public ByteBuffer getBlock( final int t, final int bx, final int by ) {
+			Future< ByteBuffer > block;
+			synchronized ( blocks ) {
+				block = blocks.get( key( t, bx, by ) );
+				if ( block == null ) {
+					prefetch( t );
+					block = blocks.get( key( t, bx, by ) );
+				}
+			}
+			try {
+				return block.get();
+			} catch ( final InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException( e );
+			} catch ( final ExecutionException e ) {
+				if ( e.getCause() instanceof IOException ) throw new UncheckedIOException( ( IOException ) e.getCause() );
+				throw new RuntimeException( e.getCause() );
+			}
+		}
+
+		/**
+		 * Submits all blocks of frame <code>t</code> that are not cached yet.
+		 */
+		void prefetch( final int t ) {
+			synchronized ( blocks ) {
+				for ( int by = 0; by < blocksY; by++ ) {
+					for ( int bx = 0; bx < blocksX; bx++ ) {
+						final Long key = key( t, bx, by );
+						if ( blocks.containsKey( key ) ) continue;
+						final int x = bx;
+						final int y = by;
+						blocks.put( key, pool.submit( () -> readBlock( tmin + t, x, y ) ) );
+					}
+				}
+			}
+		}
+
+		private Long key( final int t, final int bx, final int by ) {
+			return ( ( long ) t << 32 ) | ( ( long ) bx << 16 ) | by;
+		}
+	}
+
+	private ByteBuffer readBlock( final int t, final int bx, final int by ) throws IOException {
+		final int blockWidth = Math.min( blockSize, width - bx * blockSize );
+		final int blockHeight = Math.min( blockSize, height - by * blockSize );
+		final byte[] pixels = new byte[ blockWidth * blockHeight * bytesPerPixel ];
+		final File file = new File( new File( folder, Integer.toString( t ) ), blockName( bx, by ) );
+		try ( InputStream in = new InflaterInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) ) {
+			int read = 0;
+			while ( read < pixels.length ) {
+				final int n = in.read( pixels, read, pixels.length - read );
+				if ( n < 0 ) throw new IOException( "Truncated block " + file.getAbsolutePath() );
+				read += n;
+			}
+		}
+		return ByteBuffer.wrap( pixels ).order( ByteOrder.BIG_ENDIAN );
+	}
+
+	private static String blockName( final int bx, final int by ) {
+		return bx + "_" + by + BLOCK_SUFFIX;
+	}
+
+	private static Properties readAttributes( final File folder ) {
+		final File file = new File( folder, ATTRIBUTES_FILENAME );
+		if ( !file.isFile() ) return null;
+		final Properties attributes = new Properties();
+		try ( InputStream in = new FileInputStream( file ) ) {
+			attributes.load( in );
+			return attributes;
+		} catch ( final IOException e ) {
+			return null;
+		}
+	}
+
+	/**
+	 * A pool of daemon threads that end when idle, so opened stores need no
+	 * explicit closing.
+	 */
+	private static ExecutorService newPool( final int numThreads ) {
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+				numThreads,
+				numThreads,
+				10,
+				TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(),
+				runnable -> {
+					final Thread thread = new Thread( runnable, "tr2d-raw-chunks" );
+					thread.setDaemon( true );
+					return thread;
+				} );
+		pool.allowCoreThreadTimeOut( true );
+		return pool;
+	}
+}
@@ -0,0 +1,287 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A small, pure-Java tracker that needs no ILP solver: segments are the
+ * connected foreground components of one hypotheses image per frame, and
+ * consecutive frames are linked greedily, cheapest link first.
+ * <p>
+ * The cost of moving from segment <code>a</code> to <code>b</code> is
+ * <code>distanceWeight * distance + areaWeight * |area(a) - area(b)| / max(area(a), area(b))</code>.
+ * Movements are only considered between segments closer than
+ * <code>maxDistance</code> and taken if they cost less than
+ * <code>maxCost</code>. A segment that was not linked to a predecessor can
+ * still become the second daughter of a moving segment if the division
+ * (cost computed against the union of both daughters, plus
+ * <code>divisionCost</code>) costs less than <code>maxCost</code>.
+ * Everything else appears or disappears.
+ * <p>
+ * The result is a valid lineage (each segment has exactly one incoming and,
+ * except in the last frame, one outgoing link), but of course not an
+ * optimal one; it is meant for small jobs, screening and machines without a
+ * Gurobi license.
+ */
+public class GreedyTracker {
+
+	public static final double DEFAULT_DISTANCE_WEIGHT = 1.0;
+	public static final double DEFAULT_AREA_WEIGHT = 20.0;
+	public static final double DEFAULT_DIVISION_COST = 10.0;
+	public static final double DEFAULT_MAX_COST = 40.0;
+	public static final double DEFAULT_MAX_DISTANCE = 30.0;
+	public static final int DEFAULT_MIN_AREA = 10;
+
+	/**
+	 * Names of the parameters accepted by {@link #create(Map)}.
+	 */
+	public static final List< String > PARAMETER_NAMES =
+			Arrays.asList( "distanceWeight", "areaWeight", "divisionCost", "maxCost", "maxDistance", "minArea" );
+
+	private double distanceWeight = DEFAULT_DISTANCE_WEIGHT;
+	private double areaWeight = DEFAULT_AREA_WEIGHT;
+	private double divisionCost = DEFAULT_DIVISION_COST;
+	private double maxCost = DEFAULT_MAX_COST;
+	private double maxDistance = DEFAULT_MAX_DISTANCE;
+	private int minArea = DEFAULT_MIN_AREA;
+
+	/**
+	 * @return a tracker with the given parameters (names see
+	 *         {@link #PARAMETER_NAMES}, defaults for all others).
+	 * @throws IllegalArgumentException
+	 *             if a parameter is unknown.
+	 */
+	public static GreedyTracker create( final Map< String, Double > parameters ) {
+		final GreedyTracker tracker = new GreedyTracker();
+		for ( final Map.Entry< String, Double > parameter : parameters.entrySet() ) {
+			final double value = parameter.getValue();
+			switch ( parameter.getKey() ) {
+			case "distanceWeight":
+				tracker.setDistanceWeight( value );
+				break;
+			case "areaWeight":
+				tracker.setAreaWeight( value );
+				break;
+			case "divisionCost":
+				tracker.setDivisionCost( value );
+				break;
+			case "maxCost":
+				tracker.setMaxCost( value );
+				break;
+			case "maxDistance":
+				tracker.setMaxDistance( value );
+				break;
+			case "minArea":
+				tracker.setMinArea( ( int ) value );
+				break;
+			default:
+				throw new IllegalArgumentException( "Unknown tracker parameter: " + parameter.getKey() );
+			}
+		}
+		return tracker;
+	}
+
+	public GreedyTracker setDistanceWeight( final double distanceWeight ) {
+		this.distanceWeight = distanceWeight;
+		return this;
+	}
+
+	public GreedyTracker setAreaWeight( final double areaWeight ) {
+		this.areaWeight = areaWeight;
+		return this;
+	}
+
+	public GreedyTracker setDivisionCost( final double divisionCost ) {
+		this.divisionCost = divisionCost;
+		return this;
+	}
+
+	public GreedyTracker setMaxCost( final double maxCost ) {
+		this.maxCost = maxCost;
+		return this;
+	}
+
+	public GreedyTracker setMaxDistance( final double maxDistance ) {
+		this.maxDistance = maxDistance;
+		return this;
+	}
+
+	/**
+	 * Components smaller than this many pixels are ignored.
+	 */
+	public GreedyTracker setMinArea( final int minArea ) {
+		this.minArea = minArea;
+		return this;
+	}
+
+	public int getMinArea() {
+		return minArea;
+	}
+
+	/**
+	 * @return all parameters as one string, equal iff the parameters are.
+	 */
+	public String getParameters() {
+		return String.format( "distanceWeight=%s areaWeight=%s divisionCost=%s maxCost=%s maxDistance=%s minArea=%d",
+				distanceWeight, areaWeight, divisionCost, maxCost, maxDistance, minArea );
+	}
+
+	/**
+	 * @return the 4-connected components of all pixels with a label &gt; 0 of
+	 *         the given plane (row-major), at least <code>minArea</code>
+	 *         pixels large, with ids starting at <code>firstId</code>.
+	 */
+	public static List< TrackedFrame.Segment > findSegments( final int[] labels, final int width, final int height, final int minArea, final int firstId ) {
+		final List< TrackedFrame.Segment > segments = new ArrayList<>();
+		final boolean[] visited = new boolean[ labels.length ];
+		final int[] stack = new int[ labels.length ];
+		for ( int start = 0; start < labels.length; start++ ) {
+			if ( visited[ start ] || labels[ start ] <= 0 ) continue;
+			int size = 0;
+			long area = 0;
+			double sumX = 0;
+			double sumY = 0;
+			stack[ size++ ] = start;
+			visited[ start ] = true;
+			while ( size > 0 ) {
+				final int i = stack[ --size ];
+				final int x = i % width;
+				final int y = i / width;
+				area++;
+				sumX += x;
+				sumY += y;
+				if ( x > 0 && !visited[ i - 1 ] && labels[ i - 1 ] > 0 ) {
+					visited[ i - 1 ] = true;
+					stack[ size++ ] = i - 1;
+				}
+				if ( x < width - 1 && !visited[ i + 1 ] && labels[ i + 1 ] > 0 ) {
+					visited[ i + 1 ] = true;
+					stack[ size++ ] = i + 1;
+				}
+				if ( y > 0 && !visited[ i - width ] && labels[ i - width ] > 0 ) {
+					visited[ i - width ] = true;
+					stack[ size++ ] = i - width;
+				}
+				if ( y < height - 1 && !visited[ i + width ] && labels[ i + width ] > 0 ) {
+					visited[ i + width ] = true;
+					stack[ size++ ] = i + width;
+				}
+			}
+			if ( area >= minArea ) segments.add( new TrackedFrame.Segment( firstId + segments.size(), area, sumX / area, sumY / area ) );
+		}
+		return segments;
+	}
+
+	/**
+	 * Links the given segments (ids unique over all frames) frame to frame.
+	 *
+	 * @return one frame per entry of <code>segmentsPerFrame</code>, times
+	 *         starting at 0.
+	 */
+	public List< TrackedFrame > track( final List< List< TrackedFrame.Segment > > segmentsPerFrame ) {
+		final List< TrackedFrame > frames = new ArrayList<>();
+		Set< Integer > linkedIn = new HashSet<>();
+		for ( int t = 0; t < segmentsPerFrame.size(); t++ ) {
+			final TrackedFrame frame = new TrackedFrame( t );
+			final List< TrackedFrame.Segment > current = segmentsPerFrame.get( t );
+			for ( final TrackedFrame.Segment segment : current ) {
+				frame.addSegment( segment );
+				if ( !linkedIn.contains( segment.getId() ) )
+					frame.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.APPEARANCE, TrackedFrame.Link.NONE, segment.getId(), TrackedFrame.Link.NONE ) );
+			}
+			if ( t < segmentsPerFrame.size() - 1 ) {
+				final Set< Integer > nextLinkedIn = new HashSet<>();
+				for ( final TrackedFrame.Link link : link( current, segmentsPerFrame.get( t + 1 ) ) ) {
+					frame.addLink( link );
+					if ( link.getTarget1() != TrackedFrame.Link.NONE ) nextLinkedIn.add( link.getTarget1() );
+					if ( link.getTarget2() != TrackedFrame.Link.NONE ) nextLinkedIn.add( link.getTarget2() );
+				}
+				linkedIn = nextLinkedIn;
+			}
+			frames.add( frame );
+		}
+		return frames;
+	}
+
+	/**
+	 * @return one outgoing link for every segment in <code>from</code>.
+	 */
+	private List< TrackedFrame.Link > link( final List< TrackedFrame.Segment > from, final List< TrackedFrame.Segment > to ) {
+		final List< double[] > candidates = new ArrayList<>();
+		for ( int i = 0; i < from.size(); i++ ) {
+			for ( int j = 0; j < to.size(); j++ ) {
+				final TrackedFrame.Segment a = from.get( i );
+				final TrackedFrame.Segment b = to.get( j );
+				final double distance = Math.hypot( a.getX() - b.getX(), a.getY() - b.getY() );
+				if ( distance > maxDistance ) continue;
+				final double cost = cost( distance, a.getArea(), b.getArea() );
+				if ( cost < maxCost ) candidates.add( new double[] { cost, i, j } );
+			}
+		}
+		Collections.sort( candidates, ( c1, c2 ) -> Double.compare( c1[ 0 ], c2[ 0 ] ) );
+
+		final Map< Integer, Integer > movements = new HashMap<>();
+		final Set< Integer > taken = new HashSet<>();
+		for ( final double[] candidate : candidates ) {
+			final int i = ( int ) candidate[ 1 ];
+			final int j = ( int ) candidate[ 2 ];
+			if ( movements.containsKey( i ) || taken.contains( j ) ) continue;
+			movements.put( i, j );
+			taken.add( j );
+		}
+
+		// unclaimed segments of the next frame may be second daughters
+		final List< double[] > divisions = new ArrayList<>();
+		for ( final Map.Entry< Integer, Integer > movement : movements.entrySet() ) {
+			final TrackedFrame.Segment mother = from.get( movement.getKey() );
+			final TrackedFrame.Segment daughter1 = to.get( movement.getValue() );
+			for ( int j = 0; j < to.size(); j++ ) {
+				if ( taken.contains( j ) ) continue;
+				final TrackedFrame.Segment daughter2 = to.get( j );
+				final long area = daughter1.getArea() + daughter2.getArea();
+				final double x = ( daughter1.getX() * daughter1.getArea() + daughter2.getX() * daughter2.getArea() ) / area;
+				final double y = ( daughter1.getY() * daughter1.getArea() + daughter2.getY() * daughter2.getArea() ) / area;
+				final double distance = Math.hypot( mother.getX() - x, mother.getY() - y );
+				if ( distance > maxDistance ) continue;
+				final double cost = cost( distance, mother.getArea(), area ) + divisionCost;
+				if ( cost < maxCost ) divisions.add( new double[] { cost, movement.getKey(), j } );
+			}
+		}
+		Collections.sort( divisions, ( c1, c2 ) -> Double.compare( c1[ 0 ], c2[ 0 ] ) );
+		final Map< Integer, Integer > secondDaughters = new HashMap<>();
+		for ( final double[] division : divisions ) {
+			final int i = ( int ) division[ 1 ];
+			final int j = ( int ) division[ 2 ];
+			if ( secondDaughters.containsKey( i ) || taken.contains( j ) ) continue;
+			secondDaughters.put( i, j );
+			taken.add( j );
+		}
+
+		final List< TrackedFrame.Link > links = new ArrayList<>();
+		for ( int i = 0; i < from.size(); i++ ) {
+			final int source = from.get( i ).getId();
+			final Integer j1 = movements.get( i );
+			final Integer j2 = secondDaughters.get( i );
+			if ( j1 == null )
+				links.add( new TrackedFrame.Link( TrackedFrame.LinkType.DISAPPEARANCE, source, TrackedFrame.Link.NONE, TrackedFrame.Link.NONE ) );
+			else if ( j2 == null )
+				links.add( new TrackedFrame.Link( TrackedFrame.LinkType.MOVEMENT, source, to.get( j1 ).getId(), TrackedFrame.Link.NONE ) );
+			else
+				links.add( new TrackedFrame.Link( TrackedFrame.LinkType.DIVISION, source, to.get( j1 ).getId(), to.get( j2 ).getId() ) );
+		}
+		return links;
+	}
+
+	private double cost( final double distance, final long areaA, final long areaB ) {
+		return distanceWeight * distance + areaWeight * Math.abs( areaA - areaB ) / Math.max( 1, Math.max( areaA, areaB ) );
+	}
+}
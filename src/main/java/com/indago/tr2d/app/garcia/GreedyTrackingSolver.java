@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import com.indago.tr2d.ui.model.Tr2dModel;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Tracks the first segmentation hypotheses image of a {@link Tr2dModel} with
+ * a {@link GreedyTracker}, without building the tr2d tracking problem and
+ * without Gurobi. The tracking model of the {@link Tr2dModel} is not
+ * touched, so its exports (e.g. schnitzcell) are not available.
+ * <p>
+ * This is a heuristic: it ignores the hypothesis hierarchy and the tracking
+ * costs of the project, and its result is not the optimum of tr2d's tracking
+ * problem. It is therefore only used when requested explicitly, and export
+ * folders of its results are labelled (see {@link #writeExportLabel(File)}).
+ */
+public class GreedyTrackingSolver implements TrackingSolver {
+
+	/**
+	 * Provides the image (last dimension is time) whose components are
+	 * tracked.
+	 */
+	public interface HypothesesSource {
+
+		RandomAccessibleInterval< ? > getHypotheses( Tr2dModel model ) throws InterruptedException;
+	}
+
+	/**
+	 * Name of the file that labels an export folder as holding a result of
+	 * this solver.
+	 */
+	public static final String EXPORT_LABEL_FILENAME = "heuristic_solution.properties";
+
+	private final GreedyTracker tracker;
+
+	private HypothesesSource hypothesesSource = GreedyTrackingSolver::getHypotheses;
+
+	public GreedyTrackingSolver( final GreedyTracker tracker ) {
+		this.tracker = tracker;
+	}
+
+	/**
+	 * Tracks the image of the given source instead of the first segmentation
+	 * hypotheses image of the model (e.g. a {@link WekaBatchSegmenter}).
+	 */
+	public GreedyTrackingSolver setHypothesesSource( final HypothesesSource hypothesesSource ) {
+		this.hypothesesSource = hypothesesSource;
+		return this;
+	}
+
+	public HypothesesSource getHypothesesSource() {
+		return hypothesesSource;
+	}
+
+	@Override
+	public String getName() {
+		return "java: greedy";
+	}
+
+	/**
+	 * Labels the given export folder as holding a greedy, not optimal
+	 * solution, so that it is not mistaken for a result of tr2d's ILP.
+	 */
+	public static void writeExportLabel( final File folder ) throws IOException {
+		final Properties label = new Properties();
+		label.setProperty( "solver", TrackingSolver.JAVA );
+		label.setProperty( "method", "greedy heuristic" );
+		label.setProperty( "optimal", "false" );
+		try ( OutputStream out = new FileOutputStream( new File( folder, EXPORT_LABEL_FILENAME ) ) ) {
+			label.store( out, "tracked by the java solver of tr2d, not by its ILP (hypothesis hierarchy and tracking costs were ignored)" );
+		}
+	}
+
+	@Override
+	public List< TrackedFrame > solve( final Tr2dModel model ) throws InterruptedException {
+		return track( hypothesesSource.getHypotheses( model ) );
+	}
+
+	@Override
+	public PreparedSolve prepare( final Tr2dModel model ) throws InterruptedException {
+		final RandomAccessibleInterval< ? > hypotheses = hypothesesSource.getHypotheses( model );
+		return () -> track( hypotheses );
+	}
+
+	/**
+	 * @return the (first) segmentation hypotheses image the java backend
+	 *         tracks.
+	 */
+	public static RandomAccessibleInterval< ? > getHypotheses( final Tr2dModel model ) {
+		final List< RandomAccessibleInterval< ? > > hypotheses = new ArrayList<>( model.getSegmentationModel().getSegmentHypothesesImages() );
+		if ( hypotheses.isEmpty() ) throw new IllegalStateException( "No segmentation hypotheses to track." );
+		return hypotheses.get( 0 );
+	}
+
+	/**
+	 * Tracks the components of the given hypotheses image (last dimension is
+	 * time).
+	 */
+	public List< TrackedFrame > track( final RandomAccessibleInterval< ? > hypotheses ) throws InterruptedException {
+		final List< List< TrackedFrame.Segment > > segments = findSegments( hypotheses, tracker.getMinArea() );
+		return tracker.track( segments );
+	}
+
+	/**
+	 * @return the components of each frame of the given hypotheses image
+	 *         (last dimension is time, see {@link GreedyTracker#findSegments}),
+	 *         ids unique over all frames.
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static List< List< TrackedFrame.Segment > > findSegments( final RandomAccessibleInterval< ? > hypotheses, final int minArea ) throws InterruptedException {
+		final int timeDim = hypotheses.numDimensions() - 1;
+		final int width = ( int ) hypotheses.dimension( 0 );
+		final int height = ( int ) hypotheses.dimension( 1 );
+		final int[] labels = new int[ width * height ];
+
+		final List< List< TrackedFrame.Segment > > segments = new ArrayList<>();
+		int nextId = 0;
+		for ( long t = hypotheses.min( timeDim ); t <= hypotheses.max( timeDim ); t++ ) {
+			if ( Thread.interrupted() ) throw new InterruptedException();
+			final RandomAccessibleInterval< ? extends RealType< ? > > plane =
+					( RandomAccessibleInterval< ? extends RealType< ? > > ) Views.hyperSlice( hypotheses, timeDim, t );
+			final Cursor< ? extends RealType< ? > > cursor = Views.flatIterable( plane ).cursor();
+			for ( int i = 0; i < labels.length; i++ ) {
+				labels[ i ] = ( int ) cursor.next().getRealDouble();
+			}
+			final List< TrackedFrame.Segment > frameSegments = GreedyTracker.findSegments( labels, width, height, minArea, nextId );
+			nextId += frameSegments.size();
+			segments.add( frameSegments );
+		}
+		return segments;
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.indago.gurobi.GurobiInstaller;
+
+/**
+ * Remembers a successful {@link GurobiInstaller#testGurobi()} across runs, so
+ * that the (slow) creation of a Gurobi environment and license check does not
+ * have to be repeated on every launch.
+ * The cached result is only valid as long as the <code>java.library.path</code>,
+ * the Gurobi installation (jar and <code>GUROBI_HOME</code>), and the license
+ * file (path and modification time) did not change, and for at most
+ * {@link #MAX_AGE_MILLIS}. Failed checks are never cached.
+ */
+public class GurobiAvailabilityCache {
+
+	public static final long MAX_AGE_MILLIS = 24L * 60 * 60 * 1000;
+
+	private static final String KEY = "key";
+	private static final String TIMESTAMP = "timestamp";
+
+	private final File cacheFile;
+
+	public GurobiAvailabilityCache() {
+		this( new File( new File( System.getProperty( "user.home" ), ".tr2d" ), "gurobi_check.properties" ) );
+	}
+
+	public GurobiAvailabilityCache( final File cacheFile ) {
+		this.cacheFile = cacheFile;
+	}
+
+	/**
+	 * @return true, iff Gurobi is known to work (cached) or the Gurobi test
+	 *         succeeds now.
+	 */
+	public boolean isAvailable() {
+		if ( isCachedAvailable() ) return true;
+		final boolean available;
+		try {
+			available = GurobiInstaller.testGurobi();
+		} catch ( final LinkageError e ) {
+			return false;
+		}
+		if ( available ) store();
+		return available;
+	}
+
+	/**
+	 * Runs {@link GurobiInstaller#install()}, which sets up the Gurobi natives
+	 * (and has to run in every session, cached or not), and remembers a
+	 * successful installation, such that later checks with
+	 * {@link #isAvailable()} can skip the Gurobi test.
+	 *
+	 * @return true, iff Gurobi got installed and works.
+	 */
+	public boolean install() {
+		final boolean installed;
+		try {
+			installed = GurobiInstaller.install();
+		} catch ( final LinkageError e ) {
+			return false;
+		}
+		if ( installed ) store();
+		return installed;
+	}
+
+	/**
+	 * Runs {@link #isAvailable()} in a background thread, such that it can
+	 * overlap with other startup work (like loading the raw data).
+	 */
+	public Future< Boolean > checkInBackground() {
+		return CompletableFuture.supplyAsync( this::isAvailable );
+	}
+
+	/**
+	 * Waits for a check started by {@link #checkInBackground()}.
+	 *
+	 * @return the result of the check, false if the check itself failed.
+	 */
+	public static boolean await( final Future< Boolean > check ) {
+		try {
+			return check.get();
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch ( final ExecutionException e ) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return true, iff a valid positive result is cached.
+	 */
+	public boolean isCachedAvailable() {
+		if ( !cacheFile.isFile() ) return false;
+		final Properties props = new Properties();
+		try ( InputStream in = new FileInputStream( cacheFile ) ) {
+			props.load( in );
+		} catch ( final IOException e ) {
+			return false;
+		}
+		final long timestamp;
+		try {
+			timestamp = Long.parseLong( props.getProperty( TIMESTAMP, "0" ) );
+		} catch ( final NumberFormatException e ) {
+			return false;
+		}
+		return System.currentTimeMillis() - timestamp < MAX_AGE_MILLIS && computeKey().equals( props.getProperty( KEY ) );
+	}
+
+	/**
+	 * Removes the cached result, forcing the next check to run the Gurobi
+	 * test again.
+	 */
+	public void invalidate() {
+		if ( cacheFile.exists() && !cacheFile.delete() ) cacheFile.deleteOnExit();
+	}
+
+	private void store() {
+		final Properties props = new Properties();
+		props.setProperty( KEY, computeKey() );
+		props.setProperty( TIMESTAMP, Long.toString( System.currentTimeMillis() ) );
+		cacheFile.getParentFile().mkdirs();
+		try ( OutputStream out = new FileOutputStream( cacheFile ) ) {
+			props.store( out, "successful tr2d Gurobi availability check" );
+		} catch ( final IOException e ) {
+			// not being able to cache the result is not a problem
+		}
+	}
+
+	/**
+	 * @return a string that changes whenever the Gurobi setup changes.
+	 */
+	static String computeKey() {
+		final StringBuilder key = new StringBuilder();
+		key.append( System.getProperty( "java.library.path" ) ).append( '|' );
+		key.append( System.getenv( "GUROBI_HOME" ) ).append( '|' );
+		key.append( gurobiJarVersion() ).append( '|' );
+		final File license = licenseFile();
+		key.append( license.getAbsolutePath() ).append( '@' ).append( license.lastModified() );
+		return key.toString();
+	}
+
+	private static String gurobiJarVersion() {
+		try {
+			final Class< ? > env = Class.forName( "gurobi.GRBEnv", false, GurobiAvailabilityCache.class.getClassLoader() );
+			final CodeSource source = env.getProtectionDomain().getCodeSource();
+			final URL location = ( source == null ) ? null : source.getLocation();
+			final String version = env.getPackage() == null ? null : env.getPackage().getImplementationVersion();
+			return location + "#" + version;
+		} catch ( final ClassNotFoundException | LinkageError e ) {
+			return "none";
+		}
+	}
+
+	private static File licenseFile() {
+		final String path = System.getenv( "GRB_LICENSE_FILE" );
+		if ( path != null && !path.isEmpty() ) return new File( path );
+		return new File( System.getProperty( "user.home" ), "gurobi.lic" );
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.util.List;
+
+import com.indago.tr2d.ui.model.Tr2dModel;
+
+/**
+ * Builds and solves the tracking ILP of tr2d with Gurobi. The solution stays
+ * in the tracking model of the {@link Tr2dModel}.
+ * <p>
+ * tr2d runs the solve in a thread of its own and does not report how it
+ * ended. The thread is therefore started from a {@link ThreadGroup} that
+ * records anything it throws, and a solve that threw or left no solution in
+ * the tracking model fails with an {@link IllegalStateException}.
+ * <p>
+ * If the calling thread is interrupted, the threads of the group are
+ * interrupted as well and the solve only returns once tr2d's thread ended, so
+ * that a caller holding a solver permit does not release it while the solve
+ * still runs.
+ */
+public class GurobiTrackingSolver implements TrackingSolver {
+
+	/**
+	 * Records the first throwable that ends a thread of this group.
+	 */
+	private static class FailureRecordingGroup extends ThreadGroup {
+
+		private volatile Throwable failure = null;
+
+		FailureRecordingGroup() {
+			super( "tr2d tracking" );
+		}
+
+		@Override
+		public void uncaughtException( final Thread thread, final Throwable throwable ) {
+			if ( failure == null ) failure = throwable;
+			super.uncaughtException( thread, throwable );
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "gurobi: ilp build and solve";
+	}
+
+	@Override
+	public List< TrackedFrame > solve( final Tr2dModel model ) throws InterruptedException {
+		final FailureRecordingGroup group = new FailureRecordingGroup();
+		final Thread tracking = startTracking( model, group );
+		// tr2d builds and solves the ILP in one go
+		try {
+			tracking.join();
+		} catch ( final InterruptedException e ) {
+			group.interrupt();
+			joinUninterruptibly( tracking );
+			throw e;
+		}
+
+		if ( group.failure != null ) throw new IllegalStateException( "ILP build or solve threw " + group.failure, group.failure );
+		if ( model.getTrackingModel().getSolution() == null ) throw new IllegalStateException( "Gurobi did not find a solution (infeasible or aborted ILP)." );
+		return null;
+	}
+
+	/**
+	 * Starts tr2d's tracking thread from within the given group, so that the
+	 * thread (and anything it starts) belongs to it.
+	 */
+	private static Thread startTracking( final Tr2dModel model, final ThreadGroup group ) {
+		final Thread[] tracking = new Thread[ 1 ];
+		final RuntimeException[] failure = new RuntimeException[ 1 ];
+		final Thread starter = new Thread( group, () -> {
+			try {
+				tracking[ 0 ] = model.getTrackingModel().runInThread( false );
+			} catch ( final RuntimeException e ) {
+				failure[ 0 ] = e;
+			}
+		}, "tr2d tracking start" );
+		starter.start();
+		// once started, tracking has to be handed back to be stopped
+		if ( joinUninterruptibly( starter ) ) Thread.currentThread().interrupt();
+		if ( failure[ 0 ] != null ) throw failure[ 0 ];
+		return tracking[ 0 ];
+	}
+
+	/**
+	 * Waits for the given thread to end, even if the calling thread is
+	 * interrupted.
+	 *
+	 * @return true, iff the calling thread was interrupted while waiting.
+	 */
+	private static boolean joinUninterruptibly( final Thread thread ) {
+		boolean interrupted = false;
+		while ( thread.isAlive() ) {
+			try {
+				thread.join();
+			} catch ( final InterruptedException e ) {
+				interrupted = true;
+			}
+		}
+		return interrupted;
+	}
+}
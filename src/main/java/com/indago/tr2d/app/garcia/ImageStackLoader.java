@@ -0,0 +1,243 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import net.imagej.ImgPlus;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.VirtualStackAdapter;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Opens the raw data TIFF stack of a tr2d project, either fully (all planes
+ * are decoded onto the heap right away) or lazily (planes are decoded on
+ * demand and kept in a bounded LRU cache, see {@link CachedVirtualStack}).
+ * Uncompressed stacks can also be memory-mapped (see {@link MappedTiffStack}),
+ * which leaves caching to the OS; stacks that cannot be mapped fall back to
+ * the modes above. Finally, the stack can be read from a
+ * {@link ChunkedRawStore}, which is converted from the stack on first use.
+ * If a time range is set, only the planes within this range are ever read
+ * from disk and the returned image starts at time-point <code>tmin</code>.
+ */
+public class ImageStackLoader {
+
+	/**
+	 * Default number of decoded planes kept on the heap in lazy mode.
+	 */
+	public static final int DEFAULT_CACHED_PLANES = 64;
+
+	/**
+	 * Informed whenever a plane was decoded while loading a stack upfront.
+	 */
+	public interface ProgressListener {
+
+		void planesLoaded( int done, int total );
+	}
+
+	private boolean lazy = false;
+	private boolean memoryMapped = false;
+	private File chunkFolder = null;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private int maxCachedPlanes = DEFAULT_CACHED_PLANES;
+	private ProgressListener progressListener = null;
+
+	private int minTime = 0;
+	private int maxTime = Integer.MAX_VALUE;
+
+	public ImageStackLoader setLazy( final boolean lazy ) {
+		this.lazy = lazy;
+		return this;
+	}
+
+	public ImageStackLoader setMemoryMapped( final boolean memoryMapped ) {
+		this.memoryMapped = memoryMapped;
+		return this;
+	}
+
+	/**
+	 * Read the stack from the {@link ChunkedRawStore} in the given folder;
+	 * the store is (re-)created if it is missing or outdated.
+	 */
+	public ImageStackLoader setChunkStore( final File chunkFolder ) {
+		this.chunkFolder = chunkFolder;
+		return this;
+	}
+
+	/**
+	 * Number of threads used to convert and read a chunk store.
+	 */
+	public ImageStackLoader setNumThreads( final int numThreads ) {
+		this.numThreads = Math.max( 1, numThreads );
+		return this;
+	}
+
+	public ImageStackLoader setMaxCachedPlanes( final int maxCachedPlanes ) {
+		this.maxCachedPlanes = maxCachedPlanes;
+		return this;
+	}
+
+	/**
+	 * If set, stacks loaded upfront are decoded plane by plane and the given
+	 * listener is informed after each plane.
+	 */
+	public ImageStackLoader setProgressListener( final ProgressListener progressListener ) {
+		this.progressListener = progressListener;
+		return this;
+	}
+
+	/**
+	 * Restricts the opened stack to the time-points <code>[tmin, tmax]</code>
+	 * (both inclusive, 0-based). <code>tmax</code> is clipped to the last
+	 * time-point of the stack.
+	 */
+	public ImageStackLoader setTimeRange( final int tmin, final int tmax ) {
+		this.minTime = Math.max( 0, tmin );
+		this.maxTime = Math.max( this.minTime, tmax );
+		return this;
+	}
+
+	/**
+	 * @return a loader with the same settings.
+	 */
+	public ImageStackLoader copy() {
+		final ImageStackLoader copy = new ImageStackLoader();
+		copy.lazy = lazy;
+		copy.memoryMapped = memoryMapped;
+		copy.chunkFolder = chunkFolder;
+		copy.numThreads = numThreads;
+		copy.maxCachedPlanes = maxCachedPlanes;
+		copy.progressListener = progressListener;
+		copy.minTime = minTime;
+		copy.maxTime = maxTime;
+		return copy;
+	}
+
+	public boolean hasTimeRange() {
+		return minTime > 0 || maxTime < Integer.MAX_VALUE;
+	}
+
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	public boolean isMemoryMapped() {
+		return memoryMapped;
+	}
+
+	/**
+	 * Opens the given stack as <code>ImagePlus</code>.
+	 *
+	 * @param stack
+	 *            the TIFF file to be opened.
+	 * @return the opened image, or <code>null</code> if it could not be
+	 *         opened.
+	 */
+	public ImagePlus openImagePlus( final File stack ) {
+		if ( !lazy && !hasTimeRange() && progressListener == null ) { return IJ.openImage( stack.getAbsolutePath() ); }
+
+		final ImagePlus imagePlus = IJ.openVirtual( stack.getAbsolutePath() );
+		if ( imagePlus == null ) return null;
+
+		final int size = imagePlus.getStackSize();
+		if ( minTime >= size ) return null;
+		final int numPlanes = Math.min( maxTime, size - 1 ) - minTime + 1;
+		final boolean framesAxis = imagePlus.getNFrames() > 1;
+
+		final CachedVirtualStack window = new CachedVirtualStack(
+				imagePlus.getStack(),
+				minTime + 1,
+				numPlanes,
+				lazy ? maxCachedPlanes : numPlanes );
+		imagePlus.setStack( lazy ? window : materialize( window, progressListener ) );
+		if ( framesAxis )
+			imagePlus.setDimensions( 1, 1, numPlanes );
+		else
+			imagePlus.setDimensions( 1, numPlanes, 1 );
+		return imagePlus;
+	}
+
+	/**
+	 * @return the number of planes (time-points) of the given stack, read
+	 *         from its header only, or -1 if it could not be opened.
+	 */
+	public static int countPlanes( final File stack ) {
+		final ImagePlus imagePlus = IJ.openVirtual( stack.getAbsolutePath() );
+		return ( imagePlus == null ) ? -1 : imagePlus.getStackSize();
+	}
+
+	/**
+	 * Decodes all planes of the given stack into a regular (heap) stack.
+	 */
+	private static ImageStack materialize( final ImageStack stack, final ProgressListener progressListener ) {
+		final ImageStack heapStack = new ImageStack( stack.getWidth(), stack.getHeight(), stack.getColorModel() );
+		for ( int i = 1; i <= stack.getSize(); i++ ) {
+			heapStack.addSlice( stack.getSliceLabel( i ), stack.getProcessor( i ) );
+			if ( progressListener != null ) progressListener.planesLoaded( i, stack.getSize() );
+		}
+		return heapStack;
+	}
+
+	/**
+	 * Opens the given stack and wraps it as <code>ImgPlus</code>. In lazy mode
+	 * the returned image is backed by a {@link CachedVirtualStack}, in memory
+	 * mapped mode (if the stack can be mapped) by the file itself, and with a
+	 * chunk store by its blocks.
+	 *
+	 * @param stack
+	 *            the TIFF file to be opened.
+	 * @return the opened image, or <code>null</code> if it could not be
+	 *         opened.
+	 */
+	public ImgPlus< ? > open( final File stack ) {
+		if ( chunkFolder != null ) {
+			try {
+				return openChunked( stack );
+			} catch ( final IOException e ) {
+				// fall back to reading the stack itself
+				IJ.log( "Not using the chunk store: " + e.getMessage() );
+			} catch ( final InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		if ( memoryMapped ) {
+			try {
+				final ImgPlus< ? > mapped = MappedTiffStack.open( stack, minTime, maxTime );
+				if ( mapped != null ) return mapped;
+			} catch ( final IOException e ) {
+				// fall back to decoding the stack
+			}
+		}
+		final ImagePlus imagePlus = openImagePlus( stack );
+		if ( imagePlus == null ) return null;
+		return VirtualStackAdapter.wrap( imagePlus );
+	}
+
+	/**
+	 * Opens the stack from the chunk store, converting it first if needed.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private ImgPlus< ? > openChunked( final File stack ) throws IOException, InterruptedException {
+		if ( !ChunkedRawStore.isUpToDate( chunkFolder, stack ) ) {
+			final ImgPlus< ? > raw = new ImageStackLoader()
+					.setLazy( true )
+					.setMemoryMapped( memoryMapped )
+					.setMaxCachedPlanes( maxCachedPlanes )
+					.open( stack );
+			if ( raw == null ) throw new IOException( "Could not open input stack " + stack.getAbsolutePath() );
+			ChunkedRawStore.convert(
+					( RandomAccessibleInterval< ? extends RealType< ? > > ) raw,
+					stack,
+					chunkFolder,
+					ChunkedRawStore.DEFAULT_BLOCK_SIZE,
+					numThreads );
+		}
+		return new ChunkedRawStore( chunkFolder ).open( minTime, maxTime, lazy ? maxCachedPlanes : Integer.MAX_VALUE, numThreads );
+	}
+}
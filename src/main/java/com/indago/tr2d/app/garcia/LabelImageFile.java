@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * A file of per-frame label images (int32, little endian, one plane per
+ * time-point, pixel value = segment id + 1, 0 = background) that accompanies
+ * the binary tracking export (see {@link BinaryExportFormat}). Frames are
+ * memory-mapped individually, so files larger than 2GB are fine and single
+ * frames can be accessed without reading the rest.
+ * <p>
+ * Header (32 bytes): magic <code>TR2DLBL1</code>, version, width, height,
+ * number of frames, time offset (all int32), 4 bytes padding.
+ */
+public class LabelImageFile implements Closeable {
+
+	public static final String FILENAME = "labels.t2l";
+
+	public static final byte[] MAGIC = { 'T', 'R', '2', 'D', 'L', 'B', 'L', '1' };
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 32;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final boolean writable;
+	private final int width;
+	private final int height;
+	private final int numFrames;
+	private final int timeOffset;
+
+	private LabelImageFile( final RandomAccessFile file, final boolean writable, final int width, final int height, final int numFrames, final int timeOffset ) {
+		this.file = file;
+		this.channel = file.getChannel();
+		this.writable = writable;
+		this.width = width;
+		this.height = height;
+		this.numFrames = numFrames;
+		this.timeOffset = timeOffset;
+	}
+
+	/**
+	 * Creates a new label image file with all pixels set to background.
+	 */
+	public static LabelImageFile create( final File path, final int width, final int height, final int numFrames, final int timeOffset ) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile( path, "rw" );
+		file.setLength( 0 );
+		file.setLength( HEADER_SIZE + ( long ) numFrames * width * height * 4 );
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( BinaryExportFormat.BYTE_ORDER );
+		header.put( MAGIC ).putInt( VERSION ).putInt( width ).putInt( height ).putInt( numFrames ).putInt( timeOffset );
+		header.rewind();
+		file.getChannel().write( header, 0 );
+		return new LabelImageFile( file, true, width, height, numFrames, timeOffset );
+	}
+
+	/**
+	 * Opens an existing label image file read-only.
+	 */
+	public static LabelImageFile open( final File path ) throws IOException {
+		final RandomAccessFile file = new RandomAccessFile( path, "r" );
+		final ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE ).order( BinaryExportFormat.BYTE_ORDER );
+		file.getChannel().read( header, 0 );
+		header.flip();
+		final byte[] magic = new byte[ MAGIC.length ];
+		header.get( magic );
+		if ( !Arrays.equals( magic, MAGIC ) || header.getInt() != VERSION ) {
+			file.close();
+			throw new IOException( "Not a tr2d label image file (version " + VERSION + ")." );
+		}
+		final int width = header.getInt();
+		final int height = header.getInt();
+		final int numFrames = header.getInt();
+		final int timeOffset = header.getInt();
+		return new LabelImageFile( file, false, width, height, numFrames, timeOffset );
+	}
+
+	/**
+	 * @param frame
+	 *            the frame index (not including the time offset).
+	 * @return a mapped view of the given frame; pixel <code>(x,y)</code> is at
+	 *         index <code>y * width + x</code>.
+	 */
+	public IntBuffer getFrame( final int frame ) throws IOException {
+		if ( frame < 0 || frame >= numFrames ) throw new IndexOutOfBoundsException( "Frame " + frame + " not in [0," + numFrames + ")." );
+		final long planeBytes = ( long ) width * height * 4;
+		return channel.map(
+				writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+				HEADER_SIZE + frame * planeBytes,
+				planeBytes ).order( BinaryExportFormat.BYTE_ORDER ).asIntBuffer();
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getNumFrames() {
+		return numFrames;
+	}
+
+	public int getTimeOffset() {
+		return timeOffset;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.awt.GridBagLayout;
+
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
+
+/**
+ * Shown in the tr2d window while a project is opened in the background:
+ * the current step and, while raw data planes are loaded, their progress.
+ * All setters may be called from any thread.
+ */
+public class LoadingPanel extends JPanel {
+
+	private static final long serialVersionUID = 1L;
+
+	private final JLabel step = new JLabel( " " );
+	private final JProgressBar progress = new JProgressBar();
+
+	public LoadingPanel( final String title ) {
+		super( new GridBagLayout() );
+		final JPanel content = new JPanel();
+		content.setLayout( new BoxLayout( content, BoxLayout.Y_AXIS ) );
+		content.setBorder( BorderFactory.createEmptyBorder( 10, 10, 10, 10 ) );
+		content.add( new JLabel( "Opening " + title + "..." ) );
+		content.add( step );
+		progress.setIndeterminate( true );
+		content.add( progress );
+		add( content );
+	}
+
+	/**
+	 * Shows the given step, with an indeterminate progress bar.
+	 */
+	public void setStep( final String text ) {
+		SwingUtilities.invokeLater( () -> {
+			step.setText( text );
+			progress.setIndeterminate( true );
+			progress.setStringPainted( false );
+		} );
+	}
+
+	public void setProgress( final int done, final int total ) {
+		SwingUtilities.invokeLater( () -> {
+			progress.setIndeterminate( false );
+			progress.setMaximum( total );
+			progress.setValue( done );
+			progress.setString( done + "/" + total );
+			progress.setStringPainted( true );
+		} );
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import ij.io.FileInfo;
+import ij.io.TiffDecoder;
+import net.imagej.ImgPlus;
+
+/**
+ * Read-only access to uncompressed TIFF stacks through memory-mapped files.
+ * <p>
+ * Each plane is mapped individually (so stacks larger than 2GB are fine) and
+ * pixels are read straight from the mapped buffers (see
+ * {@link BlockBufferImage}); nothing is decoded or copied onto the heap.
+ * Opening a stack only parses the TIFF header, the OS page cache does all the
+ * caching, and concurrent jobs on one node share the same physical pages.
+ * <p>
+ * Only 8 and 16 bit unsigned integer and 32 bit float stacks whose planes are
+ * stored uncompressed and contiguously are supported (see
+ * {@link #isMappable(File)}).
+ */
+public class MappedTiffStack {
+
+	/**
+	 * @return true, iff the given file is a TIFF that can be memory-mapped.
+	 */
+	public static boolean isMappable( final File file ) {
+		try {
+			return planeLayout( file ) != null;
+		} catch ( final IOException e ) {
+			return false;
+		}
+	}
+
+	/**
+	 * Maps the planes <code>[tmin, tmax]</code> (0-based, inclusive,
+	 * <code>tmax</code> is clipped to the stack size) of the given TIFF.
+	 *
+	 * @return an image with axes X, Y, TIME backed by the mapped file, or
+	 *         <code>null</code> if the file cannot be mapped (see
+	 *         {@link #isMappable(File)}).
+	 */
+	public static ImgPlus< ? > open( final File file, final int tmin, final int tmax ) throws IOException {
+		final FileInfo[] layout = planeLayout( file );
+		if ( layout == null ) return null;
+		final FileInfo info = layout[ 0 ];
+
+		final long[] offsets = planeOffsets( layout );
+		if ( tmin >= offsets.length ) return null;
+		final int numPlanes = Math.min( tmax, offsets.length - 1 ) - tmin + 1;
+		final int bytesPerPixel = info.getBytesPerPixel();
+		final long planeBytes = ( long ) info.width * info.height * bytesPerPixel;
+
+		final ByteBuffer[] planes = new ByteBuffer[ numPlanes ];
+		try ( FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ) ) {
+			for ( int t = 0; t < numPlanes; t++ ) {
+				final MappedByteBuffer mapped = channel.map( FileChannel.MapMode.READ_ONLY, offsets[ tmin + t ], planeBytes );
+				planes[ t ] = mapped.order( info.intelByte ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN );
+			}
+		}
+
+		return BlockBufferImage.wrap( file.getName(), info.width, info.height, numPlanes, info.width, info.height, bytesPerPixel, ( t, bx, by ) -> planes[ t ] );
+	}
+
+	/**
+	 * @return the TIFF directory if the file can be mapped, <code>null</code>
+	 *         otherwise.
+	 */
+	private static FileInfo[] planeLayout( final File file ) throws IOException {
+		final FileInfo[] infos = new TiffDecoder( file.getParent() + File.separator, file.getName() ).getTiffInfo();
+		if ( infos == null || infos.length == 0 ) return null;
+		final FileInfo first = infos[ 0 ];
+		if ( first.fileType != FileInfo.GRAY8 && first.fileType != FileInfo.GRAY16_UNSIGNED && first.fileType != FileInfo.GRAY32_FLOAT ) return null;
+		for ( final FileInfo info : infos ) {
+			if ( info.compression != FileInfo.COMPRESSION_NONE ) return null;
+			if ( info.fileType != first.fileType || info.width != first.width || info.height != first.height || info.intelByte != first.intelByte ) return null;
+			if ( !isContiguous( info ) ) return null;
+		}
+		return infos;
+	}
+
+	/**
+	 * @return true, iff the strips of the given plane directly follow each
+	 *         other.
+	 */
+	private static boolean isContiguous( final FileInfo info ) {
+		if ( info.stripOffsets == null || info.stripOffsets.length <= 1 ) return true;
+		for ( int i = 1; i < info.stripOffsets.length; i++ ) {
+			if ( info.stripOffsets[ i ] != info.stripOffsets[ i - 1 ] + info.stripLengths[ i - 1 ] ) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Stacks written by ImageJ have one directory entry describing all planes
+	 * (with a fixed gap between them), others one entry per plane.
+	 */
+	private static long[] planeOffsets( final FileInfo[] layout ) {
+		final FileInfo first = layout[ 0 ];
+		final long planeBytes = ( long ) first.width * first.height * first.getBytesPerPixel();
+		if ( layout.length == 1 && first.nImages > 1 ) {
+			final long[] offsets = new long[ first.nImages ];
+			for ( int t = 0; t < offsets.length; t++ ) {
+				offsets[ t ] = first.getOffset() + t * ( planeBytes + first.gapBetweenImages );
+			}
+			return offsets;
+		}
+		final long[] offsets = new long[ layout.length ];
+		for ( int t = 0; t < offsets.length; t++ ) {
+			offsets[ t ] = layout[ t ].getOffset();
+		}
+		return offsets;
+	}
+}
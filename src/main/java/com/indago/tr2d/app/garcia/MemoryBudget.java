@@ -0,0 +1,258 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+/**
+ * Sizes the memory hungry parts of a run (raw data in memory, segmentation
+ * parallelism, Weka batches and the number of time-points tracked at once)
+ * from a heap budget and the dimensions of the raw data, instead of relying
+ * on <code>-Xmx</code> alone.
+ * <p>
+ * The budget is split into shares: {@link #RAW_SHARE} for raw data planes
+ * kept in memory, {@link #SEGMENTATION_SHARE} for frames in flight during
+ * segmentation and {@link #MODEL_SHARE} for the model of the time-points
+ * tracked at once. Whatever does not fit is degraded instead of failing: raw
+ * data is read lazily with only a few planes cached (from the chunk store in
+ * the project folder if '-chunks' was given), segmentation runs on fewer
+ * threads and smaller chunks, and
+ * tracking switches to windows (see {@link SlidingWindowTracker}). Estimates
+ * are rough (see {@link #MODEL_BYTES_PER_PIXEL}); they are reported next to
+ * the measured peak heap of each stage (see {@link #report(Map, List)}).
+ */
+public class MemoryBudget {
+
+	public static final double RAW_SHARE = 0.25;
+	public static final double SEGMENTATION_SHARE = 0.25;
+	public static final double MODEL_SHARE = 0.5;
+
+	/**
+	 * Estimated heap bytes per pixel and time-point of a tr2d model on top
+	 * of the raw data: float copy of the raw data, segmentation hypotheses,
+	 * labelings and the tracking problem built from them.
+	 */
+	public static final int MODEL_BYTES_PER_PIXEL = 24;
+
+	/**
+	 * Estimated heap bytes per pixel of a frame classified by Weka (float
+	 * feature stack of the default features plus class probabilities).
+	 */
+	public static final int WEKA_BYTES_PER_PIXEL = 4 * 80;
+
+	/**
+	 * Smallest window tracked when the budget does not fit a whole movie.
+	 */
+	public static final int MIN_WINDOW_SIZE = 2 * SlidingWindowTracker.DEFAULT_OVERLAP;
+
+	private final long budgetBytes;
+	private final long planePixels;
+	private final long planeBytes;
+	private final int numFrames;
+
+	/**
+	 * @param budgetBytes
+	 *            heap bytes the run may use.
+	 * @param width
+	 *            width of the raw data.
+	 * @param height
+	 *            height of the raw data.
+	 * @param bytesPerPixel
+	 *            bytes per raw data pixel.
+	 * @param numFrames
+	 *            number of time-points to be processed.
+	 */
+	public MemoryBudget( final long budgetBytes, final long width, final long height, final int bytesPerPixel, final int numFrames ) {
+		this.budgetBytes = budgetBytes;
+		this.planePixels = width * height;
+		this.planeBytes = planePixels * bytesPerPixel;
+		this.numFrames = Math.max( 1, numFrames );
+	}
+
+	/**
+	 * @param budgetBytes
+	 *            heap bytes the run may use.
+	 * @param stack
+	 *            the raw data, only its header is read.
+	 * @param tmin
+	 *            first time-point to be processed.
+	 * @param tmax
+	 *            last time-point to be processed.
+	 * @return the budget for the given stack, or <code>null</code> if the
+	 *         stack could not be opened.
+	 */
+	public static MemoryBudget forStack( final long budgetBytes, final File stack, final int tmin, final int tmax ) {
+		final ImagePlus header = IJ.openVirtual( stack.getAbsolutePath() );
+		if ( header == null ) return null;
+		final int numFrames = Math.min( tmax, header.getStackSize() - 1 ) - tmin + 1;
+		return new MemoryBudget( budgetBytes, header.getWidth(), header.getHeight(), header.getBytesPerPixel(), numFrames );
+	}
+
+	/**
+	 * @param size
+	 *            a number of bytes with an optional unit <code>k</code>,
+	 *            <code>m</code> or <code>g</code> (case insensitive), e.g.
+	 *            <code>512m</code> or <code>6g</code>; plain numbers are MB.
+	 */
+	public static long parse( final String size ) {
+		final String value = size.trim().toLowerCase( Locale.ROOT );
+		if ( value.isEmpty() ) throw new NumberFormatException( "Empty memory size." );
+		final char unit = value.charAt( value.length() - 1 );
+		final String number = Character.isDigit( unit ) ? value : value.substring( 0, value.length() - 1 );
+		final long factor;
+		switch ( unit ) {
+		case 'k':
+			factor = 1024L;
+			break;
+		case 'g':
+			factor = 1024L * 1024 * 1024;
+			break;
+		default:
+			factor = 1024L * 1024;
+			if ( unit != 'm' && !Character.isDigit( unit ) ) throw new NumberFormatException( "Unknown memory unit in '" + size + "'." );
+		}
+		return Math.round( Double.parseDouble( number ) * factor );
+	}
+
+	public long getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	public int getNumFrames() {
+		return numFrames;
+	}
+
+	/**
+	 * @return estimated bytes of all raw data planes to be processed.
+	 */
+	public long getRawBytes() {
+		return planeBytes * numFrames;
+	}
+
+	/**
+	 * @return true, iff all raw data planes fit into the raw data share.
+	 */
+	public boolean fitsRawData() {
+		return getRawBytes() <= share( RAW_SHARE );
+	}
+
+	/**
+	 * @param requested
+	 *            the number of cached planes asked for.
+	 * @return number of decoded planes that may be cached, at least 1.
+	 */
+	public int getCachedPlanes( final int requested ) {
+		return ( int ) Math.max( 1, Math.min( requested, share( RAW_SHARE ) / Math.max( 1, planeBytes ) ) );
+	}
+
+	/**
+	 * @return estimated model bytes of one time-point.
+	 */
+	public long getFrameModelBytes() {
+		return planePixels * MODEL_BYTES_PER_PIXEL;
+	}
+
+	/**
+	 * @return number of frames segmentation may hold at once, at least 1.
+	 */
+	public int getMaxFramesInFlight() {
+		return ( int ) Math.max( 1, Math.min( Integer.MAX_VALUE, share( SEGMENTATION_SHARE ) / Math.max( 1, getFrameModelBytes() ) ) );
+	}
+
+	/**
+	 * @return the given chunk size, reduced so that one chunk fits into the
+	 *         segmentation share.
+	 */
+	public int getSegmentationChunkSize( final int requested ) {
+		return Math.max( 1, Math.min( requested, getMaxFramesInFlight() ) );
+	}
+
+	/**
+	 * @return the given number of segmentation threads, reduced so that
+	 *         all their chunks fit into the segmentation share.
+	 */
+	public int getSegmentationThreads( final int requested, final int chunkSize ) {
+		return Math.max( 1, Math.min( requested, getMaxFramesInFlight() / Math.max( 1, chunkSize ) ) );
+	}
+
+	/**
+	 * @return the given Weka batch size, reduced so that the features of one
+	 *         batch fit into the segmentation share.
+	 */
+	public int getWekaBatchSize( final int requested ) {
+		final long frameBytes = Math.max( 1, planePixels * WEKA_BYTES_PER_PIXEL );
+		return ( int ) Math.max( 1, Math.min( requested, share( SEGMENTATION_SHARE ) / frameBytes ) );
+	}
+
+	/**
+	 * @return the number of time-points whose model fits into the model
+	 *         share, or 0 if all of them fit and no windows are needed.
+	 */
+	public int getWindowSize() {
+		final long frames = share( MODEL_SHARE ) / Math.max( 1, getFrameModelBytes() );
+		if ( frames >= numFrames ) return 0;
+		return ( int ) Math.max( MIN_WINDOW_SIZE, frames );
+	}
+
+	/**
+	 * @return true, iff even {@link #MIN_WINDOW_SIZE} time-points do not fit
+	 *         into the model share.
+	 */
+	public boolean isTooSmall() {
+		return getFrameModelBytes() * MIN_WINDOW_SIZE > share( MODEL_SHARE );
+	}
+
+	/**
+	 * @param windowSize
+	 *            number of time-points tracked at once (0: all).
+	 * @param cachedPlanes
+	 *            number of raw data planes in memory (0: all).
+	 * @param framesInFlight
+	 *            number of frames segmented at once.
+	 * @return estimated bytes per stage.
+	 */
+	public Map< String, Long > estimate( final int windowSize, final int cachedPlanes, final int framesInFlight ) {
+		final int trackedFrames = ( windowSize > 0 ) ? Math.min( windowSize, numFrames ) : numFrames;
+		final long raw = planeBytes * ( ( cachedPlanes > 0 ) ? Math.min( cachedPlanes, numFrames ) : numFrames );
+		final Map< String, Long > estimates = new LinkedHashMap<>();
+		estimates.put( "stack loading", raw );
+		estimates.put( "model construction", raw + getFrameModelBytes() * trackedFrames / 4 );
+		estimates.put( "segmentation", raw + getFrameModelBytes() * Math.min( framesInFlight, trackedFrames ) );
+		estimates.put( "tracking", raw + getFrameModelBytes() * trackedFrames );
+		return estimates;
+	}
+
+	/**
+	 * @param estimates
+	 *            estimated bytes per stage (see {@link #estimate}).
+	 * @param stages
+	 *            the measured stages; a stage is matched to the first
+	 *            estimate its name contains.
+	 * @return a human readable comparison of estimated and measured heap
+	 *         usage per stage.
+	 */
+	public String report( final Map< String, Long > estimates, final List< StageTimer.Stage > stages ) {
+		final StringBuilder report = new StringBuilder( String.format( "Memory budget %d MB (estimated / peak heap):", budgetBytes >> 20 ) );
+		for ( final StageTimer.Stage stage : stages ) {
+			for ( final Map.Entry< String, Long > estimate : estimates.entrySet() ) {
+				if ( !stage.getName().contains( estimate.getKey() ) ) continue;
+				report.append( String.format( "\n  %-40s %8d MB / %8d MB", stage.getName(), estimate.getValue() >> 20, stage.getPeakHeapBytes() >> 20 ) );
+				if ( stage.getPeakHeapBytes() > budgetBytes ) report.append( "  (over budget)" );
+				break;
+			}
+		}
+		return report.toString();
+	}
+
+	private long share( final double fraction ) {
+		return ( long ) ( budgetBytes * fraction );
+	}
+}
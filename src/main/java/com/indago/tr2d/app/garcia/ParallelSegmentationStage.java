@@ -0,0 +1,225 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.scijava.app.StatusService;
+import org.scijava.log.Logger;
+
+import com.indago.tr2d.ui.model.Tr2dModel;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.view.Views;
+
+/**
+ * Segments all frames of a {@link Tr2dModel} frame-parallel and hands the
+ * result to the java solver (as its
+ * {@link GreedyTrackingSolver.HypothesesSource}).
+ * <p>
+ * The segmentation plugins (Weka, Labkit, Import) hand out their results as
+ * lazily computed images that tracking would read frame after frame, i.e. on a
+ * single core. This stage reads each frame of the first hypotheses image
+ * exactly once, on a bounded pool of worker threads (in chunks of consecutive
+ * time-points), and copies it into an image of its own with one plane per
+ * frame. The planes are written by the worker that computed them and are
+ * complete before the image is handed out, so tracking never goes back to
+ * the (possibly evicted) plugin output. Progress is reported per frame and in
+ * frame order through the {@link StatusService}.
+ * <p>
+ * If a {@link SegmentationCache} is set, a frame whose raw data, plugin and
+ * parameters did not change since an earlier run is restored from the cache
+ * into its plane and the segmentation plugin is not asked for it at all;
+ * computed frames are added to the cache.
+ * <p>
+ * tr2d's own tracking (Gurobi) reads the plugin outputs itself and cannot be
+ * handed this image, so the stage is only used with the java solver.
+ */
+public class ParallelSegmentationStage implements GreedyTrackingSolver.HypothesesSource {
+
+	public static final int DEFAULT_CHUNK_SIZE = 4;
+
+	/**
+	 * Plugin name of the hypotheses in the {@link SegmentationCache} keys.
+	 */
+	private static final String CACHE_PLUGIN = "hypotheses";
+
+	private final Logger log;
+	private final StatusService status;
+	private final int numThreads;
+	private final int chunkSize;
+
+	private SegmentationCache cache = null;
+	private String parametersHash = "";
+
+	/**
+	 * @param status
+	 *            used to report progress, can be <code>null</code>.
+	 * @param numThreads
+	 *            number of worker threads.
+	 * @param chunkSize
+	 *            number of consecutive frames handed to a worker at once.
+	 */
+	public ParallelSegmentationStage( final Logger log, final StatusService status, final int numThreads, final int chunkSize ) {
+		this.log = log;
+		this.status = status;
+		this.numThreads = Math.max( 1, numThreads );
+		this.chunkSize = Math.max( 1, chunkSize );
+	}
+
+	/**
+	 * Reuses and stores segmentation hypotheses in the given cache.
+	 *
+	 * @param parametersHash
+	 *            a hash of the settings of the segmentation plugins (see
+	 *            {@link SegmentationCache#hashFiles}).
+	 */
+	public ParallelSegmentationStage setCache( final SegmentationCache cache, final String parametersHash ) {
+		this.cache = cache;
+		this.parametersHash = parametersHash;
+		return this;
+	}
+
+	/**
+	 * Segments all frames of the given model (see
+	 * {@link GreedyTrackingSolver#getHypotheses(Tr2dModel)}).
+	 */
+	@Override
+	public RandomAccessibleInterval< IntType > getHypotheses( final Tr2dModel model ) throws InterruptedException {
+		return segment( model.getRawData(), GreedyTrackingSolver.getHypotheses( model ) );
+	}
+
+	/**
+	 * Copies all frames of the given hypotheses image (x,y,t) into a new
+	 * label image, frame-parallel. Planes of <code>hypotheses</code> are only
+	 * read for frames that are not in the cache.
+	 *
+	 * @param raw
+	 *            the raw data the hypotheses were computed from (x,y,t); only
+	 *            read if a cache is set.
+	 * @return the labels of all frames, one plane per frame.
+	 */
+	public PlanarImg< IntType, IntArray > segment( final RandomAccessibleInterval< ? > raw, final RandomAccessibleInterval< ? > hypotheses ) throws InterruptedException {
+		if ( hypotheses.numDimensions() != 3 )
+			throw new IllegalArgumentException( "Segmentation hypotheses must be 2D time series, not " + hypotheses.numDimensions() + "D." );
+		final int numFrames = ( int ) hypotheses.dimension( 2 );
+		final PlanarImg< IntType, IntArray > labels = PlanarImgs.ints( hypotheses.dimension( 0 ), hypotheses.dimension( 1 ), numFrames );
+		final Progress progress = new Progress( numFrames );
+		final long start = System.nanoTime();
+		log.info( String.format( "Segmenting %d frames using %d threads (chunks of %d frames)...", numFrames, numThreads, chunkSize ) );
+
+		final ExecutorService pool = Executors.newFixedThreadPool( numThreads );
+		try {
+			final List< Future< Void > > chunks = new ArrayList<>();
+			for ( int first = 0; first < numFrames; first += chunkSize ) {
+				final int from = first;
+				final int to = Math.min( first + chunkSize, numFrames );
+				chunks.add( pool.submit( ( Callable< Void > ) () -> {
+					for ( int t = from; t < to; t++ ) {
+						if ( Thread.interrupted() ) throw new InterruptedException();
+						segmentFrame( raw, hypotheses, t, labels.getPlane( t ).getCurrentStorageArray() );
+						progress.frameDone( t );
+					}
+					return null;
+				} ) );
+			}
+			for ( final Future< Void > chunk : chunks ) {
+				chunk.get();
+			}
+		} catch ( final ExecutionException e ) {
+			final Throwable cause = e.getCause();
+			if ( cause instanceof InterruptedException ) throw ( InterruptedException ) cause;
+			if ( cause instanceof RuntimeException ) throw ( RuntimeException ) cause;
+			throw new RuntimeException( cause );
+		} finally {
+			pool.shutdownNow();
+		}
+
+		if ( status != null ) status.clearStatus();
+		if ( cache != null )
+			log.info( String.format( "Segmentation cache: %d hits, %d misses, %d MB.", cache.getHits(), cache.getMisses(), cache.getTotalBytes() / ( 1024 * 1024 ) ) );
+		log.info( String.format( "Segmentation of %d frames took %d ms.", numFrames, ( System.nanoTime() - start ) / 1000000 ) );
+		return labels;
+	}
+
+	/**
+	 * Fills <code>labels</code> with the hypotheses of frame <code>t</code>,
+	 * restored from the cache or read from <code>hypotheses</code> (and
+	 * cached).
+	 */
+	private void segmentFrame( final RandomAccessibleInterval< ? > raw, final RandomAccessibleInterval< ? > hypotheses, final int t, final int[] labels ) {
+		final int width = ( int ) hypotheses.dimension( 0 );
+		final int height = ( int ) hypotheses.dimension( 1 );
+		final String key = ( cache == null ) ? null : SegmentationCache.key( hashPlane( raw, t ), t, CACHE_PLUGIN, parametersHash );
+		if ( key != null ) {
+			final SegmentationCache.Plane cached = cache.get( key );
+			if ( cached != null && cached.getWidth() == width && cached.getHeight() == height ) {
+				System.arraycopy( cached.getLabels(), 0, labels, 0, labels.length );
+				return;
+			}
+		}
+
+		final Cursor< ? > cursor = Views.flatIterable( Views.hyperSlice( hypotheses, 2, hypotheses.min( 2 ) + t ) ).cursor();
+		for ( int i = 0; i < labels.length; i++ ) {
+			labels[ i ] = ( int ) ( ( RealType< ? > ) cursor.next() ).getRealDouble();
+		}
+		if ( key == null ) return;
+		try {
+			cache.put( key, new SegmentationCache.Plane( width, height, labels.clone() ) );
+		} catch ( final IOException e ) {
+			log.warn( "Could not cache segmentation of frame " + t + ": " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * Reads raw data plane <code>t</code>.
+	 *
+	 * @return a hash of its pixel values.
+	 */
+	private static long hashPlane( final RandomAccessibleInterval< ? > raw, final int t ) {
+		long hash = 0xcbf29ce484222325L;
+		final int timeDim = raw.numDimensions() - 1;
+		final Cursor< ? > cursor = Views.flatIterable( Views.hyperSlice( raw, timeDim, raw.min( timeDim ) + t ) ).cursor();
+		while ( cursor.hasNext() ) {
+			final Object value = cursor.next();
+			final long bits = ( value instanceof RealType ) ? Double.doubleToLongBits( ( ( RealType< ? > ) value ).getRealDouble() ) : value.hashCode();
+			hash = ( hash ^ bits ) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Frames finish out of order; progress is reported for the longest run
+	 * of finished frames from the start.
+	 */
+	private class Progress {
+
+		private final boolean[] framesDone;
+		private int framesDoneInOrder = 0;
+
+		Progress( final int numFrames ) {
+			framesDone = new boolean[ numFrames ];
+		}
+
+		synchronized void frameDone( final int t ) {
+			framesDone[ t ] = true;
+			while ( framesDoneInOrder < framesDone.length && framesDone[ framesDoneInOrder ] )
+				framesDoneInOrder++;
+			if ( status != null ) status.showStatus( framesDoneInOrder, framesDone.length, "Segmenting frame " + framesDoneInOrder + "/" + framesDone.length );
+		}
+	}
+}
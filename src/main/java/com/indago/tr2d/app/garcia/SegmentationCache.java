@@ -0,0 +1,255 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A content-addressed, size-bounded store of per-frame segmentation
+ * hypotheses inside a tr2d project folder.
+ * <p>
+ * Entries are keyed on everything the hypotheses of a frame depend on (see
+ * {@link #key(long, int, String, String)}): a hash of the raw data plane, the
+ * frame index, the segmentation plugin and a hash of its parameters. Equal
+ * keys therefore mean equal results, and changed raw data or parameters
+ * simply lead to new keys (stale entries age out).
+ * <p>
+ * Each entry is one file holding a label plane run-length encoded and
+ * deflate-compressed (magic <code>TR2DSEG1</code>, width, height, runs).
+ * When the total size exceeds the limit, least recently used entries are
+ * evicted.
+ */
+public class SegmentationCache {
+
+	public static final String FOLDER_NAME = "segmentation_cache";
+
+	public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+	private static final byte[] MAGIC = { 'T', 'R', '2', 'D', 'S', 'E', 'G', '1' };
+	private static final String SUFFIX = ".seg";
+
+	/**
+	 * A cached label plane.
+	 */
+	public static class Plane {
+
+		private final int width;
+		private final int height;
+		private final int[] labels;
+
+		public Plane( final int width, final int height, final int[] labels ) {
+			if ( labels.length != width * height ) throw new IllegalArgumentException( "Plane size does not match its dimensions." );
+			this.width = width;
+			this.height = height;
+			this.labels = labels;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+
+		public int getHeight() {
+			return height;
+		}
+
+		/**
+		 * @return the labels, pixel <code>(x,y)</code> at index
+		 *         <code>y * width + x</code>.
+		 */
+		public int[] getLabels() {
+			return labels;
+		}
+	}
+
+	private final File folder;
+	private final long maxBytes;
+	private long totalBytes;
+
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * @param folder
+	 *            the folder the entries are stored in (created if needed).
+	 * @param maxBytes
+	 *            size limit of all entries together.
+	 */
+	public SegmentationCache( final File folder, final long maxBytes ) throws IOException {
+		this.folder = folder;
+		this.maxBytes = maxBytes;
+		Files.createDirectories( folder.toPath() );
+		for ( final File entry : entries() ) {
+			totalBytes += entry.length();
+		}
+	}
+
+	/**
+	 * @return the key for the hypotheses of one frame.
+	 */
+	public static String key( final long rawPlaneHash, final int frame, final String plugin, final String parametersHash ) {
+		final String description = String.format( "%016x/%d/%s/%s", rawPlaneHash, frame, plugin, parametersHash );
+		return toHex( sha256( description.getBytes( StandardCharsets.UTF_8 ) ) );
+	}
+
+	/**
+	 * @return a hash of the content of all given files (in the given order),
+	 *         used as parameter hash of a segmentation plugin.
+	 */
+	public static String hashFiles( final List< File > files ) throws IOException {
+		final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		for ( final File file : files ) {
+			content.write( file.getName().getBytes( StandardCharsets.UTF_8 ) );
+			content.write( 0 );
+			content.write( Files.readAllBytes( file.toPath() ) );
+			content.write( 0 );
+		}
+		return toHex( sha256( content.toByteArray() ) );
+	}
+
+	/**
+	 * @return the cached plane, or <code>null</code> if there is none.
+	 */
+	public synchronized Plane get( final String key ) {
+		final File file = file( key );
+		if ( !file.isFile() ) {
+			misses++;
+			return null;
+		}
+		try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new InflaterInputStream( new FileInputStream( file ) ) ) ) ) {
+			final Plane plane = decode( in );
+			file.setLastModified( System.currentTimeMillis() );
+			hits++;
+			return plane;
+		} catch ( final IOException e ) {
+			// a broken entry is as good as none
+			remove( file );
+			misses++;
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the given plane under the given key, evicting old entries if the
+	 * size limit is exceeded.
+	 */
+	public synchronized void put( final String key, final Plane plane ) throws IOException {
+		final File file = file( key );
+		final File tmp = new File( folder, key + ".tmp" );
+		try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new DeflaterOutputStream( new FileOutputStream( tmp ) ) ) ) ) {
+			encode( plane, out );
+		}
+		if ( file.isFile() ) totalBytes -= file.length();
+		Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+		totalBytes += file.length();
+		evict();
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public synchronized int getHits() {
+		return hits;
+	}
+
+	public synchronized int getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Deletes least recently used entries until the size limit is met.
+	 */
+	private void evict() {
+		if ( totalBytes <= maxBytes ) return;
+		final List< File > entries = entries();
+		Collections.sort( entries, ( a, b ) -> Long.compare( a.lastModified(), b.lastModified() ) );
+		for ( final File entry : entries ) {
+			if ( totalBytes <= maxBytes ) break;
+			remove( entry );
+		}
+	}
+
+	private void remove( final File entry ) {
+		final long length = entry.length();
+		if ( entry.delete() ) totalBytes -= length;
+	}
+
+	private List< File > entries() {
+		final File[] files = folder.listFiles( ( dir, name ) -> name.endsWith( SUFFIX ) );
+		return ( files == null ) ? new ArrayList<>() : new ArrayList<>( Arrays.asList( files ) );
+	}
+
+	private File file( final String key ) {
+		return new File( folder, key + SUFFIX );
+	}
+
+	private static void encode( final Plane plane, final DataOutputStream out ) throws IOException {
+		out.write( MAGIC );
+		out.writeInt( plane.width );
+		out.writeInt( plane.height );
+		final int[] labels = plane.labels;
+		int i = 0;
+		while ( i < labels.length ) {
+			int run = 1;
+			while ( i + run < labels.length && labels[ i + run ] == labels[ i ] )
+				run++;
+			out.writeInt( labels[ i ] );
+			out.writeInt( run );
+			i += run;
+		}
+	}
+
+	private static Plane decode( final DataInputStream in ) throws IOException {
+		final byte[] magic = new byte[ MAGIC.length ];
+		in.readFully( magic );
+		if ( !Arrays.equals( magic, MAGIC ) ) throw new IOException( "Not a tr2d segmentation cache entry." );
+		final int width = in.readInt();
+		final int height = in.readInt();
+		final int[] labels = new int[ width * height ];
+		int i = 0;
+		while ( i < labels.length ) {
+			final int label = in.readInt();
+			final int run = in.readInt();
+			if ( run < 1 || i + run > labels.length ) throw new IOException( "Corrupt tr2d segmentation cache entry." );
+			Arrays.fill( labels, i, i + run, label );
+			i += run;
+		}
+		return new Plane( width, height, labels );
+	}
+
+	private static byte[] sha256( final byte[] data ) {
+		try {
+			return MessageDigest.getInstance( "SHA-256" ).digest( data );
+		} catch ( final NoSuchAlgorithmException e ) {
+			throw new IllegalStateException( "SHA-256 not available.", e );
+		}
+	}
+
+	private static String toHex( final byte[] bytes ) {
+		final StringBuilder hex = new StringBuilder();
+		for ( final byte b : bytes ) {
+			hex.append( String.format( "%02x", b ) );
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,261 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Future;
+
+/**
+ * A tracking job submitted to a {@link Tr2dServer}: what to run (parsed from
+ * the submitted properties, see {@link #parse(int, Properties)}) and its
+ * state, status code and stage metrics.
+ */
+public class ServerJob {
+
+	public enum State {
+		QUEUED, RUNNING, DONE, FAILED, CANCELLED
+	}
+
+	private final int id;
+	private final File projectFolder;
+	private final File exportFolder;
+	private final int minTime;
+	private final int maxTime;
+	private final String solver;
+	private final boolean schnitzcellExport;
+	private final boolean binaryExport;
+	private final boolean streamingExport;
+	private final Map< String, Double > trackerParameters;
+
+	private final StageTimer timer = new StageTimer();
+	private final long submittedMillis = System.currentTimeMillis();
+	private volatile long startedMillis = -1;
+	private volatile long finishedMillis = -1;
+	private volatile State state = State.QUEUED;
+	private volatile int status = -1;
+	private volatile Future< ? > future = null;
+
+	private ServerJob(
+			final int id,
+			final File projectFolder,
+			final File exportFolder,
+			final int minTime,
+			final int maxTime,
+			final String solver,
+			final boolean schnitzcellExport,
+			final boolean binaryExport,
+			final boolean streamingExport,
+			final Map< String, Double > trackerParameters ) {
+		this.id = id;
+		this.projectFolder = projectFolder;
+		this.exportFolder = exportFolder;
+		this.minTime = minTime;
+		this.maxTime = maxTime;
+		this.solver = solver;
+		this.schnitzcellExport = schnitzcellExport;
+		this.binaryExport = binaryExport;
+		this.streamingExport = streamingExport;
+		this.trackerParameters = trackerParameters;
+	}
+
+	/**
+	 * Parses a job submission. Keys: <code>project</code> (required, the tr2d
+	 * project folder), <code>export</code> (export folder),
+	 * <code>tmin</code>/<code>tmax</code> (time range),
+	 * <code>solver</code> (<code>gurobi</code> or <code>java</code>),
+	 * <code>exportformat</code> (<code>schnitzcell</code>,
+	 * <code>binary</code> or <code>both</code>), <code>stream</code>
+	 * (<code>true</code>/<code>false</code>), and the java solver parameters
+	 * of {@link GreedyTracker#PARAMETER_NAMES}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the submission is invalid.
+	 */
+	public static ServerJob parse( final int id, final Properties properties ) {
+		final String project = properties.getProperty( "project" );
+		if ( project == null || project.trim().isEmpty() ) throw new IllegalArgumentException( "Missing 'project'." );
+		final String export = properties.getProperty( "export" );
+
+		final int minTime = parseInt( properties, "tmin", 0 );
+		final int maxTime = parseInt( properties, "tmax", Integer.MAX_VALUE );
+		if ( minTime < 0 || maxTime < minTime ) throw new IllegalArgumentException( "Invalid time range " + minTime + "-" + maxTime + "." );
+
+		final String solver = properties.getProperty( "solver", TrackingSolver.GUROBI ).trim();
+		if ( !TrackingSolver.GUROBI.equals( solver ) && !TrackingSolver.JAVA.equals( solver ) )
+			throw new IllegalArgumentException( "Unknown solver '" + solver + "' (use gurobi or java)." );
+
+		final String format = properties.getProperty( "exportformat", "schnitzcell" ).trim();
+		if ( !"schnitzcell".equals( format ) && !"binary".equals( format ) && !"both".equals( format ) )
+			throw new IllegalArgumentException( "Unknown export format '" + format + "' (use schnitzcell, binary or both)." );
+
+		final Map< String, Double > trackerParameters = new LinkedHashMap<>();
+		for ( final String name : GreedyTracker.PARAMETER_NAMES ) {
+			final String value = properties.getProperty( name );
+			if ( value == null ) continue;
+			try {
+				trackerParameters.put( name, Double.parseDouble( value.trim() ) );
+			} catch ( final NumberFormatException e ) {
+				throw new IllegalArgumentException( "Invalid value '" + value + "' for " + name + "." );
+			}
+		}
+
+		return new ServerJob(
+				id,
+				new File( project.trim() ),
+				( export == null || export.trim().isEmpty() ) ? null : new File( export.trim() ),
+				minTime,
+				maxTime,
+				solver,
+				!"binary".equals( format ),
+				!"schnitzcell".equals( format ),
+				Boolean.parseBoolean( properties.getProperty( "stream", "false" ).trim() ),
+				trackerParameters );
+	}
+
+	private static int parseInt( final Properties properties, final String key, final int defaultValue ) {
+		final String value = properties.getProperty( key );
+		if ( value == null ) return defaultValue;
+		try {
+			return Integer.parseInt( value.trim() );
+		} catch ( final NumberFormatException e ) {
+			throw new IllegalArgumentException( "Invalid value '" + value + "' for " + key + "." );
+		}
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public File getProjectFolder() {
+		return projectFolder;
+	}
+
+	/**
+	 * @return the export folder, or <code>null</code> if nothing is exported.
+	 */
+	public File getExportFolder() {
+		return exportFolder;
+	}
+
+	public int getMinTime() {
+		return minTime;
+	}
+
+	public int getMaxTime() {
+		return maxTime;
+	}
+
+	public boolean hasTimeRange() {
+		return minTime > 0 || maxTime < Integer.MAX_VALUE;
+	}
+
+	public String getSolver() {
+		return solver;
+	}
+
+	public boolean isSchnitzcellExport() {
+		return schnitzcellExport;
+	}
+
+	public boolean isBinaryExport() {
+		return binaryExport;
+	}
+
+	public boolean isStreamingExport() {
+		return streamingExport;
+	}
+
+	public Map< String, Double > getTrackerParameters() {
+		return trackerParameters;
+	}
+
+	/**
+	 * Stages of this job (wall times are per job; CPU time, allocations and
+	 * peak heap are process wide and include concurrent jobs).
+	 */
+	public StageTimer getTimer() {
+		return timer;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * @return the status code of the finished job (see
+	 *         {@link Tr2dHeadlessRunner}), -1 while it did not finish.
+	 */
+	public int getStatus() {
+		return status;
+	}
+
+	void setFuture( final Future< ? > future ) {
+		this.future = future;
+	}
+
+	/**
+	 * Marks a queued job as running.
+	 *
+	 * @return false, iff the job was cancelled before it started (and must
+	 *         not run).
+	 */
+	synchronized boolean started() {
+		if ( state != State.QUEUED ) return false;
+		startedMillis = System.currentTimeMillis();
+		state = State.RUNNING;
+		return true;
+	}
+
+	/**
+	 * Marks a job that ran as finished (a cancelled job stays cancelled).
+	 */
+	synchronized void finished( final int status ) {
+		this.status = status;
+		finishedMillis = System.currentTimeMillis();
+		if ( state != State.CANCELLED ) state = Tr2dHeadlessRunner.isSuccess( status ) ? State.DONE : State.FAILED;
+	}
+
+	/**
+	 * Cancels the job: a queued job will not run, a running job is
+	 * interrupted (and finishes once its worker returned, see
+	 * {@link #finished(int)}).
+	 *
+	 * @return false, iff the job already finished.
+	 */
+	synchronized boolean cancel() {
+		if ( state == State.DONE || state == State.FAILED || state == State.CANCELLED ) return false;
+		final boolean queued = ( state == State.QUEUED );
+		state = State.CANCELLED;
+		if ( future != null ) future.cancel( true );
+		if ( queued ) finishedMillis = System.currentTimeMillis();
+		return true;
+	}
+
+	/**
+	 * @return true, iff the job will not run (anymore).
+	 */
+	public boolean isFinished() {
+		return finishedMillis >= 0;
+	}
+
+	/**
+	 * @return the state of the job, as reported by the server.
+	 */
+	public Properties toProperties() {
+		final Properties properties = new Properties();
+		properties.setProperty( "id", Integer.toString( id ) );
+		properties.setProperty( "state", state.name() );
+		properties.setProperty( "status", Integer.toString( status ) );
+		properties.setProperty( "project", projectFolder.getAbsolutePath() );
+		if ( exportFolder != null ) properties.setProperty( "export", exportFolder.getAbsolutePath() );
+		properties.setProperty( "solver", solver );
+		properties.setProperty( "queued_ms", Long.toString( ( ( startedMillis < 0 ) ? System.currentTimeMillis() : startedMillis ) - submittedMillis ) );
+		if ( startedMillis >= 0 )
+			properties.setProperty( "wall_ms", Long.toString( ( ( finishedMillis < 0 ) ? System.currentTimeMillis() : finishedMillis ) - startedMillis ) );
+		return properties;
+	}
+}
@@ -0,0 +1,277 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.scijava.log.Logger;
+
+import com.indago.tr2d.io.projectfolder.Tr2dProjectFolder;
+import com.indago.tr2d.ui.model.Tr2dModel;
+
+import net.imagej.ImgPlus;
+
+/**
+ * Tracks long movies in overlapping time windows instead of solving one
+ * problem for all time-points. Each window is segmented and tracked in its
+ * own sub-project (see {@link SubProjectFolders}) on only its own raw data
+ * planes; the solutions are stitched by a {@link WindowStitcher} and the
+ * model of a window is closed before the next one is built. Memory is
+ * therefore bounded by the window size and the run time grows linearly with
+ * the length of the movie.
+ * <p>
+ * The stitched result is written to the export folder frame by frame (see
+ * {@link StreamingExporter}) and optionally in the binary format (see
+ * {@link BinaryExportFormat}), both with absolute time-points. There is no
+ * schnitzcell export in this mode since it needs one model of the whole
+ * movie.
+ * <p>
+ * If a {@link CheckpointStore} is set, the solution of each window is stored
+ * as soon as it is tracked and windows with a checkpoint are not tracked
+ * again.
+ */
+public class SlidingWindowTracker {
+
+	public static final int DEFAULT_OVERLAP = 4;
+
+	private final Logger log;
+	private final Semaphore solverPermits;
+	private final int windowSize;
+	private final int overlap;
+
+	private TrackingSolver solver = new GurobiTrackingSolver();
+	private StageTimer timer = null;
+	private CheckpointStore checkpoints = null;
+
+	private ImageStackLoader loader = new ImageStackLoader();
+
+	/**
+	 * @param windowSize
+	 *            number of time-points per window.
+	 * @param overlap
+	 *            number of time-points consecutive windows share, at least 1
+	 *            and at most half the <code>windowSize</code>.
+	 */
+	public SlidingWindowTracker( final Logger log, final int windowSize, final int overlap ) {
+		this( log, windowSize, overlap, null );
+	}
+
+	public SlidingWindowTracker( final Logger log, final int windowSize, final int overlap, final Semaphore solverPermits ) {
+		if ( overlap < 1 || 2 * overlap > windowSize )
+			throw new IllegalArgumentException( String.format( "Window overlap must be in [1,%d], not %d.", windowSize / 2, overlap ) );
+		this.log = log;
+		this.windowSize = windowSize;
+		this.overlap = overlap;
+		this.solverPermits = solverPermits;
+	}
+
+	/**
+	 * How the raw data of each window is loaded (see {@link ImageStackLoader});
+	 * the time range is set per window on a copy of the given loader.
+	 */
+	public SlidingWindowTracker setLoader( final ImageStackLoader loader ) {
+		this.loader = loader;
+		return this;
+	}
+
+	/**
+	 * The tracking backend used for each window (default:
+	 * {@link GurobiTrackingSolver}).
+	 */
+	public SlidingWindowTracker setSolver( final TrackingSolver solver ) {
+		this.solver = solver;
+		return this;
+	}
+
+	/**
+	 * If set, the stages of each window are measured by the given timer.
+	 */
+	public SlidingWindowTracker setTimer( final StageTimer timer ) {
+		this.timer = timer;
+		return this;
+	}
+
+	/**
+	 * If set, finished windows are stored in and restored from the given
+	 * checkpoints.
+	 */
+	public SlidingWindowTracker setCheckpoints( final CheckpointStore checkpoints ) {
+		this.checkpoints = checkpoints;
+		return this;
+	}
+
+	/**
+	 * @return the windows <code>{first, last}</code> (both inclusive) covering
+	 *         <code>[tmin, tmax]</code>.
+	 */
+	public static List< int[] > computeWindows( final int tmin, final int tmax, final int windowSize, final int overlap ) {
+		final List< int[] > windows = new ArrayList<>();
+		int start = tmin;
+		while ( true ) {
+			final int end = Math.min( start + windowSize - 1, tmax );
+			windows.add( new int[] { start, end } );
+			if ( end >= tmax ) break;
+			start = end - overlap + 1;
+		}
+		return windows;
+	}
+
+	/**
+	 * @param projectFolder
+	 *            the project whose settings are used for all windows.
+	 * @param inputStack
+	 *            the raw data.
+	 * @param tmin
+	 *            first time-point to be tracked.
+	 * @param tmax
+	 *            last time-point to be tracked (clipped to the stack size).
+	 * @param exportFolder
+	 *            folder to export results to, can be <code>null</code>.
+	 * @param binaryExport
+	 *            if true, the binary export is written as well.
+	 * @return a status code, {@link Tr2dHeadlessRunner#STATUS_OK} iff
+	 *         everything went fine.
+	 */
+	public int run(
+			final Tr2dProjectFolder projectFolder,
+			final File inputStack,
+			final int tmin,
+			final int tmax,
+			final File exportFolder,
+			final boolean binaryExport ) {
+		final int numPlanes = ImageStackLoader.countPlanes( inputStack );
+		if ( numPlanes <= tmin ) {
+			log.error( "No time-points to track in " + inputStack.getAbsolutePath() );
+			return Tr2dHeadlessRunner.STATUS_TRACKING_FAILED;
+		}
+		final List< int[] > windows = computeWindows( tmin, Math.min( tmax, numPlanes - 1 ), windowSize, overlap );
+
+		final List< TrackedFrame > stitched = new ArrayList<>();
+		StreamingExporter streamingExporter = null;
+		try {
+			if ( exportFolder != null ) {
+				if ( solver instanceof GreedyTrackingSolver ) GreedyTrackingSolver.writeExportLabel( exportFolder );
+				streamingExporter = new StreamingExporter( exportFolder, 0 );
+			}
+			final StreamingExporter stream = streamingExporter;
+			final WindowStitcher stitcher = new WindowStitcher( overlap, frame -> {
+				if ( stream != null ) stream.write( frame );
+				if ( binaryExport ) stitched.add( frame );
+			} );
+
+			for ( int i = 0; i < windows.size(); i++ ) {
+				final int start = windows.get( i )[ 0 ];
+				final int end = windows.get( i )[ 1 ];
+				log.info( String.format( "Tracking window %d/%d (time-points %d to %d)...", i + 1, windows.size(), start, end ) );
+
+				final String name = String.format( "window_%06d_%06d", start, end );
+				final List< TrackedFrame > checkpoint = ( checkpoints != null ) ? checkpoints.load( name ) : null;
+				final List< TrackedFrame > frames = new ArrayList<>();
+				final String stagePrefix = String.format( "window %d/%d: ", i + 1, windows.size() );
+				if ( checkpoint != null ) {
+					log.info( "Window restored from checkpoint." );
+					frames.addAll( checkpoint );
+				} else {
+					if ( timer != null ) timer.start( stagePrefix + "setup" );
+					final int status = trackWindow( projectFolder, inputStack, name, start, end, frames, stagePrefix );
+					if ( status != Tr2dHeadlessRunner.STATUS_OK ) return status;
+					saveCheckpoint( name, frames );
+				}
+				if ( timer != null ) timer.start( stagePrefix + "stitching and export" );
+				stitcher.addWindow( start, frames );
+				if ( timer != null ) timer.stop();
+			}
+			stitcher.finish();
+			log.info( String.format( "Stitched %d windows into %d frames.", windows.size(), stitcher.getNumEmittedFrames() ) );
+		} catch ( final IOException e ) {
+			log.error( "Export of stitched windows failed: " + e.getMessage() );
+			return Tr2dHeadlessRunner.STATUS_EXPORT_FAILED;
+		} finally {
+			try {
+				if ( streamingExporter != null ) streamingExporter.close();
+			} catch ( final IOException e ) {
+				log.error( "Could not close streamed export: " + e.getMessage() );
+			}
+			if ( timer != null ) timer.stop();
+		}
+
+		if ( exportFolder != null && binaryExport ) {
+			if ( timer != null ) timer.start( "export (binary)" );
+			try {
+				new BinaryExportWriter( 0 ).write( stitched, exportFolder );
+			} catch ( final IOException e ) {
+				log.error( "Binary export failed: " + e.getMessage() );
+				return Tr2dHeadlessRunner.STATUS_EXPORT_FAILED;
+			} finally {
+				if ( timer != null ) timer.stop();
+			}
+		}
+		return Tr2dHeadlessRunner.STATUS_OK;
+	}
+
+	private void saveCheckpoint( final String name, final List< TrackedFrame > frames ) {
+		if ( checkpoints == null ) return;
+		try {
+			checkpoints.save( name, frames );
+		} catch ( final IOException e ) {
+			log.warn( "Could not write checkpoint of window: " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * Segments and tracks one window in a fresh sub-project and adds its
+	 * solution (times relative to <code>start</code>) to <code>frames</code>.
+	 * The model and the sub-project are discarded afterwards.
+	 */
+	private int trackWindow(
+			final Tr2dProjectFolder projectFolder,
+			final File inputStack,
+			final String name,
+			final int start,
+			final int end,
+			final List< TrackedFrame > frames,
+			final String stagePrefix ) {
+		final Tr2dProjectFolder windowFolder;
+		try {
+			windowFolder = SubProjectFolders.create( projectFolder, name );
+		} catch ( final IOException e ) {
+			log.error( "Could not create project folder for window: " + e.getMessage() );
+			return Tr2dHeadlessRunner.STATUS_TRACKING_FAILED;
+		}
+
+		try {
+			final ImgPlus imgPlus = loader.copy()
+					.setTimeRange( start, end )
+					.open( inputStack );
+			if ( imgPlus == null ) {
+				log.error( "Could not open input stack " + inputStack.getAbsolutePath() );
+				return Tr2dHeadlessRunner.STATUS_TRACKING_FAILED;
+			}
+
+			final Tr2dModel model = new Tr2dModel( windowFolder, imgPlus );
+			try {
+				final Tr2dHeadlessRunner runner = new Tr2dHeadlessRunner( log, solverPermits )
+						.setSolver( solver )
+						.setTimer( timer, stagePrefix )
+						.setExportFormats( false, false, false );
+				final int status = runner.run( model, null );
+				if ( status == Tr2dHeadlessRunner.STATUS_OK )
+					frames.addAll( runner.readSolution( model ) );
+				return status;
+			} finally {
+				model.close();
+			}
+		} finally {
+			try {
+				SubProjectFolders.delete( SubProjectFolders.getFolder( projectFolder, name ) );
+			} catch ( final IOException e ) {
+				log.warn( "Could not delete window project folder: " + e.getMessage() );
+			}
+		}
+	}
+}
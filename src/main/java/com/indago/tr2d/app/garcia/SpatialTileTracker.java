@@ -0,0 +1,275 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.scijava.log.Logger;
+
+import com.indago.tr2d.io.projectfolder.Tr2dProjectFolder;
+import com.indago.tr2d.ui.model.Tr2dModel;
+
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.ImgView;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Tracks large fields of view in overlapping spatial tiles instead of
+ * solving one problem for the whole frame. Each tile is segmented and
+ * tracked in its own sub-project (see {@link SubProjectFolders}) on a crop of
+ * the raw data; tiles are processed in parallel and their solutions are
+ * merged by a {@link TileReconciler}.
+ * <p>
+ * The merged result is written to the export folder (see
+ * {@link StreamingExporter}) and optionally in the binary format (see
+ * {@link BinaryExportFormat}). There is no schnitzcell export in this mode
+ * since it needs one model of the whole frame.
+ * <p>
+ * If a {@link CheckpointStore} is set, the solution of each tile is stored
+ * as soon as it is tracked and tiles with a checkpoint are not tracked
+ * again.
+ */
+public class SpatialTileTracker {
+
+	public static final int DEFAULT_OVERLAP = 64;
+
+	private final Logger log;
+	private final int tileSize;
+	private final int overlap;
+	private final int numThreads;
+
+	private TrackingSolver solver = new GurobiTrackingSolver();
+	private StageTimer timer = null;
+	private CheckpointStore checkpoints = null;
+
+	/**
+	 * @param tileSize
+	 *            edge length of the tiles in pixels.
+	 * @param overlap
+	 *            number of pixels neighbouring tiles share, at least 1 and at
+	 *            most half the <code>tileSize</code>. Should be larger than
+	 *            the diameter of a cell plus its movement between two frames.
+	 * @param numThreads
+	 *            number of tiles segmented and tracked at the same time.
+	 */
+	public SpatialTileTracker( final Logger log, final int tileSize, final int overlap, final int numThreads ) {
+		if ( overlap < 1 || 2 * overlap > tileSize )
+			throw new IllegalArgumentException( String.format( "Tile overlap must be in [1,%d], not %d.", tileSize / 2, overlap ) );
+		this.log = log;
+		this.tileSize = tileSize;
+		this.overlap = overlap;
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	/**
+	 * The tracking backend used for each tile (default:
+	 * {@link GurobiTrackingSolver}).
+	 */
+	public SpatialTileTracker setSolver( final TrackingSolver solver ) {
+		this.solver = solver;
+		return this;
+	}
+
+	/**
+	 * If set, tracking all tiles and merging them are measured by the given
+	 * timer.
+	 */
+	public SpatialTileTracker setTimer( final StageTimer timer ) {
+		this.timer = timer;
+		return this;
+	}
+
+	/**
+	 * If set, finished tiles are stored in and restored from the given
+	 * checkpoints.
+	 */
+	public SpatialTileTracker setCheckpoints( final CheckpointStore checkpoints ) {
+		this.checkpoints = checkpoints;
+		return this;
+	}
+
+	/**
+	 * @param projectFolder
+	 *            the project whose settings are used for all tiles.
+	 * @param imgPlus
+	 *            the raw data (x,y,t).
+	 * @param exportFolder
+	 *            folder to export results to, can be <code>null</code>.
+	 * @param binaryExport
+	 *            if true, the binary export is written as well.
+	 * @param timeOffset
+	 *            added to all exported time-points.
+	 * @return a status code, {@link Tr2dHeadlessRunner#STATUS_OK} iff
+	 *         everything went fine.
+	 */
+	public int run(
+			final Tr2dProjectFolder projectFolder,
+			final ImgPlus< ? > imgPlus,
+			final File exportFolder,
+			final boolean binaryExport,
+			final int timeOffset ) {
+		final List< TileReconciler.Tile > tiles = TileReconciler.computeTiles(
+				( int ) imgPlus.dimension( 0 ),
+				( int ) imgPlus.dimension( 1 ),
+				tileSize,
+				overlap );
+		log.info( String.format( "Tracking %d tiles on %d threads...", tiles.size(), numThreads ) );
+
+		if ( timer != null ) timer.start( String.format( "tiles: segmentation and tracking (%d tiles)", tiles.size() ) );
+		final List< List< TrackedFrame > > tileFrames = new ArrayList<>();
+		final ExecutorService pool = Executors.newFixedThreadPool( numThreads );
+		try {
+			final List< Future< List< TrackedFrame > > > futures = new ArrayList<>();
+			for ( final TileReconciler.Tile tile : tiles ) {
+				futures.add( pool.submit( ( Callable< List< TrackedFrame > > ) () -> trackTile( projectFolder, imgPlus, tile ) ) );
+			}
+			for ( int i = 0; i < futures.size(); i++ ) {
+				final List< TrackedFrame > frames = futures.get( i ).get();
+				if ( frames == null ) return Tr2dHeadlessRunner.STATUS_TRACKING_FAILED;
+				tileFrames.add( frames );
+			}
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			return Tr2dHeadlessRunner.STATUS_TRACKING_FAILED;
+		} catch ( final ExecutionException e ) {
+			log.error( "Tracking a tile failed: " + e.getCause() );
+			return Tr2dHeadlessRunner.STATUS_TRACKING_FAILED;
+		} finally {
+			pool.shutdownNow();
+		}
+
+		if ( timer != null ) timer.start( "tiles: merge and export" );
+		final List< TrackedFrame > merged = new ArrayList<>();
+		StreamingExporter streamingExporter = null;
+		try {
+			if ( exportFolder != null ) {
+				if ( solver instanceof GreedyTrackingSolver ) GreedyTrackingSolver.writeExportLabel( exportFolder );
+				streamingExporter = new StreamingExporter( exportFolder, timeOffset );
+			}
+			final StreamingExporter stream = streamingExporter;
+			new TileReconciler( tiles ).reconcile( tileFrames, frame -> {
+				if ( stream != null ) stream.write( frame );
+				if ( binaryExport ) merged.add( frame );
+			} );
+		} catch ( final IOException e ) {
+			log.error( "Export of merged tiles failed: " + e.getMessage() );
+			return Tr2dHeadlessRunner.STATUS_EXPORT_FAILED;
+		} finally {
+			try {
+				if ( streamingExporter != null ) streamingExporter.close();
+			} catch ( final IOException e ) {
+				log.error( "Could not close streamed export: " + e.getMessage() );
+			}
+		}
+
+		if ( exportFolder != null && binaryExport ) {
+			if ( timer != null ) timer.start( "export (binary)" );
+			try {
+				new BinaryExportWriter( timeOffset ).write( merged, exportFolder );
+			} catch ( final IOException e ) {
+				log.error( "Binary export failed: " + e.getMessage() );
+				return Tr2dHeadlessRunner.STATUS_EXPORT_FAILED;
+			}
+		}
+		return Tr2dHeadlessRunner.STATUS_OK;
+	}
+
+	/**
+	 * Segments and tracks one tile in a fresh sub-project. The model and the
+	 * sub-project are discarded afterwards.
+	 *
+	 * @return the solution of the tile (positions relative to the tile), or
+	 *         <code>null</code> if tracking failed.
+	 */
+	private List< TrackedFrame > trackTile( final Tr2dProjectFolder projectFolder, final ImgPlus< ? > imgPlus, final TileReconciler.Tile tile ) {
+		final String name = String.format( "tile_%06d_%06d", tile.getMinX(), tile.getMinY() );
+		final List< TrackedFrame > checkpoint = ( checkpoints != null ) ? checkpoints.load( name ) : null;
+		if ( checkpoint != null ) {
+			log.info( "Tile " + tile + " restored from checkpoint." );
+			return checkpoint;
+		}
+		final Tr2dProjectFolder tileFolder;
+		try {
+			tileFolder = SubProjectFolders.create( projectFolder, name );
+		} catch ( final IOException e ) {
+			log.error( "Could not create project folder for tile: " + e.getMessage() );
+			return null;
+		}
+
+		try {
+			final Tr2dModel model = new Tr2dModel( tileFolder, crop( imgPlus, tile ) );
+			try {
+				final Tr2dHeadlessRunner runner = new Tr2dHeadlessRunner( log )
+						.setSolver( solver )
+						.setEmptySolutionAllowed( true )
+						.setExportFormats( false, false, false );
+				final int status = runner.run( model, null );
+				if ( status != Tr2dHeadlessRunner.STATUS_OK ) {
+					log.error( "Tracking tile " + tile + " failed with status " + status );
+					return null;
+				}
+				final List< TrackedFrame > frames = runner.readSolution( model );
+				// the java solver tracks every segment it finds, so only an empty
+				// tile leaves it without any; tr2d's ILP might just have failed
+				if ( frames == null || ( Tr2dHeadlessRunner.isEmpty( frames ) && !( solver instanceof GreedyTrackingSolver ) && hasHypotheses( model ) ) ) {
+					log.error( "Tracking tile " + tile + " failed: no tracked segments, although the tile holds segmentation hypotheses." );
+					return null;
+				}
+				if ( checkpoints != null ) {
+					try {
+						checkpoints.save( name, frames );
+					} catch ( final IOException e ) {
+						log.warn( "Could not write checkpoint of tile " + tile + ": " + e.getMessage() );
+					}
+				}
+				return frames;
+			} finally {
+				model.close();
+			}
+		} finally {
+			try {
+				SubProjectFolders.delete( SubProjectFolders.getFolder( projectFolder, name ) );
+			} catch ( final IOException e ) {
+				log.warn( "Could not delete tile project folder: " + e.getMessage() );
+			}
+		}
+	}
+
+	/**
+	 * @return true, iff any segmentation hypotheses image of the given model
+	 *         has a foreground pixel.
+	 */
+	private static boolean hasHypotheses( final Tr2dModel model ) {
+		for ( final RandomAccessibleInterval< ? > hypotheses : model.getSegmentationModel().getSegmentHypothesesImages() ) {
+			for ( final Object pixel : Views.iterable( hypotheses ) ) {
+				if ( ( ( RealType< ? > ) pixel ).getRealDouble() != 0 ) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return a view of the given tile of all frames, with its origin at the
+	 *         tile's upper left corner.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private static ImgPlus crop( final ImgPlus imgPlus, final TileReconciler.Tile tile ) {
+		final long[] min = { tile.getMinX(), tile.getMinY(), imgPlus.min( 2 ) };
+		final long[] max = { tile.getMaxX(), tile.getMaxY(), imgPlus.max( 2 ) };
+		final RandomAccessibleInterval view = Views.zeroMin( Views.interval( imgPlus, min, max ) );
+		return new ImgPlus( ImgView.wrap( view, imgPlus.factory() ), imgPlus.getName() + " " + tile, new AxisType[] { Axes.X, Axes.Y, Axes.TIME } );
+	}
+}
@@ -0,0 +1,265 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures consecutive stages of a tr2d run (context initialization, Gurobi
+ * check, stack loading, segmentation, tracking, export, ...) and reports them,
+ * either as human readable text or as tab separated values.
+ * <p>
+ * Per stage, the wall time, the CPU time of the whole process (i.e. of all
+ * threads), the bytes allocated during the stage and the peak heap usage are
+ * recorded. Metrics the JVM does not support are reported as -1.
+ * <p>
+ * Allocations are summed per thread, for all threads alive at the end of the
+ * stage; threads that ended during the stage (e.g. worker pools that were
+ * shut down) are missing, so the number is a lower bound. The peak heap is the
+ * sum of the peaks of all heap pools, an upper bound. The peaks are reset
+ * when a stage starts, unless a stage of another timer (e.g. of a concurrent
+ * server job) is running: then the peak includes everything since the last
+ * reset.
+ */
+public class StageTimer {
+
+	/**
+	 * A finished stage.
+	 */
+	public static class Stage {
+
+		private final String name;
+		private final long wallNanos;
+		private final long cpuNanos;
+		private final long allocatedBytes;
+		private final long peakHeapBytes;
+
+		Stage( final String name, final long wallNanos, final long cpuNanos, final long allocatedBytes, final long peakHeapBytes ) {
+			this.name = name;
+			this.wallNanos = wallNanos;
+			this.cpuNanos = cpuNanos;
+			this.allocatedBytes = allocatedBytes;
+			this.peakHeapBytes = peakHeapBytes;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getWallMillis() {
+			return wallNanos / 1000000;
+		}
+
+		/**
+		 * @return CPU time of all threads of the process, -1 if unknown.
+		 */
+		public long getCpuMillis() {
+			return ( cpuNanos < 0 ) ? -1 : cpuNanos / 1000000;
+		}
+
+		/**
+		 * @return bytes allocated during this stage by the threads that were
+		 *         alive at its end (a lower bound), -1 if unknown.
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * @return peak heap usage during this stage (an upper bound), -1 if
+		 *         unknown.
+		 */
+		public long getPeakHeapBytes() {
+			return peakHeapBytes;
+		}
+	}
+
+	/**
+	 * Guards the peaks of the heap pools, which are shared by all timers.
+	 */
+	private static final Object PEAK_LOCK = new Object();
+
+	/**
+	 * Number of running stages of all timers.
+	 */
+	private static int runningStages = 0;
+
+	private final List< Stage > stages = new ArrayList<>();
+
+	/**
+	 * Milliseconds between JVM start and the creation of this timer.
+	 */
+	private final long jvmStartupMillis;
+
+	private String currentStage = null;
+	private long currentStart;
+	private long currentCpuStart;
+	private Map< Long, Long > currentAllocatedStart;
+
+	public StageTimer() {
+		jvmStartupMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+	}
+
+	/**
+	 * Starts measuring the given stage. A still running stage is stopped
+	 * first.
+	 */
+	public synchronized void start( final String stage ) {
+		stop();
+		currentStage = stage;
+		synchronized ( PEAK_LOCK ) {
+			if ( runningStages++ == 0 ) resetPeakHeap();
+		}
+		currentCpuStart = processCpuNanos();
+		currentAllocatedStart = allocatedBytes();
+		currentStart = System.nanoTime();
+	}
+
+	/**
+	 * Stops the currently running stage (if any).
+	 */
+	public synchronized void stop() {
+		if ( currentStage == null ) return;
+		final long wall = System.nanoTime() - currentStart;
+		final long cpu = processCpuNanos();
+		final Map< Long, Long > allocated = allocatedBytes();
+		final long peakHeap;
+		synchronized ( PEAK_LOCK ) {
+			peakHeap = peakHeap();
+			runningStages--;
+		}
+		stages.add( new Stage(
+				currentStage,
+				wall,
+				( cpu < 0 || currentCpuStart < 0 ) ? -1 : cpu - currentCpuStart,
+				( allocated == null || currentAllocatedStart == null ) ? -1 : allocatedSince( currentAllocatedStart, allocated ),
+				peakHeap ) );
+		currentStage = null;
+	}
+
+	private static long processCpuNanos() {
+		final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if ( os instanceof com.sun.management.OperatingSystemMXBean )
+			return ( ( com.sun.management.OperatingSystemMXBean ) os ).getProcessCpuTime();
+		return -1;
+	}
+
+	/**
+	 * @return the bytes allocated so far by each live thread (by thread id),
+	 *         <code>null</code> if unknown.
+	 */
+	private static Map< Long, Long > allocatedBytes() {
+		final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if ( !( threads instanceof com.sun.management.ThreadMXBean ) ) return null;
+		final com.sun.management.ThreadMXBean sunThreads = ( com.sun.management.ThreadMXBean ) threads;
+		if ( !sunThreads.isThreadAllocatedMemorySupported() || !sunThreads.isThreadAllocatedMemoryEnabled() ) return null;
+		final long[] ids = threads.getAllThreadIds();
+		final long[] bytes = sunThreads.getThreadAllocatedBytes( ids );
+		final Map< Long, Long > allocated = new HashMap<>();
+		for ( int i = 0; i < ids.length; i++ ) {
+			if ( bytes[ i ] > 0 ) allocated.put( ids[ i ], bytes[ i ] );
+		}
+		return allocated;
+	}
+
+	/**
+	 * @return the bytes allocated between the two snapshots by the threads of
+	 *         <code>end</code>; threads started in between count from zero.
+	 */
+	static long allocatedSince( final Map< Long, Long > start, final Map< Long, Long > end ) {
+		long sum = 0;
+		for ( final Map.Entry< Long, Long > thread : end.entrySet() ) {
+			final Long before = start.get( thread.getKey() );
+			sum += Math.max( 0, thread.getValue() - ( ( before == null ) ? 0 : before ) );
+		}
+		return sum;
+	}
+
+	private static void resetPeakHeap() {
+		for ( final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+			if ( pool.getType() == MemoryType.HEAP && pool.isValid() ) pool.resetPeakUsage();
+		}
+	}
+
+	private static long peakHeap() {
+		long sum = 0;
+		for ( final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() ) {
+			if ( pool.getType() == MemoryType.HEAP && pool.isValid() && pool.getPeakUsage() != null ) sum += pool.getPeakUsage().getUsed();
+		}
+		return sum;
+	}
+
+	public synchronized List< Stage > getStages() {
+		return new ArrayList<>( stages );
+	}
+
+	public long getJvmStartupMillis() {
+		return jvmStartupMillis;
+	}
+
+	/**
+	 * @return a human readable report of all finished stages.
+	 */
+	public synchronized String report() {
+		final StringBuilder sb = new StringBuilder( "Timings:\n" );
+		long total = jvmStartupMillis;
+		sb.append( String.format( "  %-32s %8d ms\n", "jvm startup", jvmStartupMillis ) );
+		for ( final Stage stage : stages ) {
+			sb.append( String.format( "  %-32s %8d ms  (cpu %8d ms, allocated %6d MB, peak heap %6d MB)\n",
+					stage.getName(),
+					stage.getWallMillis(),
+					stage.getCpuMillis(),
+					toMegabytes( stage.getAllocatedBytes() ),
+					toMegabytes( stage.getPeakHeapBytes() ) ) );
+			total += stage.getWallMillis();
+		}
+		sb.append( String.format( "  %-32s %8d ms", "total", total ) );
+		return sb.toString();
+	}
+
+	private static long toMegabytes( final long bytes ) {
+		return ( bytes < 0 ) ? -1 : bytes / ( 1024 * 1024 );
+	}
+
+	/**
+	 * Writes all finished stages as tab separated values (one stage per
+	 * line, with header: stage, wall_ms, cpu_ms, allocated_bytes,
+	 * peak_heap_bytes; see {@link Stage} for the bounds of the last two).
+	 */
+	public synchronized void writeTsv( final File file ) throws IOException {
+		try ( PrintWriter out = new PrintWriter( file, "UTF-8" ) ) {
+			out.print( toTsv() );
+		}
+	}
+
+	/**
+	 * @return all finished stages as tab separated values (see
+	 *         {@link #writeTsv(File)}).
+	 */
+	public synchronized String toTsv() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append( "stage\twall_ms\tcpu_ms\tallocated_bytes\tpeak_heap_bytes\n" );
+		sb.append( "jvm startup\t" ).append( jvmStartupMillis ).append( "\t-1\t-1\t-1\n" );
+		for ( final Stage stage : stages ) {
+			sb.append( String.format( "%s\t%d\t%d\t%d\t%d\n",
+					stage.getName(),
+					stage.getWallMillis(),
+					stage.getCpuMillis(),
+					stage.getAllocatedBytes(),
+					stage.getPeakHeapBytes() ) );
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+
+import com.indago.tr2d.ui.model.Tr2dTrackingModel;
+
+/**
+ * Writes {@link TrackedFrame}s to two tab separated files (segments and
+ * links) in an export folder, frame by frame, without keeping them in memory.
+ * Each frame is handed to the OS when it was written (not forced to disk).
+ * <p>
+ * A solution of the whole movie only exists once the solve finished, so the
+ * static <code>export</code> methods write it in one go after tracking (as
+ * does {@link SpatialTileTracker} once all tiles are merged). Only windowed
+ * tracking ({@link SlidingWindowTracker}) writes frames while later time-points
+ * are still tracked: the frames of each window are appended as soon as they
+ * are stitched, so downstream tools can start reading early and a killed run
+ * keeps the windows written so far.
+ */
+public class StreamingExporter implements Closeable {
+
+	public static final String SEGMENTS_FILENAME = "tracked_segments.tsv";
+	public static final String LINKS_FILENAME = "tracked_links.tsv";
+
+	private final FileChannel segments;
+	private final FileChannel links;
+	private final int timeOffset;
+
+	private final StringBuilder buffer = new StringBuilder( 1 << 16 );
+
+	/**
+	 * @param folder
+	 *            the folder to write to (existing files are overwritten).
+	 * @param timeOffset
+	 *            added to the time of each frame (e.g. 'tmin' if only a time
+	 *            window of the raw data was tracked).
+	 */
+	public StreamingExporter( final File folder, final int timeOffset ) throws IOException {
+		this.timeOffset = timeOffset;
+		segments = open( new File( folder, SEGMENTS_FILENAME ) );
+		links = open( new File( folder, LINKS_FILENAME ) );
+		write( segments, "t\tid\tarea\tx\ty\n" );
+		write( links, "t\ttype\tsource\ttarget1\ttarget2\n" );
+	}
+
+	/**
+	 * Streams the current solution of the given tracking model into the given
+	 * folder.
+	 *
+	 * @return the number of exported frames.
+	 */
+	public static int export( final Tr2dTrackingModel trackingModel, final File folder, final int timeOffset ) throws IOException {
+		try ( StreamingExporter exporter = new StreamingExporter( folder, timeOffset ) ) {
+			return new TrackingSolutionReader().forEachFrame( trackingModel, exporter::write );
+		}
+	}
+
+	/**
+	 * Writes the given frames into the given folder.
+	 *
+	 * @return the number of exported frames.
+	 */
+	public static int export( final List< TrackedFrame > frames, final File folder, final int timeOffset ) throws IOException {
+		try ( StreamingExporter exporter = new StreamingExporter( folder, timeOffset ) ) {
+			for ( final TrackedFrame frame : frames ) {
+				exporter.write( frame );
+			}
+		}
+		return frames.size();
+	}
+
+	/**
+	 * Appends the given frame to the export.
+	 */
+	public synchronized void write( final TrackedFrame frame ) throws IOException {
+		final int t = frame.getTime() + timeOffset;
+
+		buffer.setLength( 0 );
+		for ( final TrackedFrame.Segment segment : frame.getSegments() ) {
+			buffer.append( t ).append( '\t' )
+					.append( segment.getId() ).append( '\t' )
+					.append( segment.getArea() ).append( '\t' )
+					.append( String.format( Locale.ROOT, "%.3f\t%.3f", segment.getX(), segment.getY() ) ).append( '\n' );
+		}
+		write( segments, buffer );
+
+		buffer.setLength( 0 );
+		for ( final TrackedFrame.Link link : frame.getLinks() ) {
+			buffer.append( t ).append( '\t' )
+					.append( link.getType().name() ).append( '\t' )
+					.append( link.getSource() ).append( '\t' )
+					.append( link.getTarget1() ).append( '\t' )
+					.append( link.getTarget2() ).append( '\n' );
+		}
+		write( links, buffer );
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			segments.close();
+		} finally {
+			links.close();
+		}
+	}
+
+	private static FileChannel open( final File file ) throws IOException {
+		return FileChannel.open( file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+	}
+
+	private static void write( final FileChannel channel, final CharSequence text ) throws IOException {
+		final ByteBuffer bytes = StandardCharsets.UTF_8.encode( text.toString() );
+		while ( bytes.hasRemaining() ) {
+			channel.write( bytes );
+		}
+	}
+}
@@ -0,0 +1,212 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.indago.tr2d.io.projectfolder.Tr2dProjectFolder;
+
+/**
+ * Creates tr2d projects inside a project folder, e.g. a temporary one per
+ * window of a long movie, or one per time window given by <code>-tmin</code>
+ * and <code>-tmax</code>. A sub-project starts with the settings of its
+ * parent project (all files except the raw data, image data, metrics and
+ * checkpoints written by earlier runs) and gets its raw data handed in
+ * directly instead of from a file.
+ */
+public class SubProjectFolders {
+
+	/**
+	 * Name of the folder (inside the parent project) that holds all
+	 * sub-projects.
+	 */
+	public static final String FOLDER_NAME = "subprojects";
+
+	/**
+	 * Name of the folder (inside a project) in which tr2d keeps the settings
+	 * of the segmentation plugins.
+	 */
+	public static final String SEGMENTATION_FOLDER_NAME = "segmentation";
+
+	/**
+	 * @return the folder the given (initialized) project lives in.
+	 */
+	public static File getBaseFolder( final Tr2dProjectFolder projectFolder ) {
+		return projectFolder.getFile( Tr2dProjectFolder.RAW_DATA ).getFile().getParentFile();
+	}
+
+	/**
+	 * @return the folder of the sub-project with the given name.
+	 */
+	public static File getFolder( final Tr2dProjectFolder parent, final String name ) {
+		return new File( new File( getBaseFolder( parent ), FOLDER_NAME ), name );
+	}
+
+	/**
+	 * Creates (or re-creates) the sub-project with the given name.
+	 *
+	 * @return the initialized sub-project.
+	 */
+	public static Tr2dProjectFolder create( final Tr2dProjectFolder parent, final String name ) throws IOException {
+		final Path source = getBaseFolder( parent ).toPath();
+		final Path rawData = parent.getFile( Tr2dProjectFolder.RAW_DATA ).getFile().toPath();
+		final Path target = getFolder( parent, name ).toPath();
+		delete( target.toFile() );
+		Files.createDirectories( target );
+
+		Files.walkFileTree( source, new SimpleFileVisitor< Path >() {
+
+			@Override
+			public FileVisitResult preVisitDirectory( final Path dir, final BasicFileAttributes attrs ) throws IOException {
+				if ( isGenerated( source, dir ) ) return FileVisitResult.SKIP_SUBTREE;
+				Files.createDirectories( target.resolve( source.relativize( dir ) ) );
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile( final Path file, final BasicFileAttributes attrs ) throws IOException {
+				if ( isSettingsFile( source, rawData, file ) )
+					Files.copy( file, target.resolve( source.relativize( file ) ), StandardCopyOption.REPLACE_EXISTING );
+				return FileVisitResult.CONTINUE;
+			}
+		} );
+
+		final Tr2dProjectFolder subProject = new Tr2dProjectFolder( target.toFile() );
+		subProject.initialize();
+		return subProject;
+	}
+
+	/**
+	 * Opens the sub-project with the given name, or creates it (see
+	 * {@link #create}) if it does not exist yet. Unlike the temporary
+	 * sub-projects of windows and tiles, such a sub-project is kept and
+	 * reused, e.g. for all runs on the same time window.
+	 *
+	 * @return the initialized sub-project.
+	 */
+	public static Tr2dProjectFolder open( final Tr2dProjectFolder parent, final String name ) throws IOException {
+		final File folder = getFolder( parent, name );
+		if ( !folder.isDirectory() ) return create( parent, name );
+		final Tr2dProjectFolder subProject = new Tr2dProjectFolder( folder );
+		subProject.initialize();
+		return subProject;
+	}
+
+	/**
+	 * @return all settings files of the given project (everything but the
+	 *         raw data, image data and generated folders), sorted by path.
+	 */
+	public static List< File > listSettingsFiles( final Tr2dProjectFolder projectFolder ) throws IOException {
+		return listSettingsFiles( projectFolder, getBaseFolder( projectFolder ).toPath() );
+	}
+
+	/**
+	 * @return the settings files of the segmentation plugins of the given
+	 *         project (see {@link #SEGMENTATION_FOLDER_NAME}), sorted by
+	 *         path; not the settings of tracking or anything else of the
+	 *         project.
+	 */
+	public static List< File > listSegmentationSettingsFiles( final Tr2dProjectFolder projectFolder ) throws IOException {
+		final Path folder = getBaseFolder( projectFolder ).toPath().resolve( SEGMENTATION_FOLDER_NAME );
+		if ( !Files.isDirectory( folder ) ) return new ArrayList<>();
+		return listSettingsFiles( projectFolder, folder );
+	}
+
+	private static List< File > listSettingsFiles( final Tr2dProjectFolder projectFolder, final Path start ) throws IOException {
+		final Path source = getBaseFolder( projectFolder ).toPath();
+		final Path rawData = projectFolder.getFile( Tr2dProjectFolder.RAW_DATA ).getFile().toPath();
+		final List< File > files = new ArrayList<>();
+		Files.walkFileTree( start, new SimpleFileVisitor< Path >() {
+
+			@Override
+			public FileVisitResult preVisitDirectory( final Path dir, final BasicFileAttributes attrs ) {
+				return isGenerated( source, dir ) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile( final Path file, final BasicFileAttributes attrs ) {
+				if ( isSettingsFile( source, rawData, file ) ) files.add( file.toFile() );
+				return FileVisitResult.CONTINUE;
+			}
+		} );
+		Collections.sort( files );
+		return files;
+	}
+
+	/**
+	 * @return true, iff the given folder holds data generated by this
+	 *         launcher (sub-projects, caches) and not project settings.
+	 */
+	private static boolean isGenerated( final Path projectBase, final Path dir ) {
+		return dir.equals( projectBase.resolve( FOLDER_NAME ) )
+				|| dir.equals( projectBase.resolve( SegmentationCache.FOLDER_NAME ) )
+				|| isChunkStore( projectBase, dir )
+				|| dir.equals( projectBase.resolve( CheckpointStore.FOLDER_NAME ) );
+	}
+
+	/**
+	 * @return true, iff the given file (outside of the generated folders) is
+	 *         part of the settings of the project: not the raw data, no image
+	 *         data and no file written by this launcher after a run.
+	 */
+	private static boolean isSettingsFile( final Path projectBase, final Path rawData, final Path file ) {
+		return !file.equals( rawData ) && !isImageData( file ) && !isGeneratedFile( projectBase, file );
+	}
+
+	/**
+	 * @return true, iff the given file is written by this launcher after each
+	 *         run (and must not change the settings of the project).
+	 */
+	private static boolean isGeneratedFile( final Path projectBase, final Path file ) {
+		final String name = file.getFileName().toString();
+		return file.getParent().equals( projectBase )
+				&& name.equals( Tr2dApplication.METRICS_FILENAME )
+				|| isChunkStore( projectBase, file );
+	}
+
+	/**
+	 * @return true, iff the given path is the chunk store of the project, or
+	 *         its lock file or a store being converted or replaced.
+	 */
+	private static boolean isChunkStore( final Path projectBase, final Path path ) {
+		return path.getParent().equals( projectBase ) && path.getFileName().toString().startsWith( ChunkedRawStore.FOLDER_NAME );
+	}
+
+	private static boolean isImageData( final Path file ) {
+		final String name = file.getFileName().toString().toLowerCase();
+		return name.endsWith( ".tif" ) || name.endsWith( ".tiff" );
+	}
+
+	/**
+	 * Deletes the given folder including all its content.
+	 */
+	public static void delete( final File folder ) throws IOException {
+		if ( !folder.exists() ) return;
+		Files.walkFileTree( folder.toPath(), new SimpleFileVisitor< Path >() {
+
+			@Override
+			public FileVisitResult visitFile( final Path file, final BasicFileAttributes attrs ) throws IOException {
+				Files.delete( file );
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory( final Path dir, final IOException e ) throws IOException {
+				if ( e != null ) throw e;
+				Files.delete( dir );
+				return FileVisitResult.CONTINUE;
+			}
+		} );
+	}
+}
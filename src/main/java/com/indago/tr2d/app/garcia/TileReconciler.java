@@ -0,0 +1,293 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Merges the tracking results of overlapping spatial tiles of the same
+ * movie into one result.
+ * <p>
+ * The cores of the tiles (see {@link #computeTiles(int, int, int, int)})
+ * partition each frame; every segment is kept by the tile whose core
+ * contains its center of mass, and dropped from all other tiles. Links are
+ * taken from the tile owning their source segment. Targets owned by another
+ * tile are replaced by the segment of the owning tile they match (by
+ * position and size, see {@link WindowStitcher#matchSegments(List, List)});
+ * movements to unmatched targets become disappearances, divisions with only
+ * one matched target movements. Kept segments that end up without an
+ * incoming link get an appearance.
+ */
+public class TileReconciler {
+
+	/**
+	 * A rectangular part of each frame (bounds inclusive), and the part of
+	 * it (its core) whose segments it owns.
+	 */
+	public static class Tile {
+
+		private final int x0, y0, x1, y1;
+		private final int coreX0, coreY0, coreX1, coreY1;
+
+		public Tile( final int x0, final int y0, final int x1, final int y1, final int coreX0, final int coreY0, final int coreX1, final int coreY1 ) {
+			this.x0 = x0;
+			this.y0 = y0;
+			this.x1 = x1;
+			this.y1 = y1;
+			this.coreX0 = coreX0;
+			this.coreY0 = coreY0;
+			this.coreX1 = coreX1;
+			this.coreY1 = coreY1;
+		}
+
+		public int getMinX() {
+			return x0;
+		}
+
+		public int getMinY() {
+			return y0;
+		}
+
+		public int getMaxX() {
+			return x1;
+		}
+
+		public int getMaxY() {
+			return y1;
+		}
+
+		/**
+		 * @return true, iff the given (frame) position lies in the core of
+		 *         this tile; positions are assigned to the pixel they fall
+		 *         into.
+		 */
+		public boolean coreContains( final double x, final double y ) {
+			final long px = Math.round( x );
+			final long py = Math.round( y );
+			return px >= coreX0 && px <= coreX1 && py >= coreY0 && py <= coreY1;
+		}
+
+		@Override
+		public String toString() {
+			return String.format( "[%d,%d]x[%d,%d]", x0, x1, y0, y1 );
+		}
+	}
+
+	private final List< Tile > tiles;
+
+	public TileReconciler( final List< Tile > tiles ) {
+		this.tiles = tiles;
+	}
+
+	/**
+	 * @return tiles of (at most) <code>tileSize</code> x <code>tileSize</code>
+	 *         pixels covering a frame, neighbours sharing <code>overlap</code>
+	 *         pixels. The core boundary lies in the middle of the overlap.
+	 */
+	public static List< Tile > computeTiles( final int width, final int height, final int tileSize, final int overlap ) {
+		final List< int[] > columns = SlidingWindowTracker.computeWindows( 0, width - 1, tileSize, overlap );
+		final List< int[] > rows = SlidingWindowTracker.computeWindows( 0, height - 1, tileSize, overlap );
+		final List< Tile > tiles = new ArrayList<>();
+		for ( int r = 0; r < rows.size(); r++ ) {
+			for ( int c = 0; c < columns.size(); c++ ) {
+				tiles.add( new Tile(
+						columns.get( c )[ 0 ],
+						rows.get( r )[ 0 ],
+						columns.get( c )[ 1 ],
+						rows.get( r )[ 1 ],
+						coreStart( columns, c, overlap ),
+						coreStart( rows, r, overlap ),
+						coreEnd( columns, c, overlap ),
+						coreEnd( rows, r, overlap ) ) );
+			}
+		}
+		return tiles;
+	}
+
+	private static int coreStart( final List< int[] > intervals, final int i, final int overlap ) {
+		return ( i == 0 ) ? intervals.get( i )[ 0 ] : intervals.get( i )[ 0 ] + overlap / 2;
+	}
+
+	private static int coreEnd( final List< int[] > intervals, final int i, final int overlap ) {
+		return ( i == intervals.size() - 1 ) ? intervals.get( i )[ 1 ] : intervals.get( i + 1 )[ 0 ] + overlap / 2 - 1;
+	}
+
+	/**
+	 * Merges the results of all tiles.
+	 *
+	 * @param tileFrames
+	 *            the result of each tile (in the order of the tiles given to
+	 *            the constructor), all covering the same time-points, with
+	 *            positions relative to the tile and ids local to the tile.
+	 * @param output
+	 *            receives the merged frames in order, with frame positions
+	 *            and ids unique over all tiles.
+	 */
+	public void reconcile( final List< List< TrackedFrame > > tileFrames, final TrackingSolutionReader.FrameHandler output ) throws IOException {
+		if ( tileFrames.size() != tiles.size() )
+			throw new IllegalArgumentException( String.format( "Expected results of %d tiles, got %d.", tiles.size(), tileFrames.size() ) );
+		final List< List< TrackedFrame > > global = toGlobal( tileFrames );
+		int numFrames = 0;
+		for ( final List< TrackedFrame > frames : global ) {
+			numFrames = Math.max( numFrames, frames.size() );
+		}
+
+		Set< Integer > hasIncoming = new HashSet<>();
+		Ownership current = numFrames > 0 ? new Ownership( global, 0 ) : null;
+		for ( int i = 0; i < numFrames; i++ ) {
+			final Ownership next = ( i + 1 < numFrames ) ? new Ownership( global, i + 1 ) : null;
+			final TrackedFrame merged = new TrackedFrame( current.time );
+			final Set< Integer > nextIncoming = new HashSet<>();
+
+			for ( int k = 0; k < global.size(); k++ ) {
+				final TrackedFrame frame = frameAt( global.get( k ), i );
+				if ( frame == null ) continue;
+				for ( final TrackedFrame.Segment segment : frame.getSegments() ) {
+					if ( current.isOwned( segment.getId() ) ) merged.addSegment( segment );
+				}
+				for ( final TrackedFrame.Link link : frame.getLinks() ) {
+					if ( link.getType() == TrackedFrame.LinkType.APPEARANCE ) continue;
+					if ( !current.isOwned( link.getSource() ) ) continue;
+					merged.addLink( resolve( link, next, nextIncoming ) );
+				}
+			}
+
+			// every kept segment needs exactly one incoming link
+			for ( final TrackedFrame.Segment segment : merged.getSegments() ) {
+				if ( hasIncoming.contains( segment.getId() ) ) continue;
+				if ( i > 0 || current.appears( segment.getId() ) )
+					merged.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.APPEARANCE, TrackedFrame.Link.NONE, segment.getId(), TrackedFrame.Link.NONE ) );
+			}
+
+			output.handle( merged );
+			hasIncoming = nextIncoming;
+			current = next;
+		}
+	}
+
+	/**
+	 * Replaces the targets of the given link by the segments owning them.
+	 * Targets that are unmatched, or already claimed by another link, are
+	 * dropped.
+	 */
+	private static TrackedFrame.Link resolve( final TrackedFrame.Link link, final Ownership next, final Set< Integer > claimed ) {
+		if ( link.getType() == TrackedFrame.LinkType.DISAPPEARANCE || next == null ) return link;
+		Integer t1 = next.owner( link.getTarget1() );
+		Integer t2 = ( link.getType() == TrackedFrame.LinkType.DIVISION ) ? next.owner( link.getTarget2() ) : null;
+		if ( t1 != null && !claimed.add( t1 ) ) t1 = null;
+		if ( t2 != null && !claimed.add( t2 ) ) t2 = null;
+		if ( t1 != null && t2 != null ) return new TrackedFrame.Link( TrackedFrame.LinkType.DIVISION, link.getSource(), t1, t2 );
+		if ( t1 != null || t2 != null )
+			return new TrackedFrame.Link( TrackedFrame.LinkType.MOVEMENT, link.getSource(), t1 != null ? t1 : t2, TrackedFrame.Link.NONE );
+		return new TrackedFrame.Link( TrackedFrame.LinkType.DISAPPEARANCE, link.getSource(), TrackedFrame.Link.NONE, TrackedFrame.Link.NONE );
+	}
+
+	/**
+	 * Which segments of one time-point are kept, and which kept segment each
+	 * dropped segment corresponds to.
+	 */
+	private class Ownership {
+
+		private final int time;
+		private final Set< Integer > owned = new HashSet<>();
+		private final Set< Integer > appearing = new HashSet<>();
+		private final Map< Integer, Integer > matches = new HashMap<>();
+
+		Ownership( final List< List< TrackedFrame > > global, final int index ) {
+			int t = -1;
+			final List< List< TrackedFrame.Segment > > ownedPerTile = new ArrayList<>();
+			final List< List< TrackedFrame.Segment > > droppedPerTile = new ArrayList<>();
+			for ( int k = 0; k < global.size(); k++ ) {
+				final List< TrackedFrame.Segment > ownedHere = new ArrayList<>();
+				final List< TrackedFrame.Segment > droppedHere = new ArrayList<>();
+				final TrackedFrame frame = frameAt( global.get( k ), index );
+				if ( frame != null ) {
+					t = frame.getTime();
+					for ( final TrackedFrame.Segment segment : frame.getSegments() ) {
+						if ( tiles.get( k ).coreContains( segment.getX(), segment.getY() ) ) {
+							ownedHere.add( segment );
+							owned.add( segment.getId() );
+						} else {
+							droppedHere.add( segment );
+						}
+					}
+					for ( final TrackedFrame.Link link : frame.getLinks() ) {
+						if ( link.getType() == TrackedFrame.LinkType.APPEARANCE ) appearing.add( link.getTarget1() );
+					}
+				}
+				ownedPerTile.add( ownedHere );
+				droppedPerTile.add( droppedHere );
+			}
+			this.time = t;
+
+			for ( int k = 0; k < global.size(); k++ ) {
+				if ( droppedPerTile.get( k ).isEmpty() ) continue;
+				final List< TrackedFrame.Segment > ownedElsewhere = new ArrayList<>();
+				for ( int j = 0; j < global.size(); j++ ) {
+					if ( j != k ) ownedElsewhere.addAll( ownedPerTile.get( j ) );
+				}
+				matches.putAll( WindowStitcher.matchSegments( droppedPerTile.get( k ), ownedElsewhere ) );
+			}
+		}
+
+		boolean isOwned( final int id ) {
+			return owned.contains( id );
+		}
+
+		boolean appears( final int id ) {
+			return appearing.contains( id );
+		}
+
+		/**
+		 * @return the kept segment corresponding to the given one, or
+		 *         <code>null</code> if there is none.
+		 */
+		Integer owner( final int id ) {
+			return owned.contains( id ) ? Integer.valueOf( id ) : matches.get( id );
+		}
+	}
+
+	/**
+	 * Shifts positions by the tile offsets and makes ids unique over all
+	 * tiles.
+	 */
+	private List< List< TrackedFrame > > toGlobal( final List< List< TrackedFrame > > tileFrames ) {
+		final List< List< TrackedFrame > > global = new ArrayList<>();
+		int idOffset = 0;
+		for ( int k = 0; k < tileFrames.size(); k++ ) {
+			final Tile tile = tiles.get( k );
+			int maxId = -1;
+			final List< TrackedFrame > frames = new ArrayList<>();
+			for ( final TrackedFrame frame : tileFrames.get( k ) ) {
+				final TrackedFrame shifted = new TrackedFrame( frame.getTime() );
+				for ( final TrackedFrame.Segment s : frame.getSegments() ) {
+					shifted.addSegment( new TrackedFrame.Segment( idOffset + s.getId(), s.getArea(), tile.x0 + s.getX(), tile.y0 + s.getY() ) );
+					maxId = Math.max( maxId, s.getId() );
+				}
+				for ( final TrackedFrame.Link l : frame.getLinks() ) {
+					shifted.addLink( new TrackedFrame.Link( l.getType(), global( idOffset, l.getSource() ), global( idOffset, l.getTarget1() ), global( idOffset, l.getTarget2() ) ) );
+					maxId = Math.max( maxId, Math.max( l.getSource(), Math.max( l.getTarget1(), l.getTarget2() ) ) );
+				}
+				frames.add( shifted );
+			}
+			global.add( frames );
+			idOffset += maxId + 1;
+		}
+		return global;
+	}
+
+	private static int global( final int idOffset, final int localId ) {
+		return ( localId == TrackedFrame.Link.NONE ) ? TrackedFrame.Link.NONE : idOffset + localId;
+	}
+
+	private static TrackedFrame frameAt( final List< TrackedFrame > frames, final int index ) {
+		return ( index < frames.size() ) ? frames.get( index ) : null;
+	}
+}
@@ -7,11 +7,20 @@ import java.awt.Image;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 
 import org.apache.commons.cli.BasicParser;
@@ -23,13 +32,10 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.scijava.Context;
 import org.scijava.app.StatusService;
-import org.scijava.io.IOService;
 import org.scijava.log.LogService;
 import org.scijava.log.Logger;
-import org.scijava.widget.WidgetService;
 
 import com.apple.eawt.Application;
-import com.indago.gurobi.GurobiInstaller;
 import com.indago.plugins.seg.IndagoSegmentationPluginService;
 import com.indago.tr2d.Tr2dContext;
 import com.indago.tr2d.io.projectfolder.Tr2dProjectFolder;
@@ -42,24 +48,10 @@ import com.indago.util.OSValidator;
 import ij.IJ;
 import ij.ImageJ;
 import ij.ImagePlus;
-import io.scif.codec.CodecService;
-import io.scif.formats.qt.QTJavaService;
-import io.scif.formats.tiff.TiffService;
-import io.scif.img.ImgUtilityService;
-import io.scif.img.converters.PlaneConverterService;
-import io.scif.services.DatasetIOService;
-import io.scif.services.FilePatternService;
-import io.scif.services.FormatService;
-import io.scif.services.InitializeService;
-import io.scif.services.JAIIIOService;
-import io.scif.services.LocationService;
-import io.scif.services.TranslatorService;
-import io.scif.xml.XMLService;
-import net.imagej.DatasetService;
 import net.imagej.ImgPlus;
-import net.imagej.ops.OpMatchingService;
 import net.imagej.ops.OpService;
-import net.imglib2.img.VirtualStackAdapter;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.display.imagej.ImageJFunctions;
 import weka.gui.ExtensionFileFilter;
 
 /**
@@ -69,13 +61,27 @@ import weka.gui.ExtensionFileFilter;
  */
 public class Tr2dApplication {
 
+	public static final String TIME_WINDOW_FILENAME = "time_window.properties";
+
+	/**
+	 * Per-stage metrics of the last run (see {@link StageTimer#writeTsv(File)}),
+	 * written to the export folder, or the project folder if there is none.
+	 */
+	public static final String METRICS_FILENAME = "tr2d_metrics.tsv";
+
 	/**
 	 * true, iff this app is not started by the imagej2/fiji plugin (tr2d_)
 	 */
 	private final boolean isStandalone;
 
+	/**
+	 * true, iff no Swing frame or dialog must be created (batch mode)
+	 */
+	private final boolean isHeadless;
+
 	private JFrame guiFrame;
 	private Tr2dMainPanel mainPanel;
+	private volatile Tr2dModel model;
 
 	private File inputStack;
 	private Tr2dProjectFolder projectFolder;
@@ -84,30 +90,156 @@ public class Tr2dApplication {
 	private int minTime = 0;
 	private int maxTime = Integer.MAX_VALUE;
 
+	/**
+	 * The last time-point within the raw data, i.e. 'maxTime' clipped to the
+	 * length of the stack (see {@link #checkTimeRange()}).
+	 */
+	private int lastTime = Integer.MAX_VALUE;
+
+	/**
+	 * true, iff only a part of the time-points of the raw data is processed
+	 * (see {@link #openModelFolder()}).
+	 */
+	private boolean timeWindow = false;
+
 	private boolean autoRun = false;
 
+	/**
+	 * If &gt; 0, tracking is done in overlapping windows of this many
+	 * time-points (see {@link SlidingWindowTracker}).
+	 */
+	private int windowSize = 0;
+	private int windowOverlap = SlidingWindowTracker.DEFAULT_OVERLAP;
+
+	/**
+	 * If &gt; 0, tracking is done in overlapping spatial tiles of this many
+	 * pixels (see {@link SpatialTileTracker}).
+	 */
+	private int tileSize = 0;
+	private int tileOverlap = SpatialTileTracker.DEFAULT_OVERLAP;
+	private int tileThreads = Runtime.getRuntime().availableProcessors();
+
+	private boolean streamExport = false;
+	private boolean exportSchnitzcell = true;
+	private boolean exportBinary = false;
+	private boolean exportLabels = false;
+
+	/**
+	 * Tracking backend: {@link TrackingSolver#GUROBI}, or
+	 * {@link TrackingSolver#JAVA} if requested explicitly.
+	 */
+	private String solverBackend = TrackingSolver.GUROBI;
+	private final GreedyTracker greedyTracker = new GreedyTracker();
+
+	/**
+	 * If true, finished parts of the run are checkpointed in the project
+	 * folder and restored from there (see {@link CheckpointStore}).
+	 */
+	private boolean resume = false;
+
+	/**
+	 * The solution of an auto-run with a solver that does not store it in the
+	 * tr2d tracking model.
+	 */
+	private volatile List< TrackedFrame > detachedSolution = null;
+
+	/**
+	 * If &gt; 0, segmentation runs frame-parallel on this many threads (see
+	 * {@link ParallelSegmentationStage}).
+	 */
+	private int segmentationThreads = 0;
+	private int segmentationChunkSize = ParallelSegmentationStage.DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * If &gt; 0, segmentation hypotheses are cached in the project folder, up
+	 * to this many bytes (see {@link SegmentationCache}); &lt; 0 if not given.
+	 */
+	private long segmentationCacheBytes = -1;
+
+	/**
+	 * If set, the java solver tracks the segmentation of this Weka classifier
+	 * (see {@link WekaBatchSegmenter}).
+	 */
+	private File wekaClassifier = null;
+	private int wekaBatchSize = WekaBatchSegmenter.DEFAULT_BATCH_SIZE;
+	private int wekaClass = 0;
+
+	/**
+	 * If &gt; 0, caches, parallelism and windows are sized to fit this many
+	 * heap bytes (see {@link MemoryBudget}).
+	 */
+	private long memoryBudgetBytes = 0;
+	private MemoryBudget memoryBudget = null;
+	private Map< String, Long > memoryEstimates = null;
+
+	/**
+	 * Raw data already in memory (see {@link #setInput(ImgPlus, File)}), used
+	 * instead of loading 'inputStack'.
+	 */
+	private ImgPlus< ? > inputImgPlus = null;
+
+	private boolean lazyLoading = false;
+	private boolean memoryMapped = false;
+	private boolean chunkedRawData = false;
+	private int maxCachedPlanes = ImageStackLoader.DEFAULT_CACHED_PLANES;
+
 	private final OpService ops;
 	private final IndagoSegmentationPluginService segPlugins;
 
 	private final Logger log;
 
+	private final StageTimer timer = new StageTimer();
+
+	private final GurobiAvailabilityCache gurobiCache = new GurobiAvailabilityCache();
+	private Future< Boolean > gurobiCheck;
+	private File timingsFile;
+
 	public static void main( final String[] args ) {
-		new Tr2dApplication().run(args);
+		final boolean headless = hasFlag( args, "-headless" );
+		if ( headless ) System.setProperty( "java.awt.headless", "true" );
+		// '-faststart' without '-headless' is rejected when the arguments are parsed
+		new Tr2dApplication( headless, headless && hasFlag( args, "-faststart" ) ).run( args );
+	}
+
+	/**
+	 * Flags that influence how the app itself is constructed have to be known
+	 * before the command line arguments are parsed.
+	 *
+	 * @return true, iff the given command line arguments contain the given
+	 *         flag.
+	 */
+	public static boolean hasFlag( final String[] args, final String flag ) {
+		if ( args == null ) return false;
+		for ( final String arg : args ) {
+			if ( flag.equals( arg ) ) return true;
+		}
+		return false;
 	}
 
 	public Tr2dApplication() {
+		this( false, false );
+	}
+
+	/**
+	 * @param headless
+	 *            if true, no AWT/Swing component (not even the ImageJ1 main
+	 *            window) will be created.
+	 * @param fastStart
+	 *            if true, only the SciJava services headless runs need are
+	 *            instantiated (see {@link Tr2dContexts#createFastStartContext()});
+	 *            ignored unless <code>headless</code> is true.
+	 */
+	public Tr2dApplication( final boolean headless, final boolean fastStart ) {
 		isStandalone = true;
-		final ImageJ temp = IJ.getInstance();
-		if ( temp == null ) {
+		isHeadless = headless;
+		if ( !isHeadless && IJ.getInstance() == null ) {
+			timer.start( "imagej1" );
 			new ImageJ();
 		}
 
-		final Context context = new Context( FormatService.class, OpService.class, OpMatchingService.class,
-				IOService.class, DatasetIOService.class, LocationService.class, DatasetService.class,
-				ImgUtilityService.class, StatusService.class, TranslatorService.class, QTJavaService.class,
-				TiffService.class, CodecService.class, JAIIIOService.class, LogService.class,
-				IndagoSegmentationPluginService.class, PlaneConverterService.class, InitializeService.class,
-				XMLService.class, FilePatternService.class, WidgetService.class);
+		timer.start( ( fastStart && headless ) ? "context (fast start)" : "context" );
+		final Context context = Tr2dContexts.create( fastStart && headless );
+		timer.stop();
 		ops = context.getService( OpService.class );
 		segPlugins = context.getService( IndagoSegmentationPluginService.class );
 		log = context.getService( LogService.class );
@@ -117,6 +249,7 @@ public class Tr2dApplication {
 	public Tr2dApplication( final OpService opService, final IndagoSegmentationPluginService tr2dSegmentationPluginService, final Logger log )
 	{
 		isStandalone = false;
+		isHeadless = false;
 		if(tr2dSegmentationPluginService == null)
 			log.error( "Tr2dPlugin failed to set the Tr2dSegmentationPluginService!" );
 		ops = opService;
@@ -125,6 +258,37 @@ public class Tr2dApplication {
 		log.info( "PLUGIN" );
 	}
 
+	/**
+	 * Lets tr2d work on an image that is already in memory (e.g. opened in
+	 * Fiji) instead of loading the raw data from disk; the image is used
+	 * as is, without copying it. Only the project folder is asked for: an
+	 * existing project is opened on the image, a new project is initialized
+	 * from the given source file (or, if there is none, the image is saved
+	 * into the project as its raw data).
+	 *
+	 * @param imgPlus
+	 *            the raw data (x,y,t).
+	 * @param source
+	 *            the TIFF file the image was read from, can be
+	 *            <code>null</code>.
+	 */
+	public Tr2dApplication setInput( final ImgPlus< ? > imgPlus, final File source ) {
+		if ( imgPlus.numDimensions() != 3 )
+			throw new IllegalArgumentException( "tr2d needs a 2D time series (x,y,t), not " + imgPlus.numDimensions() + " dimensions." );
+		this.inputImgPlus = imgPlus;
+		this.inputStack = source;
+		return this;
+	}
+
+	/**
+	 * Skips the Gurobi check, e.g. because the host already verified that
+	 * Gurobi works.
+	 */
+	public Tr2dApplication setGurobiAvailable() {
+		gurobiCheck = CompletableFuture.completedFuture( true );
+		return this;
+	}
+
 	public void run( final String[] args ) {
 
 		System.setProperty( "apple.laf.useScreenMenuBar", "true" );
@@ -132,8 +296,17 @@ public class Tr2dApplication {
 		// GET THE APP SPECIFIC LOGGER
 		// ---------------------------
 
-		checkGurobiAvailability();
+		// the Gurobi check runs concurrently to argument parsing and stack loading
+		if ( hasFlag( args, "-recheckgurobi" ) ) gurobiCache.invalidate();
+		if ( gurobiCheck == null || hasFlag( args, "-recheckgurobi" ) ) gurobiCheck = gurobiCache.checkInBackground();
+		timer.start( "argument parsing" );
 		parseCommandLineArgs( args );
+		timer.stop();
+
+		if ( isHeadless ) {
+			runHeadless();
+			return;
+		}
 
 		guiFrame = new JFrame( "tr2d" );
 		if ( isStandalone ) setImageAppIcon();
@@ -144,31 +317,258 @@ public class Tr2dApplication {
 		Tr2dContext.ops = ops;
 		Tr2dContext.guiFrame = guiFrame;
 
-		if(projectFolder == null || inputStack == null)
+		if ( inputImgPlus != null && projectFolder == null ) {
+			if ( !prepareInputImageUserInteraction() ) {
+				guiFrame.dispose();
+				return;
+			}
+		} else if(projectFolder == null || inputStack == null)
 			openStackOrProjectUserInteraction();
 
-		final ImgPlus imgPlus = openImageStack();
+		if ( inputStack == null ) {
+			guiFrame.dispose();
+			if ( isStandalone ) System.exit( 0 );
+			return;
+		}
+		if ( !checkTimeRange() ) return;
 
-		if ( imgPlus != null ) {
-			final Tr2dModel model = new Tr2dModel( projectFolder, imgPlus );
-			mainPanel = new Tr2dMainPanel( guiFrame, model );
+		applyMemoryBudget();
 
-			guiFrame.getContentPane().add( mainPanel );
-			setFrameSizeAndCloseOperation( model );
-			guiFrame.setVisible( true );
-			mainPanel.collapseLog();
+		// the window shows up right away, the project is opened in the background
+		final LoadingPanel loadingPanel = new LoadingPanel( inputStack.getName() );
+		guiFrame.getContentPane().add( loadingPanel );
+		setFrameSizeAndCloseOperation();
+		guiFrame.setVisible( true );
+		final Thread opening = new Thread( () -> openProject( loadingPanel ), "tr2d project opening" );
+		opening.start();
+	}
 
-			if ( autoRun ) {
-				mainPanel.selectTab( mainPanel.getTabTracking() );
-				model.getTrackingModel().runInThread( false );
+	/**
+	 * Loads the raw data and builds the model (called in a background
+	 * thread), then replaces the given loading panel by the tr2d main panel.
+	 * Progress is shown in the loading panel and through the SciJava status
+	 * service. If the project cannot be opened, the error is shown and the
+	 * window is closed.
+	 */
+	private void openProject( final LoadingPanel loadingPanel ) {
+		final StatusService status = ops.getContext().getService( StatusService.class );
+		try {
+			timer.start( "stack loading" );
+			loadingPanel.setStep( "Loading raw data..." );
+			final ImgPlus imgPlus = ( inputImgPlus != null ) ? inputImgPlus : openImageStack( ( done, total ) -> {
+				loadingPanel.setProgress( done, total );
+				if ( status != null ) status.showStatus( done, total, "Loading frame " + done + "/" + total );
+			} );
+
+			if ( imgPlus != null ) {
+				final TrackingSolver solver = createSolver();
+				if ( !( solver instanceof GurobiTrackingSolver ) )
+					log.warn( "Gurobi is not used; the interactive tracking tab will not work without it." );
+
+				timer.start( "model construction" );
+				loadingPanel.setStep( "Building model..." );
+				if ( status != null ) status.showStatus( "Building tr2d model..." );
+				model = new Tr2dModel( openModelFolder(), imgPlus );
+
+				SwingUtilities.invokeLater( () -> {
+					try {
+						timer.start( "gui construction" );
+						mainPanel = new Tr2dMainPanel( guiFrame, model );
+						guiFrame.getContentPane().remove( loadingPanel );
+						guiFrame.getContentPane().add( mainPanel );
+						guiFrame.revalidate();
+						guiFrame.repaint();
+						mainPanel.collapseLog();
+						timer.stop();
+						if ( status != null ) status.clearStatus();
+						reportTimings();
+						if ( autoRun ) startAutoRun( solver );
+					} catch ( final RuntimeException | Error e ) {
+						openingFailed( e, status );
+					}
+				} );
+			} else {
+				SwingUtilities.invokeLater( () -> {
+					guiFrame.dispose();
+					if ( isStandalone ) System.exit( 0 );
+				} );
 			}
+		} catch ( final IOException | RuntimeException | Error e ) {
+			SwingUtilities.invokeLater( () -> openingFailed( e, status ) );
+		}
+	}
+
+	/**
+	 * Reports a project that could not be opened and closes the window
+	 * (called on the EDT).
+	 */
+	private void openingFailed( final Throwable error, final StatusService status ) {
+		timer.stop();
+		if ( status != null ) status.clearStatus();
+		log.error( "Could not open project: " + error );
+		error.printStackTrace();
+		if ( model != null ) model.close();
+		JOptionPane.showMessageDialog(
+				guiFrame,
+				"The project could not be opened:\n" + error,
+				"Error",
+				JOptionPane.ERROR_MESSAGE );
+		quit( 17 );
+	}
+
+	/**
+	 * Starts segmentation and tracking of the opened project ('-run').
+	 */
+	private void startAutoRun( final TrackingSolver solver ) {
+		mainPanel.selectTab( mainPanel.getTabTracking() );
+		if ( resume && solver instanceof GurobiTrackingSolver )
+			log.warn( "With the gurobi solver, '-resume' does not checkpoint anything in the tr2d window." );
+		Thread tracking = null;
+		if ( !( solver instanceof GurobiTrackingSolver ) ) {
+			trackDetached( solver );
 		} else {
-			guiFrame.dispose();
-			if ( isStandalone ) System.exit( 0 );
+			tracking = model.getTrackingModel().runInThread( false );
+		}
+		if ( solver instanceof GurobiTrackingSolver && streamExport && exportFolder != null ) exportWhenTracked( model, tracking );
+	}
+
+	/**
+	 * Runs segmentation, tracking and export without touching AWT/Swing (see
+	 * {@link Tr2dHeadlessApplication}) and exits with the resulting status
+	 * code.
+	 */
+	private void runHeadless() {
+		Tr2dContext.segPlugins = segPlugins;
+		Tr2dContext.ops = ops;
+		Tr2dContext.guiFrame = null;
+
+		if ( projectFolder == null || inputStack == null )
+			showErrorAndExit( 9, "Headless mode requires a project folder (-p)!" );
+		checkTimeRange();
+
+		// may switch to windows if the whole movie does not fit
+		applyMemoryBudget();
+
+		final int status = new Tr2dHeadlessApplication( this, log, timer )
+				.setWindows( windowSize, windowOverlap )
+				.setTiles( tileSize, tileOverlap, tileThreads )
+				.setExportFormats( streamExport, exportSchnitzcell, exportBinary, exportLabels )
+				.setResume( resume )
+				.run( projectFolder, inputStack, minTime, maxTime, exportFolder );
+		quit( status );
+	}
+
+	/**
+	 * Sizes plane caches, segmentation parallelism, Weka batches and (in
+	 * headless mode) tracking windows from '-membudget' (see
+	 * {@link MemoryBudget}). Settings that fit the budget are left alone.
+	 */
+	private void applyMemoryBudget() {
+		if ( memoryBudgetBytes <= 0 ) return;
+		memoryBudget = MemoryBudget.forStack( memoryBudgetBytes, inputStack, minTime, maxTime );
+		if ( memoryBudget == null ) {
+			log.warn( "Could not read the header of the input stack... memory budget ignored." );
+			return;
 		}
+
+		if ( !memoryBudget.fitsRawData() ) {
+			lazyLoading = true;
+			maxCachedPlanes = memoryBudget.getCachedPlanes( maxCachedPlanes );
+			log.info( String.format( "Raw data (%d MB) exceeds its share of the memory budget... reading it lazily, caching %d planes.",
+					memoryBudget.getRawBytes() >> 20, maxCachedPlanes ) );
+			// the chunk store writes into the project folder, so only use it if asked to
+			if ( !memoryMapped && !chunkedRawData )
+				log.warn( "Reading planes lazily from the input stack can be slow; consider -mmap or -chunks (which writes 'raw_chunks/' into the project folder)." );
+		}
+		if ( segmentationThreads > 0 ) {
+			segmentationChunkSize = memoryBudget.getSegmentationChunkSize( segmentationChunkSize );
+			segmentationThreads = memoryBudget.getSegmentationThreads( segmentationThreads, segmentationChunkSize );
+			log.info( String.format( "Memory budget: segmentation on %d threads in chunks of %d frames.", segmentationThreads, segmentationChunkSize ) );
+		}
+		if ( wekaClassifier != null ) wekaBatchSize = memoryBudget.getWekaBatchSize( wekaBatchSize );
+
+		final int budgetWindowSize = memoryBudget.getWindowSize();
+		if ( budgetWindowSize > 0 && windowSize == 0 && tileSize == 0 ) {
+			if ( isHeadless ) {
+				windowSize = budgetWindowSize;
+				windowOverlap = Math.min( windowOverlap, windowSize / 2 );
+				log.info( String.format( "Memory budget: tracking in windows of %d time-points.", windowSize ) );
+			} else {
+				log.warn( "The whole movie does not fit into the memory budget; the tr2d window needs all of it (headless runs switch to windows)." );
+			}
+		}
+		if ( memoryBudget.isTooSmall() )
+			log.warn( String.format( "Even %d time-points exceed the memory budget... consider tiled tracking (-tiles).", MemoryBudget.MIN_WINDOW_SIZE ) );
+
+		memoryEstimates = memoryBudget.estimate(
+				windowSize,
+				lazyLoading ? maxCachedPlanes : 0,
+				( segmentationThreads > 0 ) ? segmentationThreads * segmentationChunkSize : 1 );
 	}
 
-	private void setFrameSizeAndCloseOperation( final Tr2dModel model ) {
+	/**
+	 * @return what the java solver tracks: the Weka segmentation requested by
+	 *         '-wekamodel', the parallel segmentation stage requested by
+	 *         '-segthreads' and/or '-segcache', or the segmentation
+	 *         hypotheses of the project as they are.
+	 */
+	private GreedyTrackingSolver.HypothesesSource createHypothesesSource() {
+		if ( wekaClassifier != null ) {
+			if ( segmentationCacheBytes > 0 ) log.warn( "The segmentation cache ('-segcache') is not used for the Weka classifier given by '-wekamodel'." );
+			return createWekaSegmenter();
+		}
+		final ParallelSegmentationStage stage = createSegmentationStage();
+		return ( stage != null ) ? stage : GreedyTrackingSolver::getHypotheses;
+	}
+
+	/**
+	 * @return the parallel segmentation stage requested by '-segthreads'
+	 *         and/or '-segcache' (by default on with '-resume'), or
+	 *         <code>null</code> if segmentation should run as usual.
+	 */
+	private ParallelSegmentationStage createSegmentationStage() {
+		// finished segmentation frames are checkpointed by the cache
+		final long cacheBytes = ( segmentationCacheBytes < 0 && resume ) ? SegmentationCache.DEFAULT_MAX_BYTES : segmentationCacheBytes;
+		if ( segmentationThreads < 1 && cacheBytes <= 0 ) return null;
+		final StatusService status = ops.getContext().getService( StatusService.class );
+		final ParallelSegmentationStage stage = new ParallelSegmentationStage( log, status, Math.max( 1, segmentationThreads ), segmentationChunkSize );
+		if ( cacheBytes > 0 ) {
+			try {
+				final File cacheFolder = new File( SubProjectFolders.getBaseFolder( projectFolder ), SegmentationCache.FOLDER_NAME );
+				stage.setCache(
+						new SegmentationCache( cacheFolder, cacheBytes ),
+						SegmentationCache.hashFiles( SubProjectFolders.listSegmentationSettingsFiles( projectFolder ) ) );
+			} catch ( final IOException e ) {
+				log.warn( "Segmentation cache disabled: " + e.getMessage() );
+			}
+		}
+		return stage;
+	}
+
+	/**
+	 * Logs the measured timings and metrics and writes them to the export
+	 * (or project) folder and to the file given by '-timings' (if any).
+	 */
+	void reportTimings() {
+		log.info( timer.report() );
+		if ( memoryEstimates != null ) log.info( memoryBudget.report( memoryEstimates, timer.getStages() ) );
+		final File metricsFolder = ( exportFolder != null ) ? exportFolder : SubProjectFolders.getBaseFolder( projectFolder );
+		final File metricsFile = new File( metricsFolder, METRICS_FILENAME );
+		try {
+			timer.writeTsv( metricsFile );
+		} catch ( final IOException e ) {
+			log.warn( "Could not write metrics to " + metricsFile.getAbsolutePath() + ": " + e.getMessage() );
+		}
+		if ( timingsFile != null ) {
+			try {
+				timer.writeTsv( timingsFile );
+			} catch ( final IOException e ) {
+				log.warn( "Could not write timings to " + timingsFile.getAbsolutePath() + ": " + e.getMessage() );
+			}
+		}
+	}
+
+	private void setFrameSizeAndCloseOperation() {
 		try {
 			FrameProperties.load( projectFolder.getFile( Tr2dProjectFolder.FRAME_PROPERTIES ).getFile(), guiFrame );
 		} catch ( final IOException e ) {
@@ -192,9 +592,11 @@ public class Tr2dApplication {
 						options,
 						options[ 0 ] );
 				if ( choice == 0 ) {
-					runOptionalExport();
-
-					model.close();
+					// the project might still be opening
+					if ( model != null ) {
+						runOptionalExport();
+						model.close();
+					}
 					try {
 						FrameProperties.save( projectFolder.getFile( Tr2dProjectFolder.FRAME_PROPERTIES ).getFile(), guiFrame );
 					} catch ( final Exception e ) {
@@ -207,9 +609,141 @@ public class Tr2dApplication {
 		} );
 	}
 
+	/**
+	 * Runs the given solver in a background thread. Its solution does not end
+	 * up in the tracking model, so it is written as tsv export right away (if
+	 * an export folder is set).
+	 */
+	private void trackDetached( final TrackingSolver solver ) {
+		final CheckpointStore checkpoints = createCheckpointStore( solver );
+		final Thread tracking = new Thread( () -> {
+			try {
+				final List< TrackedFrame > checkpoint = ( checkpoints != null ) ? checkpoints.load( Tr2dHeadlessRunner.CHECKPOINT_NAME ) : null;
+				if ( checkpoint != null ) {
+					log.info( "Tracking solution restored from checkpoint." );
+					detachedSolution = checkpoint;
+				} else {
+					log.info( "Running tracking (" + solver.getName() + ")..." );
+					detachedSolution = solver.solve( model );
+					saveCheckpoint( checkpoints, detachedSolution );
+				}
+				if ( exportFolder != null ) {
+					GreedyTrackingSolver.writeExportLabel( exportFolder );
+					final int numFrames = StreamingExporter.export( detachedSolution, exportFolder, minTime );
+					log.info( String.format( "Streamed %d frames to %s", numFrames, exportFolder.getAbsolutePath() ) );
+				}
+				clearCheckpoints();
+			} catch ( final InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			} catch ( final IOException e ) {
+				log.error( "Streaming export failed: " + e.getMessage() );
+			}
+		}, "tr2d segmentation and tracking" );
+		tracking.setDaemon( true );
+		tracking.start();
+	}
+
+	/**
+	 * Waits (in a background thread) for the given tracking thread and
+	 * exports its results right away instead of only when tr2d is closed.
+	 */
+	private void exportWhenTracked( final Tr2dModel model, final Thread tracking ) {
+		final Thread exporter = new Thread( () -> {
+			try {
+				tracking.join();
+				final int numFrames = StreamingExporter.export( model.getTrackingModel(), exportFolder, minTime );
+				log.info( String.format( "Streamed %d frames to %s", numFrames, exportFolder.getAbsolutePath() ) );
+				SwingUtilities.invokeLater( this::runOptionalExport );
+			} catch ( final InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			} catch ( final IOException e ) {
+				log.error( "Streaming export failed: " + e.getMessage() );
+			}
+		}, "tr2d streaming export" );
+		exporter.setDaemon( true );
+		exporter.start();
+	}
+
 	private void runOptionalExport() {
-		if( exportFolder != null )
-			mainPanel.getTabExport().schnitzcellExport( exportFolder );
+		if ( exportFolder != null && detachedSolution != null ) {
+			if ( exportSchnitzcell )
+				log.error( "No schnitzcell export: tr2d writes it from its tracking model, which does not hold the solution of the java solver." );
+			if ( exportBinary ) {
+				try {
+					new BinaryExportWriter( minTime ).write( detachedSolution, exportFolder );
+				} catch ( final IOException e ) {
+					log.error( "Binary export failed: " + e.getMessage() );
+				}
+			}
+			writeTimeWindow( exportFolder );
+		} else if( exportFolder != null ) {
+			if ( exportSchnitzcell )
+				mainPanel.getTabExport().schnitzcellExport( exportFolder );
+			if ( exportBinary ) {
+				try {
+					BinaryExporter.export( model.getTrackingModel(), exportFolder, minTime, exportLabels ? model.getRawData() : null );
+				} catch ( final IOException e ) {
+					log.error( "Binary export failed: " + e.getMessage() );
+				}
+			}
+			writeTimeWindow( exportFolder );
+		}
+	}
+
+	/**
+	 * Clips 'tmax' to the length of the raw data (see 'lastTime') and quits
+	 * if 'tmin' lies beyond it.
+	 *
+	 * @return false, iff the time range is empty.
+	 */
+	private boolean checkTimeRange() {
+		final int numPlanes = ( inputImgPlus != null )
+				? ( int ) inputImgPlus.dimension( inputImgPlus.numDimensions() - 1 )
+				: ImageStackLoader.countPlanes( inputStack );
+		// the open image given by setInput() is never cropped
+		timeWindow = ( inputImgPlus == null ) && ( minTime > 0 || maxTime < Integer.MAX_VALUE );
+		if ( numPlanes < 0 ) return true; // reported when the stack is loaded
+		if ( minTime >= numPlanes ) {
+			showErrorAndExit( 16, "Argument 'tmin' (%d) is out of range, the input stack has only %d time-points (0-%d)!", minTime, numPlanes, numPlanes - 1 );
+			return false;
+		}
+		lastTime = Math.min( maxTime, numPlanes - 1 );
+		timeWindow = ( inputImgPlus == null ) && ( minTime > 0 || lastTime < numPlanes - 1 );
+		return true;
+	}
+
+	/**
+	 * tr2d saves the state of a model (e.g. edited segments and tracking
+	 * constraints) by frame index of the loaded raw data. A model of a time
+	 * window therefore lives in a sub-project of its own, named after the
+	 * window and kept for later runs on the same window (see
+	 * {@link SubProjectFolders#open}), and never in the project of the
+	 * whole movie.
+	 *
+	 * @return the project folder to build the model in.
+	 */
+	Tr2dProjectFolder openModelFolder() throws IOException {
+		if ( !timeWindow ) return projectFolder;
+		final String name = String.format( "time_%06d_%06d", minTime, Math.min( maxTime, lastTime ) );
+		log.info( "Only time-points " + minTime + " to " + Math.min( maxTime, lastTime ) + " are processed... using sub-project " + name + "." );
+		return SubProjectFolders.open( projectFolder, name );
+	}
+
+	/**
+	 * If only a time window of the raw data was processed, all exported
+	 * time-points are relative to 'tmin'. We leave a note about the window
+	 * next to the exported results so that they can be mapped back.
+	 */
+	void writeTimeWindow( final File folder ) {
+		if ( minTime == 0 && maxTime == Integer.MAX_VALUE ) return;
+		final Properties window = new Properties();
+		window.setProperty( "tmin", Integer.toString( minTime ) );
+		window.setProperty( "tmax", Integer.toString( lastTime ) );
+		try ( OutputStream out = new FileOutputStream( new File( folder, TIME_WINDOW_FILENAME ) ) ) {
+			window.store( out, "time window of the raw data processed by tr2d" );
+		} catch ( final IOException e ) {
+			log.warn( "Could not write time window to export folder: " + e.getMessage() );
+		}
 	}
 
 	/**
@@ -249,21 +783,47 @@ public class Tr2dApplication {
 		UniversalFileChooser.showOptionPaneWithTitleOnMac = false;
 	}
 
+	/**
+	 * Asks for the project folder of the image given by
+	 * {@link #setInput(ImgPlus, File)}: a new project (into which the image is
+	 * saved as raw data if it has no source file) or an existing project that
+	 * is then opened on the image.
+	 *
+	 * @return false, iff the image could not be saved.
+	 */
+	private boolean prepareInputImageUserInteraction() {
+		Boolean validSelection = false;
+		while ( !validSelection ) {
+			validSelection = chooseProjectFolderUserInteraction( true );
+			if ( validSelection == null ) return false;
+		}
+		return true;
+	}
+
 	private void openStackUserInteraction()
 	{
 		chooseStackUserInteraction();
 
 		boolean validSelection = false;
 		while ( !validSelection ) {
-			validSelection = chooseProjectFolderUserInteraction();
+			validSelection = chooseProjectFolderUserInteraction( false );
 		}
 	}
 
-	private boolean chooseProjectFolderUserInteraction() {
+	/**
+	 * @param forInputImage
+	 *            the raw data is the image given by
+	 *            {@link #setInput(ImgPlus, File)}: an existing project can
+	 *            also be opened on it.
+	 * @return true, iff a project folder was set up; false, iff another folder
+	 *         has to be chosen; <code>null</code>, iff the raw data could not
+	 *         be written.
+	 */
+	private Boolean chooseProjectFolderUserInteraction( final boolean forInputImage ) {
 		// Ask for folder...
 		final File fileProjectFolder = UniversalFileChooser.showLoadFolderChooser(
 				guiFrame,
-				inputStack.getParent(),
+				( inputStack != null ) ? inputStack.getParent() : "",
 				"Choose tr2d project folder..." );
 		if ( fileProjectFolder == null ) {
 			quit( 2 );
@@ -281,8 +841,16 @@ public class Tr2dApplication {
 			return false;
 		}
 
-		// If it IS a project folder... ask if it is ok to overwrite it...
-		if ( Tr2dProjectFolder.isValidProjectFolder( fileProjectFolder ) ) {
+		// If it IS a project folder... ask if it is ok to overwrite it (or, for the open image, to open it)...
+		if ( Tr2dProjectFolder.isValidProjectFolder( fileProjectFolder ) && forInputImage ) {
+			final String msg = String.format(
+					"Chosen project folder exists (%s).\nOpen this project on the open image, or overwrite it?\nWhen overwriting, current data in this project will be lost!",
+					fileProjectFolder );
+			final Object[] options = { "Open", "Overwrite", "Cancel" };
+			final int choice = JOptionPane.showOptionDialog( guiFrame, msg, "Project Folder Exists", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[ 0 ] );
+			if ( choice == 0 ) return openProjectOnInputImage( fileProjectFolder );
+			if ( choice != 1 ) return false;
+		} else if ( Tr2dProjectFolder.isValidProjectFolder( fileProjectFolder ) ) {
 			final String msg = String.format(
 					"Chosen project folder exists (%s).\nShould this project be overwritten?\nCurrent data in this project will be lost!",
 					fileProjectFolder );
@@ -305,12 +873,61 @@ public class Tr2dApplication {
 		}
 
 		try {
-			projectFolder.initialize( this.inputStack );
+			if ( forInputImage && ( inputStack == null || !inputStack.canRead() ) ) {
+				// the image has no source file, it becomes the raw data of the project
+				inputStack = projectFolder.getFile( Tr2dProjectFolder.RAW_DATA ).getFile();
+				if ( !saveInputImage( inputStack ) ) return null;
+				projectFolder.initialize();
+			} else {
+				projectFolder.initialize( this.inputStack );
+			}
+		} catch ( final IOException e ) {
+			log.error( String.format( "ERROR: Project folder (%s) could not be initialized.", fileProjectFolder.getAbsolutePath() ) );
+			e.printStackTrace();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Opens the existing project in the given folder on the image given by
+	 * {@link #setInput(ImgPlus, File)}. The raw data of the project is only
+	 * written (from the image) if it is missing.
+	 *
+	 * @return true, iff the project was opened; false, iff another folder has
+	 *         to be chosen; <code>null</code>, iff the raw data could not be
+	 *         written.
+	 */
+	private Boolean openProjectOnInputImage( final File fileProjectFolder ) {
+		try {
+			projectFolder.initialize();
 		} catch ( final IOException e ) {
 			log.error( String.format( "ERROR: Project folder (%s) could not be initialized.", fileProjectFolder.getAbsolutePath() ) );
 			e.printStackTrace();
 			return false;
 		}
+		inputStack = projectFolder.getFile( Tr2dProjectFolder.RAW_DATA ).getFile();
+		if ( !inputStack.canRead() ) return saveInputImage( inputStack ) ? true : null;
+
+		final long numFrames = inputImgPlus.dimension( inputImgPlus.numDimensions() - 1 );
+		final int numPlanes = ImageStackLoader.countPlanes( inputStack );
+		if ( numPlanes >= 0 && numPlanes != numFrames )
+			showWarning( "The raw data of this project has %d time-points, the open image %d.\ntr2d tracks the open image.", numPlanes, numFrames );
+		return true;
+	}
+
+	/**
+	 * Saves the image given by {@link #setInput(ImgPlus, File)} as TIFF.
+	 *
+	 * @return false, iff it could not be saved.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private boolean saveInputImage( final File file ) {
+		final ImagePlus imagePlus = ImageJFunctions.wrap( ( RandomAccessibleInterval ) inputImgPlus, inputImgPlus.getName() );
+		if ( !IJ.saveAsTiff( imagePlus, file.getAbsolutePath() ) ) {
+			log.error( "Could not save the raw data to " + file.getAbsolutePath() );
+			return false;
+		}
 		return true;
 	}
 
@@ -340,17 +957,42 @@ public class Tr2dApplication {
 		openProjectFolder(projectFolderBasePath);
 	}
 
-	private ImgPlus openImageStack() {
-		ImagePlus imagePlus = null;
-		if ( inputStack != null ) {
-//			IJ.open( inputStack.getAbsolutePath() );
-			imagePlus = IJ.openImage( inputStack.getAbsolutePath() );
-			if ( imagePlus == null ) {
+	/**
+	 * @return a loader configured by the command line arguments (without time
+	 *         range).
+	 */
+	ImageStackLoader createImageStackLoader() {
+		final ImageStackLoader loader = new ImageStackLoader()
+				.setLazy( lazyLoading )
+				.setMemoryMapped( memoryMapped )
+				.setMaxCachedPlanes( maxCachedPlanes );
+		if ( chunkedRawData && projectFolder != null )
+			loader.setChunkStore( new File( SubProjectFolders.getBaseFolder( projectFolder ), ChunkedRawStore.FOLDER_NAME ) );
+		return loader;
+	}
+
+	ImgPlus openImageStack() {
+		return openImageStack( null );
+	}
+
+	/**
+	 * @param progressListener
+	 *            informed about loaded planes, can be <code>null</code>.
+	 */
+	private ImgPlus openImageStack( final ImageStackLoader.ProgressListener progressListener ) {
+		if ( inputStack == null ) return null;
+
+		final ImgPlus< ? > imgPlus = createImageStackLoader()
+				.setTimeRange( minTime, maxTime )
+				.setProgressListener( progressListener )
+				.open( inputStack );
+		if ( imgPlus == null ) {
+			if ( isHeadless )
+				log.error( "Could not open input stack " + inputStack.getAbsolutePath() );
+			else
 				IJ.error( "There must be an active, open window!" );
-				quit( 4 );
-			}
+			quit( 4 );
 		}
-		final ImgPlus< ? > imgPlus = VirtualStackAdapter.wrap( imagePlus );
 		return imgPlus;
 	}
 
@@ -381,19 +1023,91 @@ public class Tr2dApplication {
 		}
 	}
 
+	/**
+	 * Selects the tracking backend requested by '-solver'. The java solver is
+	 * a heuristic that ignores the hypothesis hierarchy and the tracking
+	 * costs of the project, so it is only used if requested explicitly; tr2d
+	 * quits if Gurobi does not work otherwise.
+	 */
+	TrackingSolver createSolver() {
+		if ( TrackingSolver.JAVA.equals( solverBackend ) ) {
+			log.warn( "Tracking with the java solver: a greedy heuristic, its result is not the optimum of tr2d's tracking problem." );
+			return new GreedyTrackingSolver( greedyTracker ).setHypothesesSource( createHypothesesSource() );
+		}
+		timer.start( "gurobi check" );
+		checkGurobiAvailability();
+		if ( wekaClassifier != null ) log.warn( "The Weka classifier given by '-wekamodel' is only used by the java solver." );
+		return new GurobiTrackingSolver();
+	}
+
+	private WekaBatchSegmenter createWekaSegmenter() {
+		final int threads = ( segmentationThreads > 0 ) ? segmentationThreads : Runtime.getRuntime().availableProcessors();
+		return new WekaBatchSegmenter( log, wekaClassifier, wekaBatchSize, threads ).setForegroundClass( wekaClass );
+	}
+
+	/**
+	 * @return the checkpoints of this run if '-resume' was given, otherwise
+	 *         <code>null</code>.
+	 */
+	CheckpointStore createCheckpointStore( final TrackingSolver solver ) {
+		if ( !resume ) return null;
+		String settings;
+		try {
+			settings = SegmentationCache.hashFiles( SubProjectFolders.listSettingsFiles( projectFolder ) );
+		} catch ( final IOException e ) {
+			log.warn( "Could not read project settings, checkpoints will not be reused: " + e.getMessage() );
+			settings = Long.toString( System.nanoTime() );
+		}
+		final StringBuilder key = new StringBuilder();
+		key.append( inputStack.getAbsolutePath() ).append( ';' ).append( inputStack.length() ).append( ';' ).append( inputStack.lastModified() );
+		key.append( ";t=" ).append( minTime ).append( '-' ).append( maxTime );
+		key.append( ";windows=" ).append( windowSize ).append( '/' ).append( windowOverlap );
+		key.append( ";tiles=" ).append( tileSize ).append( '/' ).append( tileOverlap );
+		key.append( ";solver=" ).append( solver.getName() );
+		if ( solver instanceof GreedyTrackingSolver ) {
+			key.append( ';' ).append( greedyTracker.getParameters() );
+			if ( wekaClassifier != null ) key.append( ";weka=" ).append( wekaClassifier.getAbsolutePath() ).append( '@' ).append( wekaClassifier.lastModified() ).append( '/' ).append( wekaClass );
+		}
+		key.append( ";settings=" ).append( settings );
+		return new CheckpointStore( new File( SubProjectFolders.getBaseFolder( projectFolder ), CheckpointStore.FOLDER_NAME ), key.toString() );
+	}
+
+	private void saveCheckpoint( final CheckpointStore checkpoints, final List< TrackedFrame > solution ) {
+		if ( checkpoints == null ) return;
+		try {
+			checkpoints.save( Tr2dHeadlessRunner.CHECKPOINT_NAME, solution );
+		} catch ( final IOException e ) {
+			log.warn( "Could not write checkpoint of tracking solution: " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * Removes the checkpoints of a run that finished.
+	 */
+	void clearCheckpoints() {
+		if ( !resume ) return;
+		try {
+			SubProjectFolders.delete( new File( SubProjectFolders.getBaseFolder( projectFolder ), CheckpointStore.FOLDER_NAME ) );
+		} catch ( final IOException e ) {
+			log.warn( "Could not remove checkpoints: " + e.getMessage() );
+		}
+	}
+
 	/**
 	 * Check if GRBEnv can be instantiated. For this to work Gurobi has to be
 	 * installed and a valid license has to be pulled.
+	 * Waits for the check started in the background at the beginning of
+	 * {@link #run(String[])}; a previous successful check is reused (see
+	 * {@link GurobiAvailabilityCache}).
 	 */
 	private void checkGurobiAvailability() {
 		final String jlp = System.getProperty( "java.library.path" );
-		if ( !GurobiInstaller.testGurobi() ) {
+		if ( !GurobiAvailabilityCache.await( gurobiCheck ) ) {
 			final String msgs = "Initial Gurobi test threw exception... check your Gruobi setup!\n\nJava library path: " + jlp;
-			JOptionPane.showMessageDialog(
-					guiFrame,
-					msgs,
-					"Gurobi Error?",
-					JOptionPane.ERROR_MESSAGE);
+			if ( isHeadless )
+				log.error( msgs );
+			else
+				showMessageDialog( msgs, "Gurobi Error?", JOptionPane.ERROR_MESSAGE );
 			quit(98);
 		}
 	}
@@ -405,7 +1119,7 @@ public class Tr2dApplication {
 	 */
 	private void parseCommandLineArgs( final String[] args ) {
 		final String helpMessageLine1 =
-				"Tr2d args: [-uprops properties-file] -p project-folder [-run] [-i input-stack] [-tmin idx] [-tmax idx] [-orange num-frames] [-e export-folder]";
+				"Tr2d args: [-uprops properties-file] -p project-folder [-run] [-i input-stack] [-tmin idx] [-tmax idx] [-orange num-frames [-overlap num-frames]] [-tiles num-pixels [-tileoverlap num-pixels] [-tilethreads num]] [-e export-folder] [-segthreads num [-segchunk num-frames]] [-segcache size-mb] [-wekamodel file [-wekabatch num-frames] [-wekaclass idx]] [-lazy] [-cache num-planes] [-mmap] [-chunks] [-headless] [-faststart] [-timings file] [-recheckgurobi] [-solver gurobi|java] [-resume] [-membudget size] [-stream] [-exportformat schnitzcell|binary|both] [-exportlabels]";
 		final Options options = getOptions();
 
 		// get the commands parsed
@@ -429,6 +1143,9 @@ public class Tr2dApplication {
 			quit( 0 );
 		}
 
+		if ( cmd.hasOption( "faststart" ) && !isHeadless )
+			showErrorAndExit( 18, "Argument 'faststart' is only available with -headless (the tr2d window needs all services)!" );
+
 		final File projectFolderBasePath = checkWritableFolderOption(cmd, "p", "project folder");
 
 		exportFolder = checkWritableFolderOption(cmd, "e", "project folder");
@@ -443,11 +1160,16 @@ public class Tr2dApplication {
 		} else if ( projectFolderBasePath != null ) { // if a project folder was given load data from there!
 			openProjectFolder(projectFolderBasePath);
 		}
+		if ( isHeadless && projectFolder == null && projectFolderBasePath != null && inputStack != null ) {
+			initializeProjectFolder( projectFolderBasePath );
+		}
 
 		if ( cmd.hasOption( "tmin" ) ) {
 			minTime = Integer.parseInt( cmd.getOptionValue( "tmin" ) );
-			if ( minTime < 0 )
-				showWarning("Argument 'tmin' cannot be smaller than 0... using tmin=0...");
+			if ( minTime < 0 ) {
+				minTime = 0;
+				showWarning( "Argument 'tmin' cannot be smaller than 0... using tmin=0..." );
+			}
 		}
 		if ( cmd.hasOption( "tmax" ) ) {
 			maxTime = Integer.parseInt( cmd.getOptionValue( "tmax" ) );
@@ -461,6 +1183,141 @@ public class Tr2dApplication {
 		if ( cmd.hasOption( "run" ) ) {
 			autoRun = true;
 		}
+
+		if ( cmd.hasOption( "orange" ) ) {
+			windowSize = Integer.parseInt( cmd.getOptionValue( "orange" ) );
+			if ( cmd.hasOption( "overlap" ) ) windowOverlap = Integer.parseInt( cmd.getOptionValue( "overlap" ) );
+			if ( windowSize < 2 ) {
+				windowSize = 0;
+				showWarning( "Argument 'orange' must be at least 2... tracking all time-points at once..." );
+			} else if ( windowOverlap < 1 || 2 * windowOverlap > windowSize ) {
+				windowOverlap = Math.max( 1, Math.min( SlidingWindowTracker.DEFAULT_OVERLAP, windowSize / 2 ) );
+				showWarning( "Argument 'overlap' must be in [1,orange/2]... using overlap=%d...", windowOverlap );
+			}
+			if ( !isHeadless )
+				showErrorAndExit( 18, "Argument 'orange' is only available with -headless!" );
+		}
+
+		if ( cmd.hasOption( "tiles" ) ) {
+			tileSize = Integer.parseInt( cmd.getOptionValue( "tiles" ) );
+			if ( cmd.hasOption( "tileoverlap" ) ) tileOverlap = Integer.parseInt( cmd.getOptionValue( "tileoverlap" ) );
+			if ( cmd.hasOption( "tilethreads" ) ) tileThreads = Math.max( 1, Integer.parseInt( cmd.getOptionValue( "tilethreads" ) ) );
+			if ( tileSize < 2 ) {
+				tileSize = 0;
+				showWarning( "Argument 'tiles' must be at least 2... tracking whole frames..." );
+			} else if ( tileOverlap < 1 || 2 * tileOverlap > tileSize ) {
+				tileOverlap = Math.max( 1, Math.min( SpatialTileTracker.DEFAULT_OVERLAP, tileSize / 2 ) );
+				showWarning( "Argument 'tileoverlap' must be in [1,tiles/2]... using tileoverlap=%d...", tileOverlap );
+			}
+			if ( !isHeadless )
+				showErrorAndExit( 18, "Argument 'tiles' is only available with -headless!" );
+			if ( tileSize > 0 && windowSize > 0 ) {
+				tileSize = 0;
+				showWarning( "Tiled tracking ('tiles') cannot be combined with windowed tracking ('orange')... tracking whole frames..." );
+			}
+		}
+
+		if ( cmd.hasOption( "solver" ) ) {
+			final String solver = cmd.getOptionValue( "solver" );
+			if ( TrackingSolver.GUROBI.equals( solver ) || TrackingSolver.JAVA.equals( solver ) ) {
+				solverBackend = solver;
+			} else {
+				showWarning( "Unknown solver '%s'... using gurobi...", solver );
+			}
+		}
+
+		if ( cmd.hasOption( "exportformat" ) ) {
+			final String format = cmd.getOptionValue( "exportformat" );
+			if ( "schnitzcell".equals( format ) ) {
+				exportSchnitzcell = true;
+				exportBinary = false;
+			} else if ( "binary".equals( format ) ) {
+				exportSchnitzcell = false;
+				exportBinary = true;
+			} else if ( "both".equals( format ) ) {
+				exportSchnitzcell = true;
+				exportBinary = true;
+			} else {
+				showErrorAndExit( 10, "Unknown export format '%s' (use schnitzcell, binary or both)!", format );
+			}
+		}
+		if ( cmd.hasOption( "exportlabels" ) ) {
+			exportLabels = true;
+		}
+
+		if ( cmd.hasOption( "stream" ) ) {
+			streamExport = true;
+		}
+
+		if ( cmd.hasOption( "resume" ) ) {
+			resume = true;
+		}
+
+		if ( cmd.hasOption( "timings" ) ) {
+			timingsFile = new File( cmd.getOptionValue( "timings" ) );
+		}
+
+		if ( ( cmd.hasOption( "segthreads" ) || cmd.hasOption( "segchunk" ) || cmd.hasOption( "segcache" ) ) && TrackingSolver.GUROBI.equals( solverBackend ) )
+			showErrorAndExit( 19, "Arguments 'segthreads', 'segchunk' and 'segcache' only apply to the java solver (tr2d computes the segmentation hypotheses the gurobi solver reads itself)!" );
+		if ( cmd.hasOption( "segthreads" ) ) {
+			segmentationThreads = Integer.parseInt( cmd.getOptionValue( "segthreads" ) );
+			if ( segmentationThreads < 1 ) {
+				segmentationThreads = Runtime.getRuntime().availableProcessors();
+				showWarning( "Argument 'segthreads' cannot be smaller than 1... using segthreads=%d...", segmentationThreads );
+			}
+		}
+		if ( cmd.hasOption( "segchunk" ) ) {
+			segmentationChunkSize = Integer.parseInt( cmd.getOptionValue( "segchunk" ) );
+			if ( segmentationChunkSize < 1 ) {
+				segmentationChunkSize = 1;
+				showWarning( "Argument 'segchunk' cannot be smaller than 1... using segchunk=1..." );
+			}
+		}
+
+		if ( cmd.hasOption( "segcache" ) ) {
+			segmentationCacheBytes = Long.parseLong( cmd.getOptionValue( "segcache" ) ) * 1024 * 1024;
+			if ( segmentationCacheBytes < 0 ) {
+				segmentationCacheBytes = 0;
+				showWarning( "Argument 'segcache' cannot be negative... segmentation cache disabled..." );
+			}
+		}
+
+		if ( cmd.hasOption( "wekamodel" ) ) {
+			wekaClassifier = new File( cmd.getOptionValue( "wekamodel" ) );
+			if ( !wekaClassifier.canRead() )
+				showErrorAndExit( 12, "Given Weka classifier '%s' cannot be read!", wekaClassifier.getAbsolutePath() );
+			if ( cmd.hasOption( "wekabatch" ) ) wekaBatchSize = Math.max( 1, Integer.parseInt( cmd.getOptionValue( "wekabatch" ) ) );
+			if ( cmd.hasOption( "wekaclass" ) ) wekaClass = Integer.parseInt( cmd.getOptionValue( "wekaclass" ) );
+		}
+
+		if ( cmd.hasOption( "lazy" ) ) {
+			lazyLoading = true;
+		}
+		if ( cmd.hasOption( "mmap" ) ) {
+			memoryMapped = true;
+		}
+		if ( cmd.hasOption( "chunks" ) ) {
+			chunkedRawData = true;
+		}
+		if ( cmd.hasOption( "membudget" ) ) {
+			try {
+				memoryBudgetBytes = MemoryBudget.parse( cmd.getOptionValue( "membudget" ) );
+			} catch ( final NumberFormatException e ) {
+				showErrorAndExit( 13, "Invalid memory budget '%s' (use e.g. 512m or 6g)!", cmd.getOptionValue( "membudget" ) );
+			}
+			final long maxHeap = Runtime.getRuntime().maxMemory();
+			if ( memoryBudgetBytes > maxHeap ) {
+				memoryBudgetBytes = maxHeap;
+				showWarning( "Argument 'membudget' exceeds the max heap size (-Xmx)... using membudget=%dm...", maxHeap >> 20 );
+			}
+		}
+		if ( cmd.hasOption( "cache" ) ) {
+			maxCachedPlanes = Integer.parseInt( cmd.getOptionValue( "cache" ) );
+			if ( maxCachedPlanes < 1 ) {
+				maxCachedPlanes = 1;
+				showWarning( "Argument 'cache' cannot be smaller than 1... using cache=1..." );
+			}
+		}
 	}
 
 	private Options getOptions()
@@ -470,15 +1327,27 @@ public class Tr2dApplication {
 		// defining command line options
 		final Option help = new Option( "help", "print this message" );
 
-		final Option timeFirst = new Option( "tmin", "min_time", true, "first time-point to be processed" );
+		final Option timeFirst = new Option( "tmin", "min_time", true, "first time-point to be processed (only this time window is loaded and tracked)" );
 		timeFirst.setRequired( false );
 
 		final Option timeLast = new Option( "tmax", "max_time", true, "last time-point to be processed" );
 		timeLast.setRequired( false );
 
-		final Option optRange = new Option( "orange", "opt_range", true, "obsolete parameter" );
+		final Option optRange = new Option( "orange", "opt_range", true, "track in overlapping windows of this many time-points (headless only)" );
 		optRange.setRequired( false );
 
+		final Option overlap = new Option( "overlap", "window_overlap", true, "number of time-points consecutive windows share (default: " + SlidingWindowTracker.DEFAULT_OVERLAP + ")" );
+		overlap.setRequired( false );
+
+		final Option tiles = new Option( "tiles", "tile_size", true, "track in overlapping square tiles of this many pixels, in parallel (headless only)" );
+		tiles.setRequired( false );
+
+		final Option tileOverlap = new Option( "tileoverlap", "tile_overlap", true, "number of pixels neighbouring tiles share (default: " + SpatialTileTracker.DEFAULT_OVERLAP + ")" );
+		tileOverlap.setRequired( false );
+
+		final Option tileThreads = new Option( "tilethreads", "tile_threads", true, "number of tiles tracked at the same time (default: number of cores)" );
+		tileThreads.setRequired( false );
+
 		final Option projectfolder = new Option( "p", "projectfolder", true, "tr2d project folder" );
 		projectfolder.setRequired( false );
 
@@ -494,15 +1363,99 @@ public class Tr2dApplication {
 		final Option exportFolder = new Option( "e", "export_folder", true, "Write results to this folder when closing tr2d." );
 		exportFolder.setRequired( false );
 
+		final Option segThreads = new Option( "segthreads", "segmentation_threads", true, "java solver only: compute segmentation hypotheses of all frames in parallel on this many threads before tracking" );
+		segThreads.setRequired( false );
+
+		final Option segChunk = new Option( "segchunk", "segmentation_chunk", true, "number of consecutive frames per parallel segmentation task (default: " + ParallelSegmentationStage.DEFAULT_CHUNK_SIZE + ")" );
+		segChunk.setRequired( false );
+
+		final Option wekaModel = new Option( "wekamodel", "weka_model", true, "java solver: track the binary foreground mask of this Trainable Weka Segmentation classifier instead of the segmentation hypotheses of the project" );
+		wekaModel.setRequired( false );
+
+		final Option wekaBatch = new Option( "wekabatch", "weka_batch", true, "number of frames classified at once, their feature stacks are computed per batch (default: " + WekaBatchSegmenter.DEFAULT_BATCH_SIZE + ")" );
+		wekaBatch.setRequired( false );
+
+		final Option wekaClassOption = new Option( "wekaclass", "weka_class", true, "index of the foreground class of the Weka classifier (default: 0)" );
+		wekaClassOption.setRequired( false );
+
+		final Option segCache = new Option( "segcache", "segmentation_cache", true, "java solver only: reuse segmentation hypotheses cached in the project folder; size limit in MB" );
+		segCache.setRequired( false );
+
+		final Option lazy = new Option( "lazy", "lazy_loading", false, "decode raw data planes on demand instead of loading the whole stack" );
+		lazy.setRequired( false );
+
+		final Option cache = new Option( "cache", "cached_planes", true, "max number of decoded planes kept in memory in lazy mode (default: " + ImageStackLoader.DEFAULT_CACHED_PLANES + ")" );
+		cache.setRequired( false );
+
+		final Option mmap = new Option( "mmap", "memory_mapped", false, "memory-map uncompressed raw data stacks instead of decoding them (others are loaded as usual)" );
+		mmap.setRequired( false );
+
+		final Option chunks = new Option( "chunks", "chunked_raw_data", false, "convert the raw data once into compressed blocks in the project folder (" + ChunkedRawStore.FOLDER_NAME + "/) and read it from there in parallel" );
+		chunks.setRequired( false );
+
+		final Option headless = new Option( "headless", "run segmentation, tracking and export without GUI, then exit" );
+		headless.setRequired( false );
+
+		final Option fastStart = new Option( "faststart", "only start the services needed to load TIFF stacks and run tr2d (headless only)" );
+		fastStart.setRequired( false );
+
+		final Option timings = new Option( "timings", "timings_file", true, "write startup and stage timings (tab separated) to this file" );
+		timings.setRequired( false );
+
+		final Option recheckGurobi = new Option( "recheckgurobi", "ignore a cached successful Gurobi check and test again" );
+		recheckGurobi.setRequired( false );
+
+		final Option solver = new Option( "solver", "solver", true, "tracking backend: gurobi (default) or java (greedy heuristic, no Gurobi needed, results are not optimal)" );
+		solver.setRequired( false );
+
+		final Option memBudget = new Option( "membudget", "memory_budget", true, "size caches, segmentation parallelism and tracking windows to fit this much heap, e.g. 512m or 6g" );
+		memBudget.setRequired( false );
+
+		final Option resumeOption = new Option( "resume", "checkpoint finished windows, tiles, solutions and segmentation frames in the project folder and continue from them" );
+		resumeOption.setRequired( false );
+
+		final Option stream = new Option( "stream", "write tracking results frame by frame to the export folder once tracking finished (per window with -orange)" );
+		stream.setRequired( false );
+
+		final Option exportFormat = new Option( "exportformat", "export_format", true, "schnitzcell (default), binary, or both" );
+		exportFormat.setRequired( false );
+
+		final Option exportLabels = new Option( "exportlabels", "with the binary export, also write per-frame label images" );
+		exportLabels.setRequired( false );
+
 		options.addOption( help );
 		options.addOption( timeFirst );
 		options.addOption( timeLast );
 		options.addOption( optRange );
+		options.addOption( overlap );
+		options.addOption( tiles );
+		options.addOption( tileOverlap );
+		options.addOption( tileThreads );
 		options.addOption( instack );
 		options.addOption( run );
 		options.addOption( projectfolder );
 		options.addOption( userProps );
 		options.addOption( exportFolder );
+		options.addOption( segThreads );
+		options.addOption( segChunk );
+		options.addOption( segCache );
+		options.addOption( wekaModel );
+		options.addOption( wekaBatch );
+		options.addOption( wekaClassOption );
+		options.addOption( lazy );
+		options.addOption( cache );
+		options.addOption( mmap );
+		options.addOption( chunks );
+		options.addOption( headless );
+		options.addOption( fastStart );
+		options.addOption( timings );
+		options.addOption( recheckGurobi );
+		options.addOption( solver );
+		options.addOption( resumeOption );
+		options.addOption( memBudget );
+		options.addOption( stream );
+		options.addOption( exportFormat );
+		options.addOption( exportLabels );
 		return options;
 	}
 
@@ -521,18 +1474,52 @@ public class Tr2dApplication {
 	}
 
 	private void showWarning(final String msg, final Object... data) {
-		JOptionPane.showMessageDialog( guiFrame, String.format(msg, data),
-				"Argument Warning", JOptionPane.WARNING_MESSAGE );
-		log.warn( msg );
+		if ( !isHeadless )
+			showMessageDialog( String.format(msg, data), "Argument Warning", JOptionPane.WARNING_MESSAGE );
+		log.warn( String.format( msg, data ) );
+	}
+
+	/**
+	 * Shows a message dialog on the EDT and waits until it is closed; can be
+	 * called from any thread (e.g. while the project is opened in the
+	 * background).
+	 */
+	private void showMessageDialog( final String msg, final String title, final int messageType ) {
+		final Runnable dialog = () -> JOptionPane.showMessageDialog( guiFrame, msg, title, messageType );
+		if ( SwingUtilities.isEventDispatchThread() ) {
+			dialog.run();
+			return;
+		}
+		try {
+			SwingUtilities.invokeAndWait( dialog );
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		} catch ( final InvocationTargetException e ) {
+			log.error( "Could not show message '" + msg + "': " + e.getCause() );
+		}
 	}
 
 	private void showErrorAndExit(final int exit_value, final String msg, final Object... data) {
-		JOptionPane.showMessageDialog(guiFrame, String.format(msg, data),
-				"Argument Error", JOptionPane.ERROR_MESSAGE);
-		log.error(msg);
+		if ( !isHeadless )
+			showMessageDialog( String.format(msg, data), "Argument Error", JOptionPane.ERROR_MESSAGE );
+		log.error( String.format( msg, data ) );
 		quit(exit_value);
 	}
 
+	/**
+	 * Creates a new project in the given folder for the given input stack
+	 * (used when both, '-i' and '-p' are given in headless mode).
+	 */
+	private void initializeProjectFolder( final File projectFolderBasePath ) {
+		try {
+			projectFolder = new Tr2dProjectFolder( projectFolderBasePath );
+			projectFolder.initialize( inputStack );
+		} catch ( final IOException e ) {
+			e.printStackTrace();
+			showErrorAndExit( 8, "Project folder (%s) could not be initialized.", projectFolderBasePath.getAbsolutePath() );
+		}
+	}
+
 	private void openProjectFolder(final File projectFolderBasePath) {
 		try {
 			projectFolder = new Tr2dProjectFolder( projectFolderBasePath );
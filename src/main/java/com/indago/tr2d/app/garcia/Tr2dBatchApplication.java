@@ -0,0 +1,346 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.scijava.Context;
+import org.scijava.log.LogService;
+import org.scijava.log.Logger;
+
+import com.indago.plugins.seg.IndagoSegmentationPluginService;
+import com.indago.tr2d.Tr2dContext;
+import com.indago.tr2d.io.projectfolder.Tr2dProjectFolder;
+
+import net.imagej.ImgPlus;
+import net.imagej.ops.OpService;
+
+/**
+ * Processes many tr2d project folders headless in one JVM. All projects share
+ * one SciJava {@link Context} (and therefore one {@link OpService} and one
+ * {@link IndagoSegmentationPluginService}), and the Gurobi check is done only
+ * once.
+ */
+public class Tr2dBatchApplication {
+
+	public static final int STATUS_ALL_OK = 0;
+	public static final int STATUS_SOME_FAILED = 20;
+
+	/**
+	 * Status codes of a single project (next to those of
+	 * {@link Tr2dHeadlessRunner}), the same as the exit codes of
+	 * {@link Tr2dApplication} for the same problems.
+	 */
+	public static final int STATUS_EXPORT_FOLDER_FAILED = 3;
+	public static final int STATUS_STACK_UNREADABLE = 4;
+	public static final int STATUS_INVALID_PROJECT = 7;
+	public static final int STATUS_PROJECT_OPEN_FAILED = 8;
+	public static final int STATUS_GUROBI_UNAVAILABLE = 98;
+
+	private final OpService ops;
+	private final IndagoSegmentationPluginService segPlugins;
+	private final Logger log;
+
+	private final List< File > projectFolders = new ArrayList<>();
+	private File exportRoot;
+	private int numWorkers = Math.max( 1, Runtime.getRuntime().availableProcessors() / 4 );
+	private int numSolvers = 1;
+	private boolean lazyLoading = false;
+	private boolean memoryMapped = false;
+	private boolean chunkedRawData = false;
+	private int maxCachedPlanes = ImageStackLoader.DEFAULT_CACHED_PLANES;
+
+	public static void main( final String[] args ) {
+		System.setProperty( "java.awt.headless", "true" );
+		final Tr2dBatchApplication app = new Tr2dBatchApplication( Tr2dContexts.create( Tr2dApplication.hasFlag( args, "-faststart" ) ) );
+		System.exit( app.run( args ) );
+	}
+
+	public Tr2dBatchApplication( final Context context ) {
+		ops = context.getService( OpService.class );
+		segPlugins = context.getService( IndagoSegmentationPluginService.class );
+		log = context.getService( LogService.class );
+		log.info( "BATCH" );
+	}
+
+	/**
+	 * Processes all project folders given by the command line arguments.
+	 *
+	 * @return {@link #STATUS_ALL_OK} iff all projects were processed
+	 *         successfully.
+	 */
+	public int run( final String[] args ) {
+		if ( !parseCommandLineArgs( args ) ) return 1;
+		if ( projectFolders.isEmpty() ) {
+			log.error( "No tr2d project folders given." );
+			return 1;
+		}
+		if ( !new GurobiAvailabilityCache().isAvailable() ) {
+			log.error( "Initial Gurobi test threw exception... check your Gruobi setup!\n\nJava library path: " +
+					System.getProperty( "java.library.path" ) );
+			return STATUS_GUROBI_UNAVAILABLE;
+		}
+
+		Tr2dContext.segPlugins = segPlugins;
+		Tr2dContext.ops = ops;
+		Tr2dContext.guiFrame = null;
+
+		log.info( String.format(
+				"Processing %d projects with %d workers and at most %d concurrent solvers.",
+				projectFolders.size(), numWorkers, numSolvers ) );
+
+		final Semaphore solverPermits = new Semaphore( numSolvers );
+		final ExecutorService workers = Executors.newFixedThreadPool( numWorkers );
+		final Map< File, Future< Integer > > results = new LinkedHashMap<>();
+		final Map< File, String > exportNames = getExportNames( projectFolders );
+		for ( final File folder : projectFolders ) {
+			results.put( folder, workers.submit( () -> processProject( folder, exportNames.get( folder ), solverPermits ) ) );
+		}
+		workers.shutdown();
+
+		int numFailed = 0;
+		for ( final Map.Entry< File, Future< Integer > > entry : results.entrySet() ) {
+			int status;
+			try {
+				status = entry.getValue().get();
+			} catch ( final InterruptedException e ) {
+				Thread.currentThread().interrupt();
+				status = Tr2dHeadlessRunner.STATUS_INTERRUPTED;
+			} catch ( final ExecutionException e ) {
+				log.error( "Project " + entry.getKey() + " failed: " + e.getCause() );
+				status = Tr2dHeadlessRunner.STATUS_TRACKING_FAILED;
+			}
+			if ( !Tr2dHeadlessRunner.isSuccess( status ) ) numFailed++;
+			log.info( String.format( "%s -> status %d", entry.getKey().getAbsolutePath(), status ) );
+		}
+		log.info( String.format( "Batch finished: %d of %d projects failed.", numFailed, projectFolders.size() ) );
+		return ( numFailed == 0 ) ? STATUS_ALL_OK : STATUS_SOME_FAILED;
+	}
+
+	/**
+	 * @return for each project folder the name of its export sub-folder:
+	 *         the name of the project folder, or its path (relative to the
+	 *         deepest common parent, separators replaced by '_') if several
+	 *         projects have the same name; an index is appended if even
+	 *         these collide.
+	 */
+	static Map< File, String > getExportNames( final List< File > folders ) {
+		final Map< String, Integer > counts = new HashMap<>();
+		for ( final File folder : folders ) {
+			counts.merge( folder.getName(), 1, Integer::sum );
+		}
+		final Path commonParent = getCommonParent( folders );
+
+		final Map< File, String > names = new LinkedHashMap<>();
+		final Set< String > used = new HashSet<>();
+		for ( final File folder : folders ) {
+			String name = folder.getName();
+			if ( counts.get( name ) > 1 && commonParent != null ) {
+				final Path relative = commonParent.relativize( folder.getAbsoluteFile().toPath().normalize() );
+				name = relative.toString().replace( File.separatorChar, '_' );
+			}
+			String unique = name;
+			for ( int i = 2; !used.add( unique ); i++ ) {
+				unique = name + "_" + i;
+			}
+			names.put( folder, unique );
+		}
+		return names;
+	}
+
+	private static Path getCommonParent( final List< File > folders ) {
+		Path common = null;
+		for ( final File folder : folders ) {
+			final Path parent = folder.getAbsoluteFile().toPath().normalize().getParent();
+			if ( parent == null ) return null;
+			if ( common == null ) {
+				common = parent;
+			} else {
+				while ( common != null && !parent.startsWith( common ) )
+					common = common.getParent();
+			}
+		}
+		return common;
+	}
+
+	private int processProject( final File folder, final String exportName, final Semaphore solverPermits ) {
+		log.info( "Opening project " + folder.getAbsolutePath() );
+		final Tr2dProjectFolder projectFolder;
+		try {
+			projectFolder = new Tr2dProjectFolder( folder );
+			projectFolder.initialize();
+		} catch ( final IOException e ) {
+			log.error( "Project folder " + folder.getAbsolutePath() + " could not be opened: " + e.getMessage() );
+			return STATUS_PROJECT_OPEN_FAILED;
+		}
+		final File inputStack = projectFolder.getFile( Tr2dProjectFolder.RAW_DATA ).getFile();
+		if ( !inputStack.canRead() ) {
+			log.error( "Invalid project folder -- missing RAW data or read protected: " + folder.getAbsolutePath() );
+			return STATUS_INVALID_PROJECT;
+		}
+
+		final ImageStackLoader loader = new ImageStackLoader()
+				.setLazy( lazyLoading )
+				.setMemoryMapped( memoryMapped )
+				.setMaxCachedPlanes( maxCachedPlanes );
+		if ( chunkedRawData ) loader.setChunkStore( new File( folder, ChunkedRawStore.FOLDER_NAME ) );
+		final ImgPlus imgPlus = loader.open( inputStack );
+		if ( imgPlus == null ) {
+			log.error( "Could not open input stack " + inputStack.getAbsolutePath() );
+			return STATUS_STACK_UNREADABLE;
+		}
+
+		File exportFolder = null;
+		if ( exportRoot != null ) {
+			exportFolder = new File( exportRoot, exportName );
+			if ( !exportFolder.isDirectory() && !exportFolder.mkdirs() ) {
+				log.error( "Could not create export folder " + exportFolder.getAbsolutePath() );
+				return STATUS_EXPORT_FOLDER_FAILED;
+			}
+		}
+		return new Tr2dHeadlessRunner( log, solverPermits ).run( projectFolder, imgPlus, exportFolder );
+	}
+
+	/**
+	 * Parse command line arguments and set variables accordingly.
+	 *
+	 * @return false, iff the arguments could not be parsed.
+	 */
+	private boolean parseCommandLineArgs( final String[] args ) {
+		final String helpMessageLine1 =
+				"Tr2d batch args: [-threads num] [-solvers num] [-e export-root] [-lazy] [-cache num-planes] [-mmap] [-chunks] [-faststart] project-folder|projects-parent-folder|project-list-file...";
+		final Options options = getOptions();
+
+		final CommandLineParser parser = new BasicParser();
+		CommandLine cmd = null;
+		try {
+			cmd = parser.parse( options, args );
+		} catch ( final ParseException e1 ) {
+			final HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp( helpMessageLine1, "", options, "Error: " + e1.getMessage() );
+			return false;
+		}
+
+		if ( cmd.hasOption( "help" ) ) {
+			final HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp( helpMessageLine1, options );
+			return false;
+		}
+
+		if ( cmd.hasOption( "threads" ) ) numWorkers = Math.max( 1, Integer.parseInt( cmd.getOptionValue( "threads" ) ) );
+		if ( cmd.hasOption( "solvers" ) ) numSolvers = Math.max( 1, Integer.parseInt( cmd.getOptionValue( "solvers" ) ) );
+		if ( cmd.hasOption( "lazy" ) ) lazyLoading = true;
+		if ( cmd.hasOption( "mmap" ) ) memoryMapped = true;
+		if ( cmd.hasOption( "chunks" ) ) chunkedRawData = true;
+		if ( cmd.hasOption( "cache" ) ) maxCachedPlanes = Math.max( 1, Integer.parseInt( cmd.getOptionValue( "cache" ) ) );
+		if ( cmd.hasOption( "e" ) ) {
+			exportRoot = new File( cmd.getOptionValue( "e" ) );
+			if ( !exportRoot.isDirectory() || !exportRoot.canWrite() ) {
+				log.error( "Given export root is not a writable folder: " + exportRoot );
+				return false;
+			}
+		}
+
+		for ( final String arg : cmd.getArgs() ) {
+			try {
+				collectProjectFolders( new File( arg ) );
+			} catch ( final IOException e ) {
+				log.error( "Could not read project list " + arg + ": " + e.getMessage() );
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the given project folder, all project folders contained in the
+	 * given folder, or all folders listed (one per line) in the given file.
+	 */
+	private void collectProjectFolders( final File file ) throws IOException {
+		if ( Tr2dProjectFolder.isValidProjectFolder( file ) ) {
+			projectFolders.add( file );
+		} else if ( file.isDirectory() ) {
+			final File[] children = file.listFiles();
+			Arrays.sort( children );
+			for ( final File child : children ) {
+				if ( child.isDirectory() && Tr2dProjectFolder.isValidProjectFolder( child ) ) projectFolders.add( child );
+			}
+		} else if ( file.isFile() ) {
+			for ( final String line : Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 ) ) {
+				final String path = line.trim();
+				if ( path.isEmpty() || path.startsWith( "#" ) ) continue;
+				if ( Tr2dProjectFolder.isValidProjectFolder( new File( path ) ) )
+					projectFolders.add( new File( path ) );
+				else
+					log.warn( "Skipping invalid project folder " + path );
+			}
+		} else {
+			log.warn( "Skipping " + file + " (neither project folder, folder of projects, nor project list)." );
+		}
+	}
+
+	private Options getOptions() {
+		final Options options = new Options();
+		final Option help = new Option( "help", "print this message" );
+
+		final Option threads = new Option( "threads", "threads", true, "number of projects processed concurrently" );
+		threads.setRequired( false );
+
+		final Option solvers = new Option( "solvers", "solvers", true, "max number of concurrently running tracking solves (default: 1)" );
+		solvers.setRequired( false );
+
+		final Option exportRoot = new Option( "e", "export_root", true, "results of each project are written to a sub-folder of this folder, named like the project (or its relative path if names collide)" );
+		exportRoot.setRequired( false );
+
+		final Option lazy = new Option( "lazy", "lazy_loading", false, "decode raw data planes on demand instead of loading the whole stack" );
+		lazy.setRequired( false );
+
+		final Option cache = new Option( "cache", "cached_planes", true, "max number of decoded planes kept in memory per project in lazy mode" );
+		cache.setRequired( false );
+
+		final Option mmap = new Option( "mmap", "memory_mapped", false, "memory-map uncompressed raw data stacks; all projects share the OS page cache" );
+		mmap.setRequired( false );
+
+		final Option chunks = new Option( "chunks", "chunked_raw_data", false, "convert the raw data of each project once into compressed blocks in its project folder and read it from there" );
+		chunks.setRequired( false );
+
+		final Option fastStart = new Option( "faststart", "only start the services needed to load TIFF stacks and run tr2d" );
+		fastStart.setRequired( false );
+
+		options.addOption( help );
+		options.addOption( threads );
+		options.addOption( solvers );
+		options.addOption( exportRoot );
+		options.addOption( lazy );
+		options.addOption( cache );
+		options.addOption( mmap );
+		options.addOption( chunks );
+		options.addOption( fastStart );
+		return options;
+	}
+}
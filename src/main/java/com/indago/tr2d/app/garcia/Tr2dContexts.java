@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import org.scijava.Context;
+import org.scijava.app.StatusService;
+import org.scijava.io.IOService;
+import org.scijava.log.LogService;
+import org.scijava.widget.WidgetService;
+
+import com.indago.plugins.seg.IndagoSegmentationPluginService;
+
+import io.scif.codec.CodecService;
+import io.scif.formats.qt.QTJavaService;
+import io.scif.formats.tiff.TiffService;
+import io.scif.img.ImgUtilityService;
+import io.scif.img.converters.PlaneConverterService;
+import io.scif.services.DatasetIOService;
+import io.scif.services.FilePatternService;
+import io.scif.services.FormatService;
+import io.scif.services.InitializeService;
+import io.scif.services.JAIIIOService;
+import io.scif.services.LocationService;
+import io.scif.services.TranslatorService;
+import io.scif.xml.XMLService;
+import net.imagej.DatasetService;
+import net.imagej.ops.OpMatchingService;
+import net.imagej.ops.OpService;
+
+/**
+ * Creates the SciJava contexts used when tr2d is started standalone (not as
+ * Fiji plugin).
+ */
+public class Tr2dContexts {
+
+	/**
+	 * Creates a context with all services tr2d (and SCIFIO, for all image
+	 * formats) might need.
+	 */
+	public static Context createFullContext() {
+		return new Context( FormatService.class, OpService.class, OpMatchingService.class,
+				IOService.class, DatasetIOService.class, LocationService.class, DatasetService.class,
+				ImgUtilityService.class, StatusService.class, TranslatorService.class, QTJavaService.class,
+				TiffService.class, CodecService.class, JAIIIOService.class, LogService.class,
+				IndagoSegmentationPluginService.class, PlaneConverterService.class, InitializeService.class,
+				XMLService.class, FilePatternService.class, WidgetService.class);
+	}
+
+	/**
+	 * Creates a context with only the services headless runs need. Raw data
+	 * is read through ImageJ1, so the SCIFIO format stack (QuickTime, JAI,
+	 * OME-XML, ...) and the widget service are left out; the IO services stay
+	 * since segmentation plugins (e.g. the import of segmentations) read
+	 * images through them. Services these depend on are still pulled in by
+	 * SciJava as required. Nothing of the tr2d window (and its widgets) is
+	 * available, so this context must not be used for it.
+	 */
+	public static Context createFastStartContext() {
+		return new Context( OpService.class, OpMatchingService.class, DatasetService.class,
+				IOService.class, DatasetIOService.class, StatusService.class, LogService.class,
+				IndagoSegmentationPluginService.class );
+	}
+
+	/**
+	 * @param fastStart
+	 *            if true, a context for headless runs only (see
+	 *            {@link #createFastStartContext()}).
+	 */
+	public static Context create( final boolean fastStart ) {
+		return fastStart ? createFastStartContext() : createFullContext();
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.scijava.log.Logger;
+
+import com.indago.tr2d.io.projectfolder.Tr2dProjectFolder;
+
+import net.imagej.ImgPlus;
+
+/**
+ * The '-headless' mode of {@link Tr2dApplication}: segments, tracks and
+ * exports without touching AWT/Swing, either all time-points at once (see
+ * {@link Tr2dHeadlessRunner}), in overlapping windows of time-points (see
+ * {@link SlidingWindowTracker}) or in overlapping spatial tiles (see
+ * {@link SpatialTileTracker}).
+ * <p>
+ * Solver, checkpoints and stack loading are created by the
+ * {@link Tr2dApplication} that parsed the command line; this class only
+ * dispatches to the requested mode and finishes the run.
+ */
+public class Tr2dHeadlessApplication {
+
+	private final Tr2dApplication app;
+	private final Logger log;
+	private final StageTimer timer;
+
+	private int windowSize = 0;
+	private int windowOverlap = SlidingWindowTracker.DEFAULT_OVERLAP;
+	private int tileSize = 0;
+	private int tileOverlap = SpatialTileTracker.DEFAULT_OVERLAP;
+	private int tileThreads = 1;
+
+	private boolean streamExport = false;
+	private boolean exportSchnitzcell = true;
+	private boolean exportBinary = false;
+	private boolean exportLabels = false;
+	private boolean resume = false;
+
+	public Tr2dHeadlessApplication( final Tr2dApplication app, final Logger log, final StageTimer timer ) {
+		this.app = app;
+		this.log = log;
+		this.timer = timer;
+	}
+
+	/**
+	 * Tracks in overlapping windows of <code>size</code> time-points, 0 to
+	 * track all time-points at once.
+	 */
+	public Tr2dHeadlessApplication setWindows( final int size, final int overlap ) {
+		this.windowSize = size;
+		this.windowOverlap = overlap;
+		return this;
+	}
+
+	/**
+	 * Tracks in overlapping tiles of <code>size</code> pixels, 0 to track
+	 * whole frames. Ignored if windows are set.
+	 */
+	public Tr2dHeadlessApplication setTiles( final int size, final int overlap, final int numThreads ) {
+		this.tileSize = size;
+		this.tileOverlap = overlap;
+		this.tileThreads = numThreads;
+		return this;
+	}
+
+	public Tr2dHeadlessApplication setExportFormats(
+			final boolean stream,
+			final boolean schnitzcell,
+			final boolean binary,
+			final boolean labels ) {
+		this.streamExport = stream;
+		this.exportSchnitzcell = schnitzcell;
+		this.exportBinary = binary;
+		this.exportLabels = labels;
+		return this;
+	}
+
+	public Tr2dHeadlessApplication setResume( final boolean resume ) {
+		this.resume = resume;
+		return this;
+	}
+
+	/**
+	 * Runs the requested mode, removes the checkpoints of a successful run and
+	 * reports the stage timings.
+	 *
+	 * @return a status code, {@link Tr2dHeadlessRunner#STATUS_OK} iff
+	 *         everything went fine.
+	 */
+	public int run(
+			final Tr2dProjectFolder projectFolder,
+			final File inputStack,
+			final int minTime,
+			final int maxTime,
+			final File exportFolder ) {
+		int status;
+		if ( windowSize > 0 ) {
+			status = runWindowed( projectFolder, inputStack, minTime, maxTime, exportFolder );
+		} else if ( tileSize > 0 ) {
+			status = runTiled( projectFolder, minTime, exportFolder );
+		} else {
+			status = runWholeMovie( minTime, exportFolder );
+		}
+		timer.stop();
+		if ( Tr2dHeadlessRunner.isSuccess( status ) ) app.clearCheckpoints();
+		if ( Tr2dHeadlessRunner.isSuccess( status ) && exportFolder != null )
+			app.writeTimeWindow( exportFolder );
+		app.reportTimings();
+		log.info( "Headless run finished with status " + status );
+		return status;
+	}
+
+	/**
+	 * Segments, tracks and exports all time-points at once.
+	 */
+	private int runWholeMovie( final int minTime, final File exportFolder ) {
+		timer.start( "stack loading" );
+		final ImgPlus imgPlus = app.openImageStack();
+		final TrackingSolver solver = app.createSolver();
+		if ( resume && solver instanceof GurobiTrackingSolver )
+			log.warn( "'-resume' checkpoints the gurobi solve of the whole movie only once it finished; use -orange or -tiles to checkpoint windows or tiles." );
+		final Tr2dProjectFolder modelFolder;
+		try {
+			modelFolder = app.openModelFolder();
+		} catch ( final IOException e ) {
+			log.error( "Could not open the project folder of the time window: " + e.getMessage() );
+			return Tr2dBatchApplication.STATUS_PROJECT_OPEN_FAILED;
+		}
+		return new Tr2dHeadlessRunner( log )
+				.setSolver( solver )
+				.setTimer( timer, "" )
+				.setCheckpoints( app.createCheckpointStore( solver ) )
+				.setStreamingExport( streamExport, minTime )
+				.setExportFormats( exportSchnitzcell, exportBinary, exportLabels )
+				.run( modelFolder, imgPlus, exportFolder );
+	}
+
+	/**
+	 * Segments and tracks in overlapping windows of time-points.
+	 */
+	private int runWindowed(
+			final Tr2dProjectFolder projectFolder,
+			final File inputStack,
+			final int minTime,
+			final int maxTime,
+			final File exportFolder ) {
+		final TrackingSolver solver = app.createSolver();
+		if ( exportSchnitzcell || exportLabels )
+			log.warn( "Windowed tracking writes the stitched result as tsv (and binary) export only." );
+		return new SlidingWindowTracker( log, windowSize, windowOverlap )
+				.setLoader( app.createImageStackLoader() )
+				.setSolver( solver )
+				.setTimer( timer )
+				.setCheckpoints( app.createCheckpointStore( solver ) )
+				.run( projectFolder, inputStack, minTime, maxTime, exportFolder, exportBinary );
+	}
+
+	/**
+	 * Segments and tracks in overlapping spatial tiles.
+	 */
+	private int runTiled( final Tr2dProjectFolder projectFolder, final int minTime, final File exportFolder ) {
+		timer.start( "stack loading" );
+		final ImgPlus imgPlus = app.openImageStack();
+		final TrackingSolver solver = app.createSolver();
+		if ( exportSchnitzcell || exportLabels )
+			log.warn( "Tiled tracking writes the merged result as tsv (and binary) export only." );
+		return new SpatialTileTracker( log, tileSize, tileOverlap, tileThreads )
+				.setSolver( solver )
+				.setTimer( timer )
+				.setCheckpoints( app.createCheckpointStore( solver ) )
+				.run( projectFolder, imgPlus, exportFolder, exportBinary, minTime );
+	}
+}
@@ -0,0 +1,383 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.scijava.log.Logger;
+
+import com.indago.tr2d.io.projectfolder.Tr2dProjectFolder;
+import com.indago.tr2d.ui.model.Tr2dModel;
+import com.indago.tr2d.ui.view.Tr2dExportPanel;
+
+import net.imagej.ImgPlus;
+
+/**
+ * Runs the tr2d pipeline (segmentation, tracking and export) on a single
+ * project without creating any Swing frame. All work is done synchronously in
+ * the calling thread.
+ * <p>
+ * If a {@link CheckpointStore} is set, the tracking solution is stored right
+ * after tracking (as {@link #CHECKPOINT_NAME}); if it holds a solution
+ * already, segmentation and tracking are skipped and only the exports are
+ * written. The whole solve is a single step: a run killed while solving
+ * starts over (use a {@link SlidingWindowTracker} or {@link SpatialTileTracker}
+ * to checkpoint per window or tile).
+ * <p>
+ * The schnitzcell export is written by tr2d itself from its tracking model.
+ * A solution that is not held by the tracking model (computed by the java
+ * solver) cannot be exported this way: the run then fails with
+ * {@link #STATUS_EXPORT_FAILED} after the other exports were written, and a
+ * checkpoint is not restored if the schnitzcell export is requested.
+ */
+public class Tr2dHeadlessRunner {
+
+	public static final int STATUS_OK = 0;
+	public static final int STATUS_TRACKING_FAILED = 11;
+	public static final int STATUS_EXPORT_FAILED = 12;
+	public static final int STATUS_INTERRUPTED = 13;
+	public static final int STATUS_SEGMENTATION_FAILED = 14;
+
+	public static final String CHECKPOINT_NAME = "solution";
+
+	private final Logger log;
+
+	/**
+	 * If not <code>null</code>, a permit has to be acquired before tracking
+	 * is started (after the segmentation hypotheses were computed, see
+	 * {@link TrackingSolver#prepare}). Used to bound the number of
+	 * concurrently running solvers.
+	 */
+	private final Semaphore solverPermits;
+
+	private TrackingSolver solver = new GurobiTrackingSolver();
+
+	/**
+	 * The solution of the last run, if the solver did not store it in the
+	 * tracking model.
+	 */
+	private List< TrackedFrame > solution = null;
+
+	private StageTimer timer = null;
+	private String stagePrefix = "";
+
+	private CheckpointStore checkpoints = null;
+
+	/**
+	 * True iff the solution of the last run was restored from a checkpoint.
+	 */
+	private boolean resumed = false;
+
+	private boolean streamingExport = false;
+	private int timeOffset = 0;
+
+	private boolean emptySolutionAllowed = false;
+
+	private boolean schnitzcellExport = true;
+	private boolean binaryExport = false;
+	private boolean labelExport = false;
+
+	public Tr2dHeadlessRunner( final Logger log ) {
+		this( log, null );
+	}
+
+	public Tr2dHeadlessRunner( final Logger log, final Semaphore solverPermits ) {
+		this.log = log;
+		this.solverPermits = solverPermits;
+	}
+
+	/**
+	 * Selects the tracking backend (default: {@link GurobiTrackingSolver}).
+	 */
+	public Tr2dHeadlessRunner setSolver( final TrackingSolver solver ) {
+		this.solver = solver;
+		return this;
+	}
+
+	/**
+	 * @return the solution of the last run on the given model, independent
+	 *         of the backend that computed it.
+	 */
+	public List< TrackedFrame > readSolution( final Tr2dModel model ) {
+		return ( solution != null ) ? solution : TrackingSolutionReader.read( model.getTrackingModel() );
+	}
+
+	/**
+	 * If set, model construction, segmentation, tracking and the exports are
+	 * measured as stages of the given timer.
+	 *
+	 * @param stagePrefix
+	 *            prepended to all stage names.
+	 */
+	public Tr2dHeadlessRunner setTimer( final StageTimer timer, final String stagePrefix ) {
+		this.timer = timer;
+		this.stagePrefix = stagePrefix;
+		return this;
+	}
+
+	/**
+	 * By default, a solution without any tracked segment is treated as a
+	 * failed solve. Callers that track parts of a movie that might hold no
+	 * cell at all (e.g. tiles) allow it and check the solution themselves.
+	 */
+	public Tr2dHeadlessRunner setEmptySolutionAllowed( final boolean emptySolutionAllowed ) {
+		this.emptySolutionAllowed = emptySolutionAllowed;
+		return this;
+	}
+
+	/**
+	 * If set, the tracking solution is stored in and restored from the
+	 * given checkpoints.
+	 */
+	public Tr2dHeadlessRunner setCheckpoints( final CheckpointStore checkpoints ) {
+		this.checkpoints = checkpoints;
+		return this;
+	}
+
+	private void startStage( final String stage ) {
+		if ( timer != null ) timer.start( stagePrefix + stage );
+	}
+
+	/**
+	 * If enabled, the tracking solution is additionally streamed frame by
+	 * frame into the export folder (see {@link StreamingExporter}) right
+	 * after tracking, before the schnitzcell export is written.
+	 *
+	 * @param timeOffset
+	 *            added to all exported time-points.
+	 */
+	public Tr2dHeadlessRunner setStreamingExport( final boolean streamingExport, final int timeOffset ) {
+		this.streamingExport = streamingExport;
+		this.timeOffset = timeOffset;
+		return this;
+	}
+
+	/**
+	 * Selects the export formats written to the export folder.
+	 *
+	 * @param schnitzcell
+	 *            write the schnitzcell export.
+	 * @param binary
+	 *            write the binary export (see {@link BinaryExportFormat}).
+	 * @param labels
+	 *            with the binary export, also write the per-frame label
+	 *            images (see {@link LabelImageFile}).
+	 */
+	public Tr2dHeadlessRunner setExportFormats( final boolean schnitzcell, final boolean binary, final boolean labels ) {
+		this.schnitzcellExport = schnitzcell;
+		this.binaryExport = binary;
+		this.labelExport = labels;
+		return this;
+	}
+
+	/**
+	 * Builds a {@link Tr2dModel}, runs segmentation and tracking, and writes
+	 * the schnitzcell export (if an export folder is given).
+	 *
+	 * @param projectFolder
+	 *            the initialized tr2d project folder.
+	 * @param imgPlus
+	 *            the raw data.
+	 * @param exportFolder
+	 *            folder to export results to, can be <code>null</code>.
+	 * @return a status code, {@link #STATUS_OK} iff everything went fine.
+	 */
+	public int run( final Tr2dProjectFolder projectFolder, final ImgPlus imgPlus, final File exportFolder ) {
+		if ( restoreCheckpoint( exportFolder ) ) {
+			// no model needed, all exports are written from the restored solution
+			try {
+				return runExports( null, exportFolder );
+			} finally {
+				if ( timer != null ) timer.stop();
+			}
+		}
+		startStage( "model construction" );
+		final Tr2dModel model = new Tr2dModel( projectFolder, imgPlus );
+		try {
+			return run( model, exportFolder );
+		} finally {
+			model.close();
+		}
+	}
+
+	/**
+	 * Runs segmentation and tracking on an existing model and writes the
+	 * schnitzcell export (if an export folder is given). The model is not
+	 * closed.
+	 *
+	 * @return a status code, {@link #STATUS_OK} iff everything went fine.
+	 */
+	public int run( final Tr2dModel model, final File exportFolder ) {
+		try {
+			if ( restoreCheckpoint( exportFolder ) ) return runExports( model, exportFolder );
+			return runStages( model, exportFolder );
+		} finally {
+			if ( timer != null ) timer.stop();
+		}
+	}
+
+	/**
+	 * @return true, iff a solution was restored from the checkpoints.
+	 */
+	private boolean restoreCheckpoint( final File exportFolder ) {
+		solution = null;
+		if ( checkpoints != null && exportFolder != null && schnitzcellExport ) {
+			// tr2d writes the schnitzcell export from the solution in its tracking model only
+			if ( checkpoints.load( CHECKPOINT_NAME ) != null )
+				log.info( "Checkpoint not used: the schnitzcell export needs the solution in tr2d's tracking model... tracking again." );
+			resumed = false;
+			return false;
+		}
+		solution = ( checkpoints != null ) ? checkpoints.load( CHECKPOINT_NAME ) : null;
+		resumed = ( solution != null );
+		if ( resumed ) log.info( "Tracking solution restored from checkpoint, skipping segmentation and tracking." );
+		return resumed;
+	}
+
+	private int runStages( final Tr2dModel model, final File exportFolder ) {
+		solution = null;
+		final TrackingSolver.PreparedSolve solve;
+		try {
+			startStage( "segmentation hypotheses" );
+			solve = solver.prepare( model );
+		} catch ( final InterruptedException e ) {
+			log.error( "Segmentation was interrupted." );
+			Thread.currentThread().interrupt();
+			return STATUS_INTERRUPTED;
+		} catch ( final RuntimeException e ) {
+			log.error( "Segmentation failed: " + e.getMessage() );
+			e.printStackTrace();
+			return STATUS_SEGMENTATION_FAILED;
+		}
+		try {
+			// only the solve itself counts against the solver limit
+			if ( solverPermits != null ) solverPermits.acquire();
+			try {
+				startStage( "tracking (" + solver.getName() + ")" );
+				log.info( "Running tracking (" + solver.getName() + ")..." );
+				solution = solve.solve();
+			} finally {
+				if ( solverPermits != null ) solverPermits.release();
+			}
+		} catch ( final InterruptedException e ) {
+			log.error( "Tracking was interrupted." );
+			Thread.currentThread().interrupt();
+			return STATUS_INTERRUPTED;
+		} catch ( final RuntimeException e ) {
+			log.error( "Tracking failed: " + e.getMessage() );
+			e.printStackTrace();
+			return STATUS_TRACKING_FAILED;
+		}
+		if ( !emptySolutionAllowed && isEmpty( readSolution( model ) ) ) {
+			log.error( "Tracking failed: the " + solver.getName() + " solver left no tracked segments." );
+			return STATUS_TRACKING_FAILED;
+		}
+
+		if ( checkpoints != null ) {
+			try {
+				checkpoints.save( CHECKPOINT_NAME, readSolution( model ) );
+			} catch ( final IOException e ) {
+				log.warn( "Could not write checkpoint of tracking solution: " + e.getMessage() );
+			}
+		}
+		return runExports( model, exportFolder );
+	}
+
+	/**
+	 * @return true, iff the given status code reports a run that tracked
+	 *         and exported everything it was asked for.
+	 */
+	public static boolean isSuccess( final int status ) {
+		return status == STATUS_OK;
+	}
+
+	/**
+	 * @return true, iff the given solution is missing or holds no segment.
+	 */
+	public static boolean isEmpty( final List< TrackedFrame > solution ) {
+		if ( solution == null ) return true;
+		for ( final TrackedFrame frame : solution ) {
+			if ( !frame.getSegments().isEmpty() ) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes all requested exports of the current solution, which is read
+	 * from the tracking model if the solver did not return it.
+	 *
+	 * @param model
+	 *            can be <code>null</code> if a solution is set.
+	 */
+	private int runExports( final Tr2dModel model, final File exportFolder ) {
+		final String source = resumed ? "a restored checkpoint" : "the " + solver.getName() + " solver";
+		if ( exportFolder != null && solver instanceof GreedyTrackingSolver ) {
+			try {
+				GreedyTrackingSolver.writeExportLabel( exportFolder );
+			} catch ( final IOException e ) {
+				log.error( "Could not label the export as heuristic solution: " + e.getMessage() );
+				return STATUS_EXPORT_FAILED;
+			}
+		}
+		if ( exportFolder != null && streamingExport ) {
+			startStage( "export (streaming)" );
+			try {
+				final int numFrames = ( solution != null )
+						? StreamingExporter.export( solution, exportFolder, timeOffset )
+						: StreamingExporter.export( model.getTrackingModel(), exportFolder, timeOffset );
+				log.info( String.format( "Streamed %d frames to %s", numFrames, exportFolder.getAbsolutePath() ) );
+			} catch ( final IOException e ) {
+				log.error( "Streaming export failed: " + e.getMessage() );
+				return STATUS_EXPORT_FAILED;
+			}
+		}
+
+		if ( exportFolder != null && binaryExport ) {
+			startStage( "export (binary)" );
+			try {
+				final int numFrames;
+				if ( solution != null ) {
+					if ( labelExport ) log.warn( "Label images are not exported from " + source + "." );
+					new BinaryExportWriter( timeOffset ).write( solution, exportFolder );
+					numFrames = solution.size();
+				} else {
+					numFrames = BinaryExporter.export( model.getTrackingModel(), exportFolder, timeOffset, labelExport ? model.getRawData() : null );
+				}
+				log.info( String.format( "Wrote binary export of %d frames to %s", numFrames, exportFolder.getAbsolutePath() ) );
+			} catch ( final IOException e ) {
+				log.error( "Binary export failed: " + e.getMessage() );
+				return STATUS_EXPORT_FAILED;
+			}
+		}
+
+		if ( exportFolder != null && schnitzcellExport && solution != null ) {
+			log.error( "The schnitzcell export is written by tr2d from its tracking model, which does not hold the solution of " + source + "... only the tsv export is written, use '-exportformat binary' (or '-stream') instead." );
+			if ( !streamingExport ) {
+				startStage( "export (streaming)" );
+				try {
+					StreamingExporter.export( solution, exportFolder, timeOffset );
+				} catch ( final IOException e ) {
+					log.error( "Streaming export failed: " + e.getMessage() );
+				}
+			}
+			return STATUS_EXPORT_FAILED;
+		}
+
+		if ( exportFolder != null && schnitzcellExport ) {
+			startStage( "export (schnitzcell)" );
+			try {
+				log.info( "Exporting results to " + exportFolder.getAbsolutePath() );
+				new Tr2dExportPanel( model ).schnitzcellExport( exportFolder );
+			} catch ( final RuntimeException e ) {
+				log.error( "Export failed: " + e.getMessage() );
+				e.printStackTrace();
+				return STATUS_EXPORT_FAILED;
+			}
+		}
+		return STATUS_OK;
+	}
+}
@@ -0,0 +1,485 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.cli.BasicParser;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.scijava.Context;
+import org.scijava.log.LogService;
+import org.scijava.log.Logger;
+
+import com.indago.plugins.seg.IndagoSegmentationPluginService;
+import com.indago.tr2d.Tr2dContext;
+import com.indago.tr2d.io.projectfolder.Tr2dProjectFolder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import net.imagej.ImgPlus;
+import net.imagej.ops.OpService;
+
+/**
+ * Keeps one warm JVM (SciJava {@link Context}, segmentation plugins, ImageJ1
+ * and the result of the Gurobi check) and runs tracking jobs submitted over
+ * HTTP on localhost, so that many small jobs do not each pay for a cold
+ * start.
+ * <p>
+ * Jobs are submitted as properties (see {@link ServerJob#parse}) and run
+ * headless (see {@link Tr2dHeadlessRunner}) on a bounded pool: at most
+ * <code>-threads</code> jobs at a time, at most <code>-solvers</code> of
+ * them solving, and at most <code>-queue</code> jobs waiting; further
+ * submissions are rejected. Of the finished jobs, the latest
+ * <code>-history</code> are kept. Each job runs in its own sub-project of
+ * its project (see {@link SubProjectFolders}), so concurrent jobs on the
+ * same project do not share files; the sub-project is removed when the job
+ * finished.
+ * <p>
+ * The server only listens on the loopback interface, and every request has
+ * to carry the token printed at startup (<code>Authorization: Bearer
+ * token</code>). Requests from browsers (with an <code>Origin</code> header)
+ * and requests for any host but localhost are rejected, so that web pages
+ * cannot reach the server through the browser. Endpoints:
+ * <ul>
+ * <li><code>POST /jobs</code> -- submit a job, returns its id and state</li>
+ * <li><code>GET /jobs</code> -- one line per job: id, state, status,
+ * project</li>
+ * <li><code>GET /jobs/{id}</code> -- state, status code and times of a
+ * job</li>
+ * <li><code>GET /jobs/{id}/metrics</code> -- its stages (see
+ * {@link StageTimer#toTsv()})</li>
+ * <li><code>DELETE /jobs/{id}</code> -- cancel a job</li>
+ * </ul>
+ */
+public class Tr2dServer {
+
+	public static final int DEFAULT_PORT = 8765;
+	public static final int DEFAULT_QUEUE_SIZE = 100;
+	public static final int DEFAULT_JOB_HISTORY = 1000;
+
+	private final OpService ops;
+	private final IndagoSegmentationPluginService segPlugins;
+	private final Logger log;
+
+	private int port = DEFAULT_PORT;
+	private int numWorkers = Math.max( 1, Runtime.getRuntime().availableProcessors() / 4 );
+	private int numSolvers = 1;
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+	private int jobHistory = DEFAULT_JOB_HISTORY;
+	private boolean lazyLoading = false;
+	private boolean memoryMapped = false;
+	private int maxCachedPlanes = ImageStackLoader.DEFAULT_CACHED_PLANES;
+
+	private final Map< Integer, ServerJob > jobs = new ConcurrentHashMap<>();
+	private final AtomicInteger nextId = new AtomicInteger( 1 );
+	private Semaphore solverPermits;
+	private ThreadPoolExecutor workers;
+	private boolean gurobiAvailable;
+	private String token;
+
+	public static void main( final String[] args ) {
+		System.setProperty( "java.awt.headless", "true" );
+		final Tr2dServer server = new Tr2dServer( Tr2dContexts.create( Tr2dApplication.hasFlag( args, "-faststart" ) ) );
+		final int status = server.run( args );
+		if ( status != 0 ) System.exit( status );
+	}
+
+	public Tr2dServer( final Context context ) {
+		ops = context.getService( OpService.class );
+		segPlugins = context.getService( IndagoSegmentationPluginService.class );
+		log = context.getService( LogService.class );
+		log.info( "SERVER" );
+	}
+
+	/**
+	 * Starts the server; it keeps running in its own threads.
+	 *
+	 * @return 0 iff the server was started.
+	 */
+	public int run( final String[] args ) {
+		if ( !parseCommandLineArgs( args ) ) return 1;
+
+		gurobiAvailable = new GurobiAvailabilityCache().isAvailable();
+		if ( !gurobiAvailable ) log.warn( "Gurobi is not available... only jobs with solver=java will succeed." );
+
+		Tr2dContext.segPlugins = segPlugins;
+		Tr2dContext.ops = ops;
+		Tr2dContext.guiFrame = null;
+
+		token = createToken();
+		solverPermits = new Semaphore( numSolvers );
+		workers = new ThreadPoolExecutor( numWorkers, numWorkers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>( queueSize ) );
+
+		final HttpServer server;
+		try {
+			server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+		} catch ( final IOException e ) {
+			log.error( "Could not start server on port " + port + ": " + e.getMessage() );
+			return 2;
+		}
+		server.createContext( "/jobs", this::handle );
+		// requests are answered independently of the (possibly busy) workers
+		server.setExecutor( Executors.newFixedThreadPool( 2 ) );
+		server.start();
+		log.info( String.format( "tr2d server listening on http://localhost:%d/jobs (%d workers, %d concurrent solvers, queue of %d).",
+				server.getAddress().getPort(), numWorkers, numSolvers, queueSize ) );
+		log.info( "Send 'Authorization: Bearer " + token + "' with every request." );
+		return 0;
+	}
+
+	/**
+	 * @return a random token of 128 bits, hex encoded.
+	 */
+	private static String createToken() {
+		final byte[] bytes = new byte[ 16 ];
+		new SecureRandom().nextBytes( bytes );
+		final StringBuilder sb = new StringBuilder();
+		for ( final byte b : bytes ) {
+			sb.append( String.format( "%02x", b ) );
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return true, iff the given Host header names the loopback interface
+	 *         (localhost, 127.0.0.1 or [::1], with or without port).
+	 */
+	static boolean isLocalHost( final String host ) {
+		if ( host == null ) return false;
+		String name = host.trim().toLowerCase();
+		if ( name.startsWith( "[" ) ) {
+			final int end = name.indexOf( ']' );
+			if ( end < 0 ) return false;
+			final String port = name.substring( end + 1 );
+			if ( !port.isEmpty() && !port.matches( ":\\d+" ) ) return false;
+			name = name.substring( 1, end );
+			return "::1".equals( name );
+		}
+		final int colon = name.indexOf( ':' );
+		if ( colon >= 0 ) {
+			if ( !name.substring( colon ).matches( ":\\d+" ) ) return false;
+			name = name.substring( 0, colon );
+		}
+		return "localhost".equals( name ) || "127.0.0.1".equals( name );
+	}
+
+	/**
+	 * @return true, iff the given Authorization header carries the given
+	 *         token (compared in constant time).
+	 */
+	static boolean isAuthorized( final String authorization, final String token ) {
+		final String prefix = "Bearer ";
+		if ( authorization == null || !authorization.startsWith( prefix ) ) return false;
+		return MessageDigest.isEqual(
+				authorization.substring( prefix.length() ).trim().getBytes( StandardCharsets.UTF_8 ),
+				token.getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	private void handle( final HttpExchange exchange ) throws IOException {
+		try {
+			if ( exchange.getRequestHeaders().containsKey( "Origin" )
+					|| !isLocalHost( exchange.getRequestHeaders().getFirst( "Host" ) ) ) {
+				respond( exchange, 403, "Only local clients without Origin header are served.\n" );
+				return;
+			}
+			if ( !isAuthorized( exchange.getRequestHeaders().getFirst( "Authorization" ), token ) ) {
+				respond( exchange, 401, "Missing or wrong token (Authorization: Bearer token).\n" );
+				return;
+			}
+			final String[] path = exchange.getRequestURI().getPath().replaceAll( "/+$", "" ).split( "/" );
+			final String method = exchange.getRequestMethod();
+			if ( path.length < 2 || !"jobs".equals( path[ 1 ] ) ) {
+				respond( exchange, 404, "Unknown path.\n" );
+				return;
+			}
+			if ( path.length == 2 ) {
+				if ( "POST".equals( method ) ) {
+					submit( exchange );
+				} else if ( "GET".equals( method ) ) {
+					respond( exchange, 200, listJobs() );
+				} else {
+					respond( exchange, 405, "Use GET or POST.\n" );
+				}
+				return;
+			}
+
+			final ServerJob job;
+			try {
+				job = jobs.get( Integer.parseInt( path[ 2 ] ) );
+			} catch ( final NumberFormatException e ) {
+				respond( exchange, 404, "No such job.\n" );
+				return;
+			}
+			if ( job == null || path.length > 4 || ( path.length == 4 && !"metrics".equals( path[ 3 ] ) ) ) {
+				respond( exchange, 404, "No such job.\n" );
+			} else if ( "DELETE".equals( method ) && path.length == 3 ) {
+				if ( job.cancel() ) pruneJobs();
+				respond( exchange, 200, toString( job.toProperties() ) );
+			} else if ( !"GET".equals( method ) ) {
+				respond( exchange, 405, "Use GET or DELETE.\n" );
+			} else if ( path.length == 4 ) {
+				respond( exchange, 200, job.getTimer().toTsv() );
+			} else {
+				respond( exchange, 200, toString( job.toProperties() ) );
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void submit( final HttpExchange exchange ) throws IOException {
+		final Properties properties = new Properties();
+		try ( InputStream in = exchange.getRequestBody() ) {
+			properties.load( new InputStreamReader( in, StandardCharsets.UTF_8 ) );
+		}
+		final ServerJob job;
+		try {
+			job = ServerJob.parse( nextId.getAndIncrement(), properties );
+		} catch ( final IllegalArgumentException e ) {
+			respond( exchange, 400, e.getMessage() + "\n" );
+			return;
+		}
+		jobs.put( job.getId(), job );
+		try {
+			job.setFuture( workers.submit( () -> runJob( job ) ) );
+		} catch ( final RejectedExecutionException e ) {
+			jobs.remove( job.getId() );
+			respond( exchange, 503, "Job queue is full (" + queueSize + " jobs).\n" );
+			return;
+		}
+		log.info( String.format( "Job %d queued: %s", job.getId(), job.getProjectFolder().getAbsolutePath() ) );
+		respond( exchange, 202, toString( job.toProperties() ) );
+	}
+
+	private void runJob( final ServerJob job ) {
+		if ( !job.started() ) return;
+		int status = Tr2dHeadlessRunner.STATUS_TRACKING_FAILED;
+		try {
+			status = processJob( job );
+		} catch ( final IOException | RuntimeException e ) {
+			log.error( "Job " + job.getId() + " failed: " + e );
+		} catch ( final Error e ) {
+			log.error( "Job " + job.getId() + " failed: " + e );
+			throw e;
+		} finally {
+			job.finished( status );
+			log.info( String.format( "Job %d finished with status %d", job.getId(), status ) );
+			pruneJobs();
+		}
+	}
+
+	/**
+	 * Forgets the oldest finished jobs beyond '-history'.
+	 */
+	private synchronized void pruneJobs() {
+		final List< Integer > finished = new ArrayList<>();
+		for ( final ServerJob job : jobs.values() ) {
+			if ( job.isFinished() ) finished.add( job.getId() );
+		}
+		if ( finished.size() <= jobHistory ) return;
+		finished.sort( null );
+		for ( final Integer id : finished.subList( 0, finished.size() - jobHistory ) ) {
+			jobs.remove( id );
+		}
+	}
+
+	private int processJob( final ServerJob job ) throws IOException {
+		final File folder = job.getProjectFolder();
+		if ( !Tr2dProjectFolder.isValidProjectFolder( folder ) ) {
+			log.error( "Job " + job.getId() + ": invalid project folder " + folder.getAbsolutePath() );
+			return Tr2dBatchApplication.STATUS_INVALID_PROJECT;
+		}
+		if ( TrackingSolver.GUROBI.equals( job.getSolver() ) && !gurobiAvailable ) {
+			log.error( "Job " + job.getId() + ": Gurobi is not available." );
+			return Tr2dBatchApplication.STATUS_GUROBI_UNAVAILABLE;
+		}
+		final Tr2dProjectFolder projectFolder = new Tr2dProjectFolder( folder );
+		projectFolder.initialize();
+		final File inputStack = projectFolder.getFile( Tr2dProjectFolder.RAW_DATA ).getFile();
+
+		final StageTimer timer = job.getTimer();
+		timer.start( "stack loading" );
+		final ImageStackLoader loader = new ImageStackLoader()
+				.setLazy( lazyLoading )
+				.setMemoryMapped( memoryMapped )
+				.setMaxCachedPlanes( maxCachedPlanes );
+		if ( job.hasTimeRange() ) loader.setTimeRange( job.getMinTime(), job.getMaxTime() );
+		final ImgPlus imgPlus = loader.open( inputStack );
+		if ( imgPlus == null ) {
+			log.error( "Job " + job.getId() + ": could not open input stack " + inputStack.getAbsolutePath() );
+			timer.stop();
+			return Tr2dBatchApplication.STATUS_STACK_UNREADABLE;
+		}
+
+		final File exportFolder = job.getExportFolder();
+		if ( exportFolder != null && !exportFolder.isDirectory() && !exportFolder.mkdirs() ) {
+			log.error( "Job " + job.getId() + ": could not create export folder " + exportFolder.getAbsolutePath() );
+			timer.stop();
+			return Tr2dBatchApplication.STATUS_EXPORT_FOLDER_FAILED;
+		}
+
+		final TrackingSolver solver = TrackingSolver.create( job.getSolver(), GreedyTracker.create( job.getTrackerParameters() ) );
+
+		// the model of the job writes into its own copy of the project
+		final String name = "job_" + job.getId();
+		final Tr2dProjectFolder jobFolder;
+		try {
+			jobFolder = SubProjectFolders.create( projectFolder, name );
+		} catch ( final IOException e ) {
+			log.error( "Job " + job.getId() + ": could not create project folder for job: " + e.getMessage() );
+			timer.stop();
+			return Tr2dBatchApplication.STATUS_PROJECT_OPEN_FAILED;
+		}
+		try {
+			return new Tr2dHeadlessRunner( log, solverPermits )
+					.setSolver( solver )
+					.setTimer( timer, "" )
+					.setStreamingExport( job.isStreamingExport(), job.getMinTime() )
+					.setExportFormats( job.isSchnitzcellExport(), job.isBinaryExport(), false )
+					.run( jobFolder, imgPlus, exportFolder );
+		} finally {
+			try {
+				SubProjectFolders.delete( SubProjectFolders.getFolder( projectFolder, name ) );
+			} catch ( final IOException e ) {
+				log.warn( "Job " + job.getId() + ": could not delete job project folder: " + e.getMessage() );
+			}
+		}
+	}
+
+	private String listJobs() {
+		final List< Integer > ids = new ArrayList<>( jobs.keySet() );
+		ids.sort( null );
+		final StringBuilder sb = new StringBuilder( "id\tstate\tstatus\tproject\n" );
+		for ( final Integer id : ids ) {
+			final ServerJob job = jobs.get( id );
+			sb.append( String.format( "%d\t%s\t%d\t%s\n", id, job.getState(), job.getStatus(), job.getProjectFolder().getAbsolutePath() ) );
+		}
+		return sb.toString();
+	}
+
+	private static String toString( final Properties properties ) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		properties.store( out, null );
+		// drop the timestamp comment
+		final String text = new String( out.toByteArray(), StandardCharsets.ISO_8859_1 );
+		return text.substring( text.indexOf( '\n' ) + 1 );
+	}
+
+	private static void respond( final HttpExchange exchange, final int code, final String body ) throws IOException {
+		final byte[] bytes = body.getBytes( StandardCharsets.UTF_8 );
+		exchange.getResponseHeaders().set( "Content-Type", "text/plain; charset=utf-8" );
+		exchange.sendResponseHeaders( code, bytes.length );
+		try ( OutputStream out = exchange.getResponseBody() ) {
+			out.write( bytes );
+		}
+	}
+
+	/**
+	 * Parse command line arguments and set variables accordingly.
+	 *
+	 * @return false, iff the arguments could not be parsed.
+	 */
+	private boolean parseCommandLineArgs( final String[] args ) {
+		final String helpMessageLine1 =
+				"Tr2d server args: [-port num] [-threads num] [-solvers num] [-queue num] [-history num] [-lazy] [-cache num-planes] [-mmap] [-faststart]";
+		final Options options = getOptions();
+
+		final CommandLineParser parser = new BasicParser();
+		CommandLine cmd = null;
+		try {
+			cmd = parser.parse( options, args );
+		} catch ( final ParseException e1 ) {
+			final HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp( helpMessageLine1, "", options, "Error: " + e1.getMessage() );
+			return false;
+		}
+
+		if ( cmd.hasOption( "help" ) ) {
+			final HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp( helpMessageLine1, options );
+			return false;
+		}
+
+		if ( cmd.hasOption( "port" ) ) port = Integer.parseInt( cmd.getOptionValue( "port" ) );
+		if ( cmd.hasOption( "threads" ) ) numWorkers = Math.max( 1, Integer.parseInt( cmd.getOptionValue( "threads" ) ) );
+		if ( cmd.hasOption( "solvers" ) ) numSolvers = Math.max( 1, Integer.parseInt( cmd.getOptionValue( "solvers" ) ) );
+		if ( cmd.hasOption( "queue" ) ) queueSize = Math.max( 1, Integer.parseInt( cmd.getOptionValue( "queue" ) ) );
+		if ( cmd.hasOption( "history" ) ) jobHistory = Math.max( 0, Integer.parseInt( cmd.getOptionValue( "history" ) ) );
+		if ( cmd.hasOption( "lazy" ) ) lazyLoading = true;
+		if ( cmd.hasOption( "mmap" ) ) memoryMapped = true;
+		if ( cmd.hasOption( "cache" ) ) maxCachedPlanes = Math.max( 1, Integer.parseInt( cmd.getOptionValue( "cache" ) ) );
+		return true;
+	}
+
+	private Options getOptions() {
+		final Options options = new Options();
+		final Option help = new Option( "help", "print this message" );
+
+		final Option port = new Option( "port", "port", true, "port on localhost to listen on (default: " + DEFAULT_PORT + ")" );
+		port.setRequired( false );
+
+		final Option threads = new Option( "threads", "threads", true, "number of jobs processed concurrently" );
+		threads.setRequired( false );
+
+		final Option solvers = new Option( "solvers", "solvers", true, "max number of concurrently running tracking solves (default: 1)" );
+		solvers.setRequired( false );
+
+		final Option queue = new Option( "queue", "queue_size", true, "max number of waiting jobs (default: " + DEFAULT_QUEUE_SIZE + ")" );
+		queue.setRequired( false );
+
+		final Option history = new Option( "history", "job_history", true, "max number of finished jobs kept (default: " + DEFAULT_JOB_HISTORY + ")" );
+		history.setRequired( false );
+
+		final Option lazy = new Option( "lazy", "lazy_loading", false, "decode raw data planes on demand instead of loading the whole stack" );
+		lazy.setRequired( false );
+
+		final Option cache = new Option( "cache", "cached_planes", true, "max number of decoded planes kept in memory per job in lazy mode" );
+		cache.setRequired( false );
+
+		final Option mmap = new Option( "mmap", "memory_mapped", false, "memory-map uncompressed raw data stacks; all jobs share the OS page cache" );
+		mmap.setRequired( false );
+
+		final Option fastStart = new Option( "faststart", "only start the services needed to load TIFF stacks and run tr2d" );
+		fastStart.setRequired( false );
+
+		options.addOption( help );
+		options.addOption( port );
+		options.addOption( threads );
+		options.addOption( solvers );
+		options.addOption( queue );
+		options.addOption( history );
+		options.addOption( lazy );
+		options.addOption( cache );
+		options.addOption( mmap );
+		options.addOption( fastStart );
+		return options;
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The tracking result of a single time-point: all segments that are part of
+ * the solution, and all active links (movements, divisions, appearances and
+ * disappearances) that start or end at these segments.
+ * Segment ids are unique over all frames of a result.
+ */
+public class TrackedFrame {
+
+	public enum LinkType {
+		MOVEMENT, DIVISION, APPEARANCE, DISAPPEARANCE
+	}
+
+	/**
+	 * A segment of the tracking solution.
+	 */
+	public static class Segment {
+
+		private final int id;
+		private final long area;
+		private final double x;
+		private final double y;
+
+		public Segment( final int id, final long area, final double x, final double y ) {
+			this.id = id;
+			this.area = area;
+			this.x = x;
+			this.y = y;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public long getArea() {
+			return area;
+		}
+
+		/**
+		 * @return x-coordinate of the center of mass.
+		 */
+		public double getX() {
+			return x;
+		}
+
+		/**
+		 * @return y-coordinate of the center of mass.
+		 */
+		public double getY() {
+			return y;
+		}
+	}
+
+	/**
+	 * A lineage edge of the tracking solution. Unused targets are
+	 * {@link #NONE}, e.g. only divisions have a second target and
+	 * appearances have no source.
+	 */
+	public static class Link {
+
+		public static final int NONE = -1;
+
+		private final LinkType type;
+		private final int source;
+		private final int target1;
+		private final int target2;
+
+		public Link( final LinkType type, final int source, final int target1, final int target2 ) {
+			this.type = type;
+			this.source = source;
+			this.target1 = target1;
+			this.target2 = target2;
+		}
+
+		public LinkType getType() {
+			return type;
+		}
+
+		public int getSource() {
+			return source;
+		}
+
+		public int getTarget1() {
+			return target1;
+		}
+
+		public int getTarget2() {
+			return target2;
+		}
+	}
+
+	private final int time;
+	private final List< Segment > segments = new ArrayList<>();
+	private final List< Link > links = new ArrayList<>();
+
+	public TrackedFrame( final int time ) {
+		this.time = time;
+	}
+
+	public int getTime() {
+		return time;
+	}
+
+	public void addSegment( final Segment segment ) {
+		segments.add( segment );
+	}
+
+	public void addLink( final Link link ) {
+		links.add( link );
+	}
+
+	public List< Segment > getSegments() {
+		return Collections.unmodifiableList( segments );
+	}
+
+	public List< Link > getLinks() {
+		return Collections.unmodifiableList( links );
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.indago.data.segmentation.LabelingSegment;
+import com.indago.fg.Assignment;
+import com.indago.pg.IndicatorNode;
+import com.indago.pg.assignments.AppearanceHypothesis;
+import com.indago.pg.assignments.AssignmentNode;
+import com.indago.pg.assignments.DisappearanceHypothesis;
+import com.indago.pg.assignments.DivisionHypothesis;
+import com.indago.pg.assignments.MovementHypothesis;
+import com.indago.pg.segments.SegmentNode;
+import com.indago.tr2d.pg.Tr2dSegmentationProblem;
+import com.indago.tr2d.pg.Tr2dTrackingProblem;
+import com.indago.tr2d.ui.model.Tr2dTrackingModel;
+
+import net.imglib2.IterableInterval;
+import net.imglib2.RealLocalizable;
+
+/**
+ * Walks the tracking problem and solution of a {@link Tr2dTrackingModel} and
+ * converts them, time-point by time-point, into {@link TrackedFrame}s.
+ */
+public class TrackingSolutionReader {
+
+	/**
+	 * Receives the {@link TrackedFrame}s in order of increasing time.
+	 */
+	public interface FrameHandler {
+
+		void handle( TrackedFrame frame ) throws IOException;
+	}
+
+	/**
+	 * Receives the pixels of every segment that is part of the solution.
+	 */
+	public interface RegionHandler {
+
+		void handle( int time, int segmentId, IterableInterval< ? > region ) throws IOException;
+	}
+
+	private final Map< SegmentNode, Integer > ids = new HashMap<>();
+
+	private RegionHandler regionHandler = null;
+
+	public TrackingSolutionReader setRegionHandler( final RegionHandler regionHandler ) {
+		this.regionHandler = regionHandler;
+		return this;
+	}
+
+	/**
+	 * @return all frames of the current solution, or an empty list if no
+	 *         solution is available.
+	 */
+	public static List< TrackedFrame > read( final Tr2dTrackingModel trackingModel ) {
+		final List< TrackedFrame > frames = new ArrayList<>();
+		try {
+			new TrackingSolutionReader().forEachFrame( trackingModel, frames::add );
+		} catch ( final IOException e ) {
+			// cannot happen, adding to a list does not throw
+		}
+		return frames;
+	}
+
+	/**
+	 * Hands all frames of the current solution to the given handler, as soon
+	 * as each of them is converted.
+	 *
+	 * @return the number of frames handled (0 if no solution is available).
+	 */
+	public int forEachFrame( final Tr2dTrackingModel trackingModel, final FrameHandler handler ) throws IOException {
+		final Tr2dTrackingProblem problem = trackingModel.getTrackingProblem();
+		final Assignment< IndicatorNode > solution = trackingModel.getSolution();
+		if ( problem == null || solution == null ) return 0;
+
+		int time = 0;
+		for ( final Tr2dSegmentationProblem timepoint : problem.getTimepoints() ) {
+			handler.handle( convert( time, timepoint, solution ) );
+			time++;
+		}
+		return time;
+	}
+
+	private TrackedFrame convert( final int time, final Tr2dSegmentationProblem timepoint, final Assignment< IndicatorNode > solution ) throws IOException {
+		final TrackedFrame frame = new TrackedFrame( time );
+		for ( final SegmentNode node : timepoint.getSegments() ) {
+			if ( !isActive( solution, node ) ) continue;
+
+			final LabelingSegment segment = node.getSegment();
+			final RealLocalizable center = segment.getCenterOfMass();
+			frame.addSegment( new TrackedFrame.Segment( id( node ), segment.getArea(), center.getDoublePosition( 0 ), center.getDoublePosition( 1 ) ) );
+			if ( regionHandler != null ) regionHandler.handle( time, id( node ), segment.getRegion() );
+
+			for ( final AssignmentNode assignment : node.getInAssignments().getAllAssignments() ) {
+				if ( assignment instanceof AppearanceHypothesis && isActive( solution, assignment ) )
+					frame.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.APPEARANCE, TrackedFrame.Link.NONE, id( node ), TrackedFrame.Link.NONE ) );
+			}
+			for ( final AssignmentNode assignment : node.getOutAssignments().getAllAssignments() ) {
+				if ( !isActive( solution, assignment ) ) continue;
+				if ( assignment instanceof MovementHypothesis ) {
+					final MovementHypothesis movement = ( MovementHypothesis ) assignment;
+					frame.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.MOVEMENT, id( node ), id( movement.getDest() ), TrackedFrame.Link.NONE ) );
+				} else if ( assignment instanceof DivisionHypothesis ) {
+					final DivisionHypothesis division = ( DivisionHypothesis ) assignment;
+					frame.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.DIVISION, id( node ), id( division.getDest1() ), id( division.getDest2() ) ) );
+				} else if ( assignment instanceof DisappearanceHypothesis ) {
+					frame.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.DISAPPEARANCE, id( node ), TrackedFrame.Link.NONE, TrackedFrame.Link.NONE ) );
+				}
+			}
+		}
+		return frame;
+	}
+
+	private static boolean isActive( final Assignment< IndicatorNode > solution, final IndicatorNode node ) {
+		return solution.getAssignment( node ) == 1;
+	}
+
+	private int id( final SegmentNode node ) {
+		Integer id = ids.get( node );
+		if ( id == null ) {
+			id = ids.size();
+			ids.put( node, id );
+		}
+		return id;
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.util.List;
+
+import com.indago.tr2d.ui.model.Tr2dModel;
+
+/**
+ * A backend that solves the tracking problem of a {@link Tr2dModel}, e.g.
+ * the ILP of tr2d with Gurobi ({@link GurobiTrackingSolver}) or a pure-Java
+ * heuristic ({@link GreedyTrackingSolver}).
+ */
+public interface TrackingSolver {
+
+	/**
+	 * Backend names accepted by {@link #create(String, GreedyTracker)}.
+	 */
+	String GUROBI = "gurobi";
+	String JAVA = "java";
+
+	/**
+	 * @return a short description, used in log messages and stage names.
+	 */
+	String getName();
+
+	/**
+	 * A solve whose preparation (see {@link TrackingSolver#prepare}) is done.
+	 */
+	interface PreparedSolve {
+
+		List< TrackedFrame > solve() throws InterruptedException;
+	}
+
+	/**
+	 * Tracks the segmentation hypotheses of the given model.
+	 *
+	 * @return the solution (see {@link TrackedFrame}), or <code>null</code>
+	 *         if the solution is stored in the tracking model of
+	 *         <code>model</code> (and can be read and exported from there,
+	 *         see {@link TrackingSolutionReader}).
+	 */
+	List< TrackedFrame > solve( Tr2dModel model ) throws InterruptedException;
+
+	/**
+	 * Computes what the solve of the given model needs but that is not part
+	 * of the solve itself (the segmentation hypotheses), so that a limit on
+	 * concurrent solvers only has to cover the returned solve.
+	 *
+	 * @return the solve of the given model (see {@link #solve(Tr2dModel)}).
+	 */
+	default PreparedSolve prepare( final Tr2dModel model ) throws InterruptedException {
+		return () -> solve( model );
+	}
+
+	/**
+	 * @param greedyTracker
+	 *            the configuration used by the java backend.
+	 * @return the backend of the given name.
+	 */
+	static TrackingSolver create( final String name, final GreedyTracker greedyTracker ) {
+		if ( GUROBI.equals( name ) ) return new GurobiTrackingSolver();
+		if ( JAVA.equals( name ) ) return new GreedyTrackingSolver( greedyTracker );
+		throw new IllegalArgumentException( "Unknown solver backend: " + name );
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.scijava.log.Logger;
+
+import com.indago.tr2d.ui.model.Tr2dModel;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.img.planar.PlanarImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.view.Views;
+import trainableSegmentation.WekaSegmentation;
+
+/**
+ * Segments raw data (x,y,t) with a trained Trainable Weka Segmentation
+ * classifier, several frames at a time, as input for the java solver (see
+ * {@link GreedyTrackingSolver#setHypothesesSource}). The binary foreground
+ * mask replaces the segmentation hypotheses of the project: it is tracked by
+ * the java solver only and never seen by the tr2d model or the gurobi solver.
+ * <p>
+ * Classifiers are loaded once per JVM and file (and reloaded only if the
+ * file changed); at most {@link #MAX_CLASSIFIERS} of them are kept, the least
+ * recently used one is dropped first. All segmenters that use the same
+ * classifier file share one classifier instance, which is applied to one
+ * batch at a time: concurrent jobs (e.g. of a {@link Tr2dServer}) with the
+ * same classifier are serialized on it, while each batch is classified on
+ * <code>numThreads</code> threads. Frames are handed to the classifier in batches of
+ * <code>batchSize</code> planes. Only the float input planes are allocated
+ * once and reused for all batches; the feature stacks are computed anew by
+ * {@link WekaSegmentation#applyClassifier} for every batch (and dropped
+ * after it), so <code>batchSize</code> bounds the memory they take. The
+ * result has one plane per frame; pixels classified as the foreground class
+ * are 1, all others 0.
+ */
+public class WekaBatchSegmenter implements GreedyTrackingSolver.HypothesesSource {
+
+	public static final int DEFAULT_BATCH_SIZE = 8;
+
+	/**
+	 * Maximum number of classifiers kept loaded.
+	 */
+	public static final int MAX_CLASSIFIERS = 4;
+
+	/**
+	 * A classifier and the modification time of the file it was loaded from.
+	 */
+	private static class LoadedClassifier {
+
+		private final long lastModified;
+		private final WekaSegmentation segmentation;
+
+		LoadedClassifier( final long lastModified, final WekaSegmentation segmentation ) {
+			this.lastModified = lastModified;
+			this.segmentation = segmentation;
+		}
+	}
+
+	/**
+	 * Loaded classifiers by file path, in order of access.
+	 */
+	private static final Map< String, LoadedClassifier > CLASSIFIERS = new LinkedHashMap< String, LoadedClassifier >( 16, 0.75f, true ) {
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< String, LoadedClassifier > eldest ) {
+			return size() > MAX_CLASSIFIERS;
+		}
+	};
+
+	private final Logger log;
+	private final File classifierFile;
+	private final int batchSize;
+	private final int numThreads;
+	private int foregroundClass = 0;
+
+	/**
+	 * @param classifierFile
+	 *            a classifier saved by Trainable Weka Segmentation (or the
+	 *            tr2d Weka segmentation plugin).
+	 * @param batchSize
+	 *            number of frames classified at once.
+	 * @param numThreads
+	 *            number of threads used for features and classification.
+	 */
+	public WekaBatchSegmenter( final Logger log, final File classifierFile, final int batchSize, final int numThreads ) {
+		this.log = log;
+		this.classifierFile = classifierFile;
+		this.batchSize = Math.max( 1, batchSize );
+		this.numThreads = Math.max( 1, numThreads );
+	}
+
+	/**
+	 * Index of the class that is foreground (default: 0, the first class).
+	 */
+	public WekaBatchSegmenter setForegroundClass( final int foregroundClass ) {
+		this.foregroundClass = foregroundClass;
+		return this;
+	}
+
+	@Override
+	public RandomAccessibleInterval< ? > getHypotheses( final Tr2dModel model ) throws InterruptedException {
+		return segment( model.getRawData() );
+	}
+
+	/**
+	 * @return the classifier stored in the given file, loaded at most once
+	 *         per JVM (as long as the file does not change and the classifier
+	 *         was not dropped in favour of more recently used ones).
+	 */
+	public static WekaSegmentation loadClassifier( final File file ) {
+		final String path = file.getAbsolutePath();
+		final long lastModified = file.lastModified();
+		synchronized ( CLASSIFIERS ) {
+			final LoadedClassifier loaded = CLASSIFIERS.get( path );
+			if ( loaded != null && loaded.lastModified == lastModified ) return loaded.segmentation;
+
+			// replaces the classifier of an older version of the file
+			final WekaSegmentation segmentation = new WekaSegmentation();
+			if ( !segmentation.loadClassifier( path ) )
+				throw new IllegalArgumentException( "Could not load Weka classifier " + path );
+			CLASSIFIERS.put( path, new LoadedClassifier( lastModified, segmentation ) );
+			return segmentation;
+		}
+	}
+
+	/**
+	 * @param raw
+	 *            raw data, last dimension is time.
+	 * @return foreground masks (x,y,t).
+	 */
+	@SuppressWarnings( "unchecked" )
+	public PlanarImg< UnsignedByteType, ByteArray > segment( final RandomAccessibleInterval< ? > raw ) throws InterruptedException {
+		final WekaSegmentation classifier = loadClassifier( classifierFile );
+		final int timeDim = raw.numDimensions() - 1;
+		final int width = ( int ) raw.dimension( 0 );
+		final int height = ( int ) raw.dimension( 1 );
+		final int numFrames = ( int ) raw.dimension( timeDim );
+		final PlanarImg< UnsignedByteType, ByteArray > masks = PlanarImgs.unsignedBytes( width, height, numFrames );
+
+		// reused for all batches
+		final float[][] buffers = new float[ Math.min( batchSize, numFrames ) ][ width * height ];
+
+		for ( int start = 0; start < numFrames; start += batchSize ) {
+			if ( Thread.interrupted() ) throw new InterruptedException();
+			final int size = Math.min( batchSize, numFrames - start );
+			final ImageStack batch = new ImageStack( width, height );
+			for ( int i = 0; i < size; i++ ) {
+				final RandomAccessibleInterval< ? extends RealType< ? > > plane =
+						( RandomAccessibleInterval< ? extends RealType< ? > > ) Views.hyperSlice( raw, timeDim, raw.min( timeDim ) + start + i );
+				final Cursor< ? extends RealType< ? > > cursor = Views.flatIterable( plane ).cursor();
+				final float[] buffer = buffers[ i ];
+				for ( int j = 0; j < buffer.length; j++ ) {
+					buffer[ j ] = cursor.next().getRealFloat();
+				}
+				batch.addSlice( "t" + ( start + i ), new FloatProcessor( width, height, buffer ) );
+			}
+
+			final ImagePlus result;
+			// the classifier keeps per-image state while applied; segmenters
+			// sharing it wait for each other here
+			synchronized ( classifier ) {
+				result = classifier.applyClassifier( new ImagePlus( "batch", batch ), numThreads, false );
+			}
+			if ( result == null ) throw new IllegalStateException( "Weka classification failed for frames " + start + "-" + ( start + size - 1 ) );
+
+			for ( int i = 0; i < size; i++ ) {
+				final ImageProcessor classes = result.getStack().getProcessor( i + 1 );
+				final byte[] mask = masks.getPlane( start + i ).getCurrentStorageArray();
+				for ( int j = 0; j < mask.length; j++ ) {
+					mask[ j ] = ( byte ) ( ( int ) classes.getf( j ) == foregroundClass ? 1 : 0 );
+				}
+			}
+			log.info( String.format( "Weka segmentation: %d/%d frames", start + size, numFrames ) );
+		}
+		return masks;
+	}
+}
@@ -0,0 +1,242 @@
+/**
+ *
+ */
+package com.indago.tr2d.app.garcia;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stitches the tracking results of overlapping time windows into one result.
+ * <p>
+ * Windows have to be added in order, each one starting <code>overlap</code>
+ * frames before the end of the previous one. All but the last window must be
+ * at least twice as long as the overlap. In the overlap of two windows,
+ * the first half of the frames is taken from the earlier window, the rest
+ * from the later one. Links of the earlier window that cross this cut are
+ * re-targeted to the segments of the later window they match best (by
+ * position and size, see {@link #matchSegments(List, List)}).
+ * <p>
+ * Frames are handed to the output as soon as no later window can change
+ * them, with absolute time-points and segment ids that are unique over all
+ * windows.
+ */
+public class WindowStitcher {
+
+	private final int overlap;
+	private final TrackingSolutionReader.FrameHandler output;
+
+	/**
+	 * Frames (absolute time, global ids) of the last window that were not
+	 * emitted yet.
+	 */
+	private List< TrackedFrame > pending = new ArrayList<>();
+	private int pendingWindowEnd = -1;
+	private int idOffset = 0;
+	private int numEmitted = 0;
+
+	/**
+	 * @param overlap
+	 *            number of frames consecutive windows share (at least 1).
+	 * @param output
+	 *            receives the stitched frames in order.
+	 */
+	public WindowStitcher( final int overlap, final TrackingSolutionReader.FrameHandler output ) {
+		if ( overlap < 1 ) throw new IllegalArgumentException( "Windows must overlap by at least one frame." );
+		this.overlap = overlap;
+		this.output = output;
+	}
+
+	/**
+	 * Adds the tracking result of the next window.
+	 *
+	 * @param windowStart
+	 *            absolute time-point of the first frame of the window.
+	 * @param frames
+	 *            the result of the window, times relative to the window start
+	 *            and ids local to the window.
+	 */
+	public void addWindow( final int windowStart, final List< TrackedFrame > frames ) throws IOException {
+		final List< TrackedFrame > window = toGlobal( windowStart, frames );
+		final int windowEnd = windowStart + frames.size() - 1;
+
+		int firstKept = 0;
+		if ( pendingWindowEnd >= 0 ) {
+			if ( windowStart != pendingWindowEnd - overlap + 1 )
+				throw new IllegalArgumentException( String.format(
+						"Window starting at %d does not overlap the previous window (ending at %d) by %d frames.",
+						windowStart, pendingWindowEnd, overlap ) );
+
+			final int cut = windowStart + overlap / 2;
+			final TrackedFrame lastOfPrevious = frameAt( pending, cut - 1 );
+			final TrackedFrame cutOfPrevious = frameAt( pending, cut );
+			final TrackedFrame cutOfWindow = frameAt( window, cut );
+			final Map< Integer, Integer > matches = matchSegments( cutOfPrevious.getSegments(), cutOfWindow.getSegments() );
+
+			for ( final TrackedFrame frame : pending ) {
+				if ( frame.getTime() >= cut ) break;
+				emit( frame == lastOfPrevious ? retarget( frame, matches ) : frame );
+			}
+
+			firstKept = cut - windowStart;
+			window.set( firstKept, withoutAppearances( cutOfWindow, new HashSet<>( matches.values() ) ) );
+		}
+
+		// frames before the next overlap (and the one right before it, whose
+		// links might have to be re-targeted) are final already
+		final int lastFinal = windowEnd - overlap - 1;
+		pending = new ArrayList<>();
+		for ( int i = firstKept; i < window.size(); i++ ) {
+			final TrackedFrame frame = window.get( i );
+			if ( frame.getTime() <= lastFinal )
+				emit( frame );
+			else
+				pending.add( frame );
+		}
+		pendingWindowEnd = windowEnd;
+	}
+
+	/**
+	 * Emits all frames still pending (call after the last window was added).
+	 */
+	public void finish() throws IOException {
+		for ( final TrackedFrame frame : pending ) {
+			emit( frame );
+		}
+		pending = new ArrayList<>();
+	}
+
+	public int getNumEmittedFrames() {
+		return numEmitted;
+	}
+
+	private void emit( final TrackedFrame frame ) throws IOException {
+		output.handle( frame );
+		numEmitted++;
+	}
+
+	/**
+	 * Shifts times by the window start and makes ids unique over all windows.
+	 */
+	private List< TrackedFrame > toGlobal( final int windowStart, final List< TrackedFrame > frames ) {
+		int maxId = -1;
+		final List< TrackedFrame > global = new ArrayList<>();
+		for ( final TrackedFrame frame : frames ) {
+			final TrackedFrame shifted = new TrackedFrame( windowStart + frame.getTime() );
+			for ( final TrackedFrame.Segment s : frame.getSegments() ) {
+				shifted.addSegment( new TrackedFrame.Segment( idOffset + s.getId(), s.getArea(), s.getX(), s.getY() ) );
+				maxId = Math.max( maxId, s.getId() );
+			}
+			for ( final TrackedFrame.Link l : frame.getLinks() ) {
+				shifted.addLink( new TrackedFrame.Link( l.getType(), global( l.getSource() ), global( l.getTarget1() ), global( l.getTarget2() ) ) );
+				maxId = Math.max( maxId, Math.max( l.getSource(), Math.max( l.getTarget1(), l.getTarget2() ) ) );
+			}
+			global.add( shifted );
+		}
+		idOffset += maxId + 1;
+		return global;
+	}
+
+	private int global( final int localId ) {
+		return ( localId == TrackedFrame.Link.NONE ) ? TrackedFrame.Link.NONE : idOffset + localId;
+	}
+
+	private static TrackedFrame frameAt( final List< TrackedFrame > frames, final int time ) {
+		for ( final TrackedFrame frame : frames ) {
+			if ( frame.getTime() == time ) return frame;
+		}
+		throw new IllegalStateException( "No frame for time-point " + time + "." );
+	}
+
+	/**
+	 * Points the links of the given frame to the matched segments of the next
+	 * window. Links to unmatched segments become disappearances.
+	 */
+	private static TrackedFrame retarget( final TrackedFrame frame, final Map< Integer, Integer > matches ) {
+		final TrackedFrame result = new TrackedFrame( frame.getTime() );
+		for ( final TrackedFrame.Segment segment : frame.getSegments() ) {
+			result.addSegment( segment );
+		}
+		for ( final TrackedFrame.Link link : frame.getLinks() ) {
+			final Integer t1 = matches.get( link.getTarget1() );
+			final Integer t2 = matches.get( link.getTarget2() );
+			switch ( link.getType() ) {
+			case MOVEMENT:
+				result.addLink( ( t1 != null )
+						? new TrackedFrame.Link( TrackedFrame.LinkType.MOVEMENT, link.getSource(), t1, TrackedFrame.Link.NONE )
+						: disappearance( link.getSource() ) );
+				break;
+			case DIVISION:
+				if ( t1 != null && t2 != null )
+					result.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.DIVISION, link.getSource(), t1, t2 ) );
+				else if ( t1 != null || t2 != null )
+					result.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.MOVEMENT, link.getSource(), t1 != null ? t1 : t2, TrackedFrame.Link.NONE ) );
+				else
+					result.addLink( disappearance( link.getSource() ) );
+				break;
+			default:
+				result.addLink( link );
+			}
+		}
+		return result;
+	}
+
+	private static TrackedFrame.Link disappearance( final int source ) {
+		return new TrackedFrame.Link( TrackedFrame.LinkType.DISAPPEARANCE, source, TrackedFrame.Link.NONE, TrackedFrame.Link.NONE );
+	}
+
+	/**
+	 * Removes appearances of segments that are now continued from the
+	 * previous window.
+	 */
+	private static TrackedFrame withoutAppearances( final TrackedFrame frame, final Set< Integer > continued ) {
+		final TrackedFrame result = new TrackedFrame( frame.getTime() );
+		for ( final TrackedFrame.Segment segment : frame.getSegments() ) {
+			result.addSegment( segment );
+		}
+		for ( final TrackedFrame.Link link : frame.getLinks() ) {
+			if ( link.getType() == TrackedFrame.LinkType.APPEARANCE && continued.contains( link.getTarget1() ) ) continue;
+			result.addLink( link );
+		}
+		return result;
+	}
+
+	/**
+	 * Matches the segments of the same frame as seen by two different
+	 * windows. Two segments are candidates if their centers are closer than
+	 * the radius of the smaller one; candidates are matched one-to-one,
+	 * closest first.
+	 *
+	 * @return map from ids in <code>a</code> to ids in <code>b</code>.
+	 */
+	public static Map< Integer, Integer > matchSegments( final List< TrackedFrame.Segment > a, final List< TrackedFrame.Segment > b ) {
+		final List< double[] > candidates = new ArrayList<>();
+		for ( int i = 0; i < a.size(); i++ ) {
+			for ( int j = 0; j < b.size(); j++ ) {
+				final TrackedFrame.Segment sa = a.get( i );
+				final TrackedFrame.Segment sb = b.get( j );
+				final double distance = Math.hypot( sa.getX() - sb.getX(), sa.getY() - sb.getY() );
+				final double radius = Math.sqrt( Math.min( sa.getArea(), sb.getArea() ) / Math.PI );
+				if ( distance <= Math.max( radius, 1.0 ) ) candidates.add( new double[] { distance, i, j } );
+			}
+		}
+		Collections.sort( candidates, ( c1, c2 ) -> Double.compare( c1[ 0 ], c2[ 0 ] ) );
+
+		final Map< Integer, Integer > matches = new HashMap<>();
+		final Set< Integer > matchedB = new HashSet<>();
+		for ( final double[] candidate : candidates ) {
+			final int ida = a.get( ( int ) candidate[ 1 ] ).getId();
+			final int idb = b.get( ( int ) candidate[ 2 ] ).getId();
+			if ( matches.containsKey( ida ) || matchedB.contains( idb ) ) continue;
+			matches.put( ida, idb );
+			matchedB.add( idb );
+		}
+		return matches;
+	}
+}
@@ -0,0 +1,93 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BinaryExportTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Segment 0 moves to segment 1, which divides into segments 2 and 3.
+	 */
+	private static List< TrackedFrame > createFrames() {
+		final List< TrackedFrame > frames = new ArrayList<>();
+		final TrackedFrame t0 = new TrackedFrame( 0 );
+		t0.addSegment( new TrackedFrame.Segment( 0, 100, 10.0, 20.0 ) );
+		t0.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.APPEARANCE, TrackedFrame.Link.NONE, 0, TrackedFrame.Link.NONE ) );
+		t0.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.MOVEMENT, 0, 1, TrackedFrame.Link.NONE ) );
+		frames.add( t0 );
+		final TrackedFrame t1 = new TrackedFrame( 1 );
+		t1.addSegment( new TrackedFrame.Segment( 1, 110, 11.0, 21.0 ) );
+		t1.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.DIVISION, 1, 2, 3 ) );
+		frames.add( t1 );
+		final TrackedFrame t2 = new TrackedFrame( 2 );
+		t2.addSegment( new TrackedFrame.Segment( 2, 50, 5.0, 25.0 ) );
+		t2.addSegment( new TrackedFrame.Segment( 3, 60, 15.0, 25.0 ) );
+		frames.add( t2 );
+		return frames;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final File file = new BinaryExportWriter( 10 ).write( createFrames(), folder.getRoot() );
+		try ( BinaryExportReader reader = new BinaryExportReader( file ) ) {
+			assertEquals( 3, reader.getNumRows( BinaryExportFormat.FRAME_T ) );
+			assertEquals( 4, reader.getNumRows( BinaryExportFormat.SEG_ID ) );
+			assertEquals( 3, reader.getNumRows( BinaryExportFormat.LINK_TYPE ) );
+
+			assertEquals( 12, reader.getInt32Column( BinaryExportFormat.FRAME_T ).get( 2 ) );
+			assertEquals( 2, reader.getInt64Column( BinaryExportFormat.FRAME_SEG_START ).get( 2 ) );
+			assertEquals( 110, reader.getInt64Column( BinaryExportFormat.SEG_AREA ).get( 1 ) );
+			assertEquals( 15.0, reader.getFloat64Column( BinaryExportFormat.SEG_X ).get( 3 ), 0 );
+			assertEquals( TrackedFrame.LinkType.DIVISION.ordinal(), reader.getInt8Column( BinaryExportFormat.LINK_TYPE ).get( 2 ) );
+			assertEquals( 1, reader.findFrame( 11 ) );
+		}
+	}
+
+	@Test
+	public void testTracks() throws IOException {
+		final File file = new BinaryExportWriter( 0 ).write( createFrames(), folder.getRoot() );
+		try ( BinaryExportReader reader = new BinaryExportReader( file ) ) {
+			final IntBuffer segTrack = reader.getInt32Column( BinaryExportFormat.SEG_TRACK );
+			// the movement continues track 0, both daughters start new tracks
+			assertEquals( 0, segTrack.get( 0 ) );
+			assertEquals( 0, segTrack.get( 1 ) );
+			assertEquals( 1, segTrack.get( 2 ) );
+			assertEquals( 2, segTrack.get( 3 ) );
+
+			assertEquals( 3, reader.getNumRows( BinaryExportFormat.TRACK_ID ) );
+			final IntBuffer parents = reader.getInt32Column( BinaryExportFormat.TRACK_PARENT );
+			assertEquals( -1, parents.get( 0 ) );
+			assertEquals( 0, parents.get( 1 ) );
+			assertEquals( 0, parents.get( 2 ) );
+			assertEquals( 1, reader.getInt32Column( BinaryExportFormat.TRACK_END ).get( 0 ) );
+		}
+	}
+
+	@Test
+	public void testLabelImageFile() throws IOException {
+		final File file = new File( folder.getRoot(), LabelImageFile.FILENAME );
+		try ( LabelImageFile labels = LabelImageFile.create( file, 4, 3, 2, 5 ) ) {
+			labels.getFrame( 1 ).put( 2 * 4 + 3, 42 );
+		}
+		try ( LabelImageFile labels = LabelImageFile.open( file ) ) {
+			assertEquals( 4, labels.getWidth() );
+			assertEquals( 3, labels.getHeight() );
+			assertEquals( 2, labels.getNumFrames() );
+			assertEquals( 5, labels.getTimeOffset() );
+			assertEquals( 42, labels.getFrame( 1 ).get( 11 ) );
+			assertEquals( 0, labels.getFrame( 0 ).get( 11 ) );
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckpointStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSaveAndLoad() throws IOException {
+		final File checkpoints = new File( folder.getRoot(), CheckpointStore.FOLDER_NAME );
+		final TrackedFrame t0 = new TrackedFrame( 0 );
+		t0.addSegment( new TrackedFrame.Segment( 1, 100, 10, 10 ) );
+		t0.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.MOVEMENT, 1, 2, TrackedFrame.Link.NONE ) );
+		final TrackedFrame t1 = new TrackedFrame( 1 );
+		t1.addSegment( new TrackedFrame.Segment( 2, 100, 11, 10 ) );
+
+		final CheckpointStore store = new CheckpointStore( checkpoints, "run a" );
+		assertNull( store.load( "window_000000_000009" ) );
+		store.save( "window_000000_000009", Arrays.asList( t0, t1 ) );
+
+		final List< TrackedFrame > restored = new CheckpointStore( checkpoints, "run a" ).load( "window_000000_000009" );
+		assertEquals( 2, restored.size() );
+		assertEquals( 2, restored.get( 0 ).getLinks().get( 0 ).getTarget1() );
+		assertEquals( 11.0, restored.get( 1 ).getSegments().get( 0 ).getX(), 1e-9 );
+
+		// another input or other settings: not reused
+		assertNull( new CheckpointStore( checkpoints, "run b" ).load( "window_000000_000009" ) );
+		assertNull( store.load( "window_000006_000015" ) );
+	}
+}
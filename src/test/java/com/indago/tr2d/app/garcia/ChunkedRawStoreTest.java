@@ -0,0 +1,92 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.imagej.ImgPlus;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+public class ChunkedRawStoreTest {
+
+	private File folder;
+	private File stack;
+	private File chunks;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory( "tr2d-chunks" ).toFile();
+		// not a multiple of the block size, so border blocks are cropped
+		stack = SyntheticStack.write( folder, 300, 270, 6 );
+		chunks = new File( folder, ChunkedRawStore.FOLDER_NAME );
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		SubProjectFolders.delete( folder );
+	}
+
+	@Test
+	public void testSamePixelsAsDecodedStack() {
+		final ImgPlus< ? > chunked = new ImageStackLoader().setChunkStore( chunks ).setNumThreads( 3 ).open( stack );
+		assertTrue( ChunkedRawStore.isUpToDate( chunks, stack ) );
+		assertSamePixels( new ImageStackLoader().open( stack ), chunked );
+	}
+
+	@Test
+	public void testLazyTimeRange() {
+		new ImageStackLoader().setChunkStore( chunks ).open( stack );
+		final ImgPlus< ? > chunked = new ImageStackLoader().setChunkStore( chunks ).setLazy( true ).setMaxCachedPlanes( 1 ).setTimeRange( 2, 4 ).open( stack );
+		assertArrayEquals( new long[] { 300, 270, 3 }, Intervals.dimensionsAsLongArray( chunked ) );
+		assertSamePixels( new ImageStackLoader().setTimeRange( 2, 4 ).open( stack ), chunked );
+	}
+
+	@Test
+	public void testOutdatedWhenStackChanges() {
+		new ImageStackLoader().setChunkStore( chunks ).open( stack );
+		assertTrue( stack.setLastModified( stack.lastModified() - 10000 ) );
+		assertFalse( ChunkedRawStore.isUpToDate( chunks, stack ) );
+	}
+
+	@Test( expected = IOException.class )
+	public void testRejectsLossyType() throws IOException, InterruptedException {
+		ChunkedRawStore.convert( ArrayImgs.ints( 10, 10, 2 ), stack, chunks, ChunkedRawStore.DEFAULT_BLOCK_SIZE, 1 );
+	}
+
+	@Test
+	public void testReconvertReplacesStore() throws IOException, InterruptedException {
+		new ImageStackLoader().setChunkStore( chunks ).open( stack );
+		assertTrue( stack.setLastModified( stack.lastModified() - 10000 ) );
+		final ImgPlus< ? > chunked = new ImageStackLoader().setChunkStore( chunks ).open( stack );
+		assertTrue( ChunkedRawStore.isUpToDate( chunks, stack ) );
+		assertSamePixels( new ImageStackLoader().open( stack ), chunked );
+		// no temporary or replaced stores left behind
+		final String[] left = folder.list( ( dir, name ) -> name.startsWith( ChunkedRawStore.FOLDER_NAME ) );
+		Arrays.sort( left );
+		assertArrayEquals( new String[] { ChunkedRawStore.FOLDER_NAME, ChunkedRawStore.FOLDER_NAME + ".lock" }, left );
+	}
+
+	private static void assertSamePixels( final RandomAccessibleInterval< ? > expected, final RandomAccessibleInterval< ? > actual ) {
+		assertArrayEquals( Intervals.dimensionsAsLongArray( expected ), Intervals.dimensionsAsLongArray( actual ) );
+		final Cursor< ? > e = Views.flatIterable( expected ).cursor();
+		final Cursor< ? > a = Views.flatIterable( actual ).cursor();
+		while ( e.hasNext() ) {
+			assertEquals( ( ( RealType< ? > ) e.next() ).getRealDouble(), ( ( RealType< ? > ) a.next() ).getRealDouble(), 0 );
+		}
+	}
+}
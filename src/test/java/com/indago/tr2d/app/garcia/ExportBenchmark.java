@@ -0,0 +1,113 @@
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Writing and stitching tracking results, on synthetic solutions (one track
+ * per cell, no tr2d model or solver needed).
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class ExportBenchmark {
+
+	@Param( { "1000" } )
+	public int numFrames;
+
+	@Param( { "100" } )
+	public int numCells;
+
+	private File folder;
+	private List< TrackedFrame > frames;
+
+	@Setup( Level.Trial )
+	public void setup() throws IOException {
+		folder = Files.createTempDirectory( "tr2d-benchmark" ).toFile();
+		frames = createFrames( numFrames, numCells );
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown() throws IOException {
+		SubProjectFolders.delete( folder );
+	}
+
+	private static List< TrackedFrame > createFrames( final int numFrames, final int numCells ) {
+		final List< TrackedFrame > frames = new ArrayList<>();
+		for ( int t = 0; t < numFrames; t++ ) {
+			final TrackedFrame frame = new TrackedFrame( t );
+			for ( int c = 0; c < numCells; c++ ) {
+				final int id = t * numCells + c;
+				frame.addSegment( new TrackedFrame.Segment( id, 200, 20.0 * c + 0.1 * t, 100.0 ) );
+				if ( t < numFrames - 1 )
+					frame.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.MOVEMENT, id, id + numCells, TrackedFrame.Link.NONE ) );
+			}
+			frames.add( frame );
+		}
+		return frames;
+	}
+
+	@Benchmark
+	public File binaryExport() throws IOException {
+		return new BinaryExportWriter( 0 ).write( frames, folder );
+	}
+
+	@Benchmark
+	public int streamingExport() throws IOException {
+		try ( StreamingExporter exporter = new StreamingExporter( folder, 0 ) ) {
+			for ( final TrackedFrame frame : frames ) {
+				exporter.write( frame );
+			}
+		}
+		return frames.size();
+	}
+
+	@Benchmark
+	public int stitchWindows() throws IOException {
+		final int windowSize = 100;
+		final int overlap = 10;
+		final List< TrackedFrame > stitched = new ArrayList<>();
+		final WindowStitcher stitcher = new WindowStitcher( overlap, stitched::add );
+		for ( final int[] window : SlidingWindowTracker.computeWindows( 0, numFrames - 1, windowSize, overlap ) ) {
+			final List< TrackedFrame > local = new ArrayList<>();
+			for ( int t = window[ 0 ]; t <= window[ 1 ]; t++ ) {
+				final TrackedFrame frame = frames.get( t );
+				final TrackedFrame shifted = new TrackedFrame( t - window[ 0 ] );
+				frame.getSegments().forEach( shifted::addSegment );
+				if ( t < window[ 1 ] ) frame.getLinks().forEach( shifted::addLink );
+				local.add( shifted );
+			}
+			stitcher.addWindow( window[ 0 ], local );
+		}
+		stitcher.finish();
+		return stitched.size();
+	}
+
+	public static void main( final String... args ) throws RunnerException {
+		new Runner( new OptionsBuilder().include( ExportBenchmark.class.getSimpleName() ).build() ).run();
+	}
+}
@@ -0,0 +1,72 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class GreedyTrackerTest {
+
+	private static void fill( final int[] labels, final int width, final int x0, final int y0, final int x1, final int y1 ) {
+		for ( int y = y0; y <= y1; y++ ) {
+			for ( int x = x0; x <= x1; x++ ) {
+				labels[ y * width + x ] = 1;
+			}
+		}
+	}
+
+	@Test
+	public void testFindSegments() {
+		final int[] labels = new int[ 20 * 10 ];
+		fill( labels, 20, 1, 1, 4, 4 );
+		fill( labels, 20, 10, 2, 14, 5 );
+		fill( labels, 20, 18, 8, 18, 8 ); // too small
+		final List< TrackedFrame.Segment > segments = GreedyTracker.findSegments( labels, 20, 10, 4, 7 );
+		assertEquals( 2, segments.size() );
+		assertEquals( 7, segments.get( 0 ).getId() );
+		assertEquals( 16, segments.get( 0 ).getArea() );
+		assertEquals( 2.5, segments.get( 0 ).getX(), 1e-9 );
+		assertEquals( 2.5, segments.get( 0 ).getY(), 1e-9 );
+		assertEquals( 8, segments.get( 1 ).getId() );
+		assertEquals( 20, segments.get( 1 ).getArea() );
+		assertEquals( 12.0, segments.get( 1 ).getX(), 1e-9 );
+	}
+
+	@Test
+	public void testMovementAndDivision() {
+		final List< List< TrackedFrame.Segment > > segments = new ArrayList<>();
+		segments.add( Arrays.asList( new TrackedFrame.Segment( 0, 100, 10, 10 ) ) );
+		segments.add( Arrays.asList( new TrackedFrame.Segment( 1, 100, 12, 10 ) ) );
+		segments.add( Arrays.asList(
+				new TrackedFrame.Segment( 2, 50, 12, 6 ),
+				new TrackedFrame.Segment( 3, 50, 12, 14 ),
+				new TrackedFrame.Segment( 4, 100, 200, 200 ) ) );
+
+		final List< TrackedFrame > frames = new GreedyTracker().track( segments );
+		assertEquals( 3, frames.size() );
+
+		final List< TrackedFrame.Link > first = frames.get( 0 ).getLinks();
+		assertEquals( 2, first.size() );
+		assertEquals( TrackedFrame.LinkType.APPEARANCE, first.get( 0 ).getType() );
+		assertEquals( TrackedFrame.LinkType.MOVEMENT, first.get( 1 ).getType() );
+		assertEquals( 1, first.get( 1 ).getTarget1() );
+
+		final List< TrackedFrame.Link > second = frames.get( 1 ).getLinks();
+		assertEquals( 1, second.size() );
+		assertEquals( TrackedFrame.LinkType.DIVISION, second.get( 0 ).getType() );
+
+		final List< TrackedFrame.Link > third = frames.get( 2 ).getLinks();
+		assertEquals( 1, third.size() );
+		assertEquals( TrackedFrame.LinkType.APPEARANCE, third.get( 0 ).getType() );
+		assertEquals( 4, third.get( 0 ).getTarget1() );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testUnknownParameter() {
+		GreedyTracker.create( Collections.singletonMap( "speed", 1.0 ) );
+	}
+}
@@ -0,0 +1,62 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.imagej.ImgPlus;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+public class MappedTiffStackTest {
+
+	private File folder;
+	private File stack;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory( "tr2d-mmap" ).toFile();
+		stack = SyntheticStack.write( folder, 64, 48, 10 );
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		SubProjectFolders.delete( folder );
+	}
+
+	@Test
+	public void testSamePixelsAsDecodedStack() throws IOException {
+		assertTrue( MappedTiffStack.isMappable( stack ) );
+		final ImgPlus< ? > mapped = MappedTiffStack.open( stack, 0, Integer.MAX_VALUE );
+		assertNotNull( mapped );
+		assertSamePixels( new ImageStackLoader().open( stack ), mapped );
+	}
+
+	@Test
+	public void testTimeRange() throws IOException {
+		final ImgPlus< ? > mapped = new ImageStackLoader().setMemoryMapped( true ).setTimeRange( 3, 6 ).open( stack );
+		assertArrayEquals( new long[] { 64, 48, 4 }, Intervals.dimensionsAsLongArray( mapped ) );
+		assertSamePixels( new ImageStackLoader().setTimeRange( 3, 6 ).open( stack ), mapped );
+	}
+
+	private static void assertSamePixels( final RandomAccessibleInterval< ? > expected, final RandomAccessibleInterval< ? > actual ) {
+		assertArrayEquals( Intervals.dimensionsAsLongArray( expected ), Intervals.dimensionsAsLongArray( actual ) );
+		final Cursor< ? > e = Views.flatIterable( expected ).cursor();
+		final Cursor< ? > a = Views.flatIterable( actual ).cursor();
+		while ( e.hasNext() ) {
+			assertEquals( ( ( RealType< ? > ) e.next() ).getRealDouble(), ( ( RealType< ? > ) a.next() ).getRealDouble(), 0 );
+		}
+	}
+}
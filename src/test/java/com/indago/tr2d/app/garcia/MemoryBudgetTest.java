@@ -0,0 +1,44 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MemoryBudgetTest {
+
+	private static final long MB = 1024 * 1024;
+
+	@Test
+	public void testParse() {
+		assertEquals( 512 * MB, MemoryBudget.parse( "512m" ) );
+		assertEquals( 6 * 1024 * MB, MemoryBudget.parse( "6G" ) );
+		assertEquals( 100 * MB, MemoryBudget.parse( "100" ) );
+		assertEquals( 1536 * MB, MemoryBudget.parse( "1.5g" ) );
+	}
+
+	@Test( expected = NumberFormatException.class )
+	public void testParseUnknownUnit() {
+		MemoryBudget.parse( "3t" );
+	}
+
+	@Test
+	public void testSizing() {
+		// 1024x1024 16 bit, 200 frames: 400 MB raw, 24 MB model per frame
+		final MemoryBudget budget = new MemoryBudget( 1024 * MB, 1024, 1024, 2, 200 );
+		assertFalse( budget.fitsRawData() );
+		assertEquals( 128, budget.getCachedPlanes( ImageStackLoader.DEFAULT_CACHED_PLANES * 4 ) );
+		assertEquals( 10, budget.getMaxFramesInFlight() );
+		assertEquals( 4, budget.getSegmentationChunkSize( 4 ) );
+		assertEquals( 2, budget.getSegmentationThreads( 8, 4 ) );
+		assertEquals( 21, budget.getWindowSize() );
+		assertFalse( budget.isTooSmall() );
+
+		// everything fits
+		final MemoryBudget large = new MemoryBudget( 16 * 1024 * MB, 512, 512, 1, 100 );
+		assertTrue( large.fitsRawData() );
+		assertEquals( 0, large.getWindowSize() );
+		assertEquals( 8, large.getSegmentationThreads( 8, 4 ) );
+	}
+}
@@ -0,0 +1,79 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentationCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static SegmentationCache.Plane createPlane( final int seed ) {
+		final Random random = new Random( seed );
+		final int[] labels = new int[ 64 * 32 ];
+		for ( int i = 0; i < labels.length; i += 16 ) {
+			final int label = random.nextInt( 5 );
+			for ( int j = i; j < i + 16; j++ )
+				labels[ j ] = label;
+		}
+		return new SegmentationCache.Plane( 64, 32, labels );
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final File cacheFolder = new File( folder.getRoot(), SegmentationCache.FOLDER_NAME );
+		final SegmentationCache.Plane plane = createPlane( 1 );
+		final String key = SegmentationCache.key( 42L, 3, "hypotheses-0", "params" );
+		new SegmentationCache( cacheFolder, SegmentationCache.DEFAULT_MAX_BYTES ).put( key, plane );
+
+		// a new instance, as after a restart
+		final SegmentationCache cache = new SegmentationCache( cacheFolder, SegmentationCache.DEFAULT_MAX_BYTES );
+		assertTrue( cache.getTotalBytes() > 0 );
+		final SegmentationCache.Plane restored = cache.get( key );
+		assertNotNull( restored );
+		assertEquals( 64, restored.getWidth() );
+		assertEquals( 32, restored.getHeight() );
+		assertArrayEquals( plane.getLabels(), restored.getLabels() );
+		assertNull( cache.get( SegmentationCache.key( 42L, 3, "hypotheses-0", "other params" ) ) );
+		assertEquals( 1, cache.getHits() );
+		assertEquals( 1, cache.getMisses() );
+	}
+
+	@Test
+	public void testKeys() {
+		final String key = SegmentationCache.key( 42L, 3, "hypotheses-0", "params" );
+		assertEquals( key, SegmentationCache.key( 42L, 3, "hypotheses-0", "params" ) );
+		assertNotEquals( key, SegmentationCache.key( 43L, 3, "hypotheses-0", "params" ) );
+		assertNotEquals( key, SegmentationCache.key( 42L, 4, "hypotheses-0", "params" ) );
+		assertNotEquals( key, SegmentationCache.key( 42L, 3, "hypotheses-1", "params" ) );
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		final File cacheFolder = new File( folder.getRoot(), SegmentationCache.FOLDER_NAME );
+		final SegmentationCache unbounded = new SegmentationCache( cacheFolder, Long.MAX_VALUE );
+		unbounded.put( "a", createPlane( 1 ) );
+		final long entryBytes = unbounded.getTotalBytes();
+
+		final SegmentationCache cache = new SegmentationCache( cacheFolder, 2 * entryBytes + entryBytes / 2 );
+		new File( cacheFolder, "a.seg" ).setLastModified( System.currentTimeMillis() - 10000 );
+		cache.put( "b", createPlane( 1 ) );
+		cache.put( "c", createPlane( 1 ) );
+		assertNull( cache.get( "a" ) );
+		assertNotNull( cache.get( "b" ) );
+		assertNotNull( cache.get( "c" ) );
+		assertTrue( cache.getTotalBytes() <= 2 * entryBytes + entryBytes / 2 );
+	}
+}
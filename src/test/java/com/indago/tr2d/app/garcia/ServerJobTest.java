@@ -0,0 +1,76 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class ServerJobTest {
+
+	private static Properties properties( final String text ) throws IOException {
+		final Properties properties = new Properties();
+		properties.load( new StringReader( text ) );
+		return properties;
+	}
+
+	@Test
+	public void testParse() throws IOException {
+		final ServerJob job = ServerJob.parse( 3, properties( "project=/data/p1\nexport=/data/out\ntmin=5\ntmax=20\nsolver=java\nexportformat=both\nmaxCost=30\n" ) );
+		assertEquals( 3, job.getId() );
+		assertEquals( "/data/out", job.getExportFolder().getPath() );
+		assertTrue( job.hasTimeRange() );
+		assertEquals( 5, job.getMinTime() );
+		assertEquals( 20, job.getMaxTime() );
+		assertTrue( job.isSchnitzcellExport() );
+		assertTrue( job.isBinaryExport() );
+		assertFalse( job.isStreamingExport() );
+		assertEquals( 30.0, job.getTrackerParameters().get( "maxCost" ), 1e-9 );
+		assertEquals( ServerJob.State.QUEUED, job.getState() );
+		assertEquals( "QUEUED", job.toProperties().getProperty( "state" ) );
+
+		final ServerJob defaults = ServerJob.parse( 4, properties( "project=/data/p2\n" ) );
+		assertNull( defaults.getExportFolder() );
+		assertFalse( defaults.hasTimeRange() );
+		assertEquals( TrackingSolver.GUROBI, defaults.getSolver() );
+		assertFalse( defaults.isBinaryExport() );
+	}
+
+	@Test
+	public void testCancelledJobDoesNotStart() throws IOException {
+		final ServerJob job = ServerJob.parse( 1, properties( "project=/data/p1\n" ) );
+		assertTrue( job.cancel() );
+		assertTrue( job.isFinished() );
+		assertFalse( job.started() );
+		assertEquals( ServerJob.State.CANCELLED, job.getState() );
+		assertFalse( job.cancel() );
+	}
+
+	@Test
+	public void testCancelledRunningJobFinishes() throws IOException {
+		final ServerJob job = ServerJob.parse( 1, properties( "project=/data/p1\n" ) );
+		assertTrue( job.started() );
+		assertTrue( job.cancel() );
+		// still running until its worker returns
+		assertFalse( job.isFinished() );
+		job.finished( Tr2dHeadlessRunner.STATUS_INTERRUPTED );
+		assertTrue( job.isFinished() );
+		assertEquals( ServerJob.State.CANCELLED, job.getState() );
+		assertEquals( Tr2dHeadlessRunner.STATUS_INTERRUPTED, job.getStatus() );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testMissingProject() throws IOException {
+		ServerJob.parse( 1, properties( "tmin=3\n" ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testInvalidTimeRange() throws IOException {
+		ServerJob.parse( 1, properties( "project=/data/p1\ntmin=10\ntmax=5\n" ) );
+	}
+}
@@ -0,0 +1,95 @@
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import net.imagej.ImgPlus;
+import net.imglib2.Cursor;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+/**
+ * Opening the raw data stack (as done by <code>Tr2dApplication</code>) in the
+ * loading modes used in production, followed by reading all pixels once.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class StackLoadingBenchmark {
+
+	@Param( { "full", "lazy", "mmap", "chunks" } )
+	public String mode;
+
+	@Param( { "100" } )
+	public int numFrames;
+
+	private File folder;
+	private File stack;
+
+	@Setup( Level.Trial )
+	public void setup() throws IOException {
+		folder = Files.createTempDirectory( "tr2d-benchmark" ).toFile();
+		stack = SyntheticStack.write( folder, 512, 512, numFrames );
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown() throws IOException {
+		SubProjectFolders.delete( folder );
+	}
+
+	/**
+	 * In mode <code>chunks</code>, the first invocation (a warmup) converts
+	 * the stack.
+	 */
+	private ImageStackLoader loader() {
+		final ImageStackLoader loader = new ImageStackLoader().setLazy( "lazy".equals( mode ) ).setMemoryMapped( "mmap".equals( mode ) );
+		if ( "chunks".equals( mode ) ) loader.setChunkStore( new File( folder, ChunkedRawStore.FOLDER_NAME ) );
+		return loader;
+	}
+
+	@Benchmark
+	public void openStack( final Blackhole blackhole ) {
+		blackhole.consume( readAll( loader().open( stack ) ) );
+	}
+
+	@Benchmark
+	public void openTimeWindow( final Blackhole blackhole ) {
+		blackhole.consume( readAll( loader().setTimeRange( numFrames / 4, numFrames / 2 ).open( stack ) ) );
+	}
+
+	private static double readAll( final ImgPlus< ? > img ) {
+		double sum = 0;
+		final Cursor< ? > cursor = Views.flatIterable( img ).cursor();
+		while ( cursor.hasNext() ) {
+			sum += ( ( RealType< ? > ) cursor.next() ).getRealDouble();
+		}
+		return sum;
+	}
+
+	public static void main( final String... args ) throws RunnerException {
+		new Runner( new OptionsBuilder().include( StackLoadingBenchmark.class.getSimpleName() ).build() ).run();
+	}
+}
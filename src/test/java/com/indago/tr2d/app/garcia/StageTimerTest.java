@@ -0,0 +1,22 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class StageTimerTest {
+
+	@Test
+	public void testAllocatedSince() {
+		final Map< Long, Long > start = new HashMap<>();
+		start.put( 1L, 100L );
+		start.put( 2L, 5000L ); // ends during the stage
+		final Map< Long, Long > end = new HashMap<>();
+		end.put( 1L, 150L );
+		end.put( 3L, 20L ); // started during the stage
+		assertEquals( 70, StageTimer.allocatedSince( start, end ) );
+	}
+}
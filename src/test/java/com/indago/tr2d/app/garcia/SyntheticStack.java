@@ -0,0 +1,59 @@
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.util.Random;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.io.FileSaver;
+import ij.process.ShortProcessor;
+
+/**
+ * Writes TIFF stacks of bright, slowly moving discs on a noisy background, to
+ * be used as raw data in benchmarks.
+ */
+public class SyntheticStack {
+
+	public static final int NUM_CELLS = 20;
+	public static final int RADIUS = 8;
+
+	/**
+	 * @return the written file.
+	 */
+	public static File write( final File folder, final int width, final int height, final int numFrames ) {
+		final Random random = new Random( 42 );
+		final double[][] cells = new double[ NUM_CELLS ][ 4 ];
+		for ( final double[] cell : cells ) {
+			cell[ 0 ] = RADIUS + random.nextDouble() * ( width - 2 * RADIUS );
+			cell[ 1 ] = RADIUS + random.nextDouble() * ( height - 2 * RADIUS );
+			cell[ 2 ] = random.nextGaussian();
+			cell[ 3 ] = random.nextGaussian();
+		}
+
+		final ImageStack stack = new ImageStack( width, height );
+		for ( int t = 0; t < numFrames; t++ ) {
+			final short[] pixels = new short[ width * height ];
+			for ( int i = 0; i < pixels.length; i++ ) {
+				pixels[ i ] = ( short ) ( 100 + random.nextInt( 20 ) );
+			}
+			for ( final double[] cell : cells ) {
+				cell[ 0 ] = Math.max( RADIUS, Math.min( width - RADIUS - 1, cell[ 0 ] + cell[ 2 ] ) );
+				cell[ 1 ] = Math.max( RADIUS, Math.min( height - RADIUS - 1, cell[ 1 ] + cell[ 3 ] ) );
+				for ( int y = ( int ) cell[ 1 ] - RADIUS; y <= ( int ) cell[ 1 ] + RADIUS; y++ ) {
+					for ( int x = ( int ) cell[ 0 ] - RADIUS; x <= ( int ) cell[ 0 ] + RADIUS; x++ ) {
+						final double dx = x - cell[ 0 ];
+						final double dy = y - cell[ 1 ];
+						if ( dx * dx + dy * dy <= RADIUS * RADIUS ) pixels[ y * width + x ] = ( short ) ( 1000 + random.nextInt( 100 ) );
+					}
+				}
+			}
+			stack.addSlice( "t" + t, new ShortProcessor( width, height, pixels, null ) );
+		}
+
+		final ImagePlus imagePlus = new ImagePlus( "synthetic", stack );
+		imagePlus.setDimensions( 1, 1, numFrames );
+		final File file = new File( folder, "synthetic_" + width + "x" + height + "x" + numFrames + ".tif" );
+		new FileSaver( imagePlus ).saveAsTiffStack( file.getAbsolutePath() );
+		return file;
+	}
+}
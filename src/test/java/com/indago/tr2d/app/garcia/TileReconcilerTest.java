@@ -0,0 +1,94 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TileReconcilerTest {
+
+	/**
+	 * One cell moving right by 10 pixels per frame, starting at x=30, as seen
+	 * by the given tile (positions relative to the tile, ids local). Frames
+	 * in which the cell lies outside the tile are empty.
+	 */
+	private static List< TrackedFrame > createTile( final TileReconciler.Tile tile, final int numFrames ) {
+		final List< TrackedFrame > frames = new ArrayList<>();
+		boolean visible = false;
+		for ( int t = 0; t < numFrames; t++ ) {
+			final TrackedFrame frame = new TrackedFrame( t );
+			final double x = 30 + 10 * t;
+			if ( x >= tile.getMinX() && x <= tile.getMaxX() ) {
+				frame.addSegment( new TrackedFrame.Segment( t, 100, x - tile.getMinX(), 20.0 ) );
+				if ( !visible )
+					frame.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.APPEARANCE, TrackedFrame.Link.NONE, t, TrackedFrame.Link.NONE ) );
+				final double next = x + 10;
+				if ( t < numFrames - 1 ) {
+					frame.addLink( ( next <= tile.getMaxX() )
+							? new TrackedFrame.Link( TrackedFrame.LinkType.MOVEMENT, t, t + 1, TrackedFrame.Link.NONE )
+							: new TrackedFrame.Link( TrackedFrame.LinkType.DISAPPEARANCE, t, TrackedFrame.Link.NONE, TrackedFrame.Link.NONE ) );
+				}
+				visible = true;
+			}
+			frames.add( frame );
+		}
+		return frames;
+	}
+
+	@Test
+	public void testCoresPartitionTheFrame() {
+		final List< TileReconciler.Tile > tiles = TileReconciler.computeTiles( 100, 70, 60, 20 );
+		assertEquals( 4, tiles.size() );
+		for ( int y = 0; y < 70; y++ ) {
+			for ( int x = 0; x < 100; x++ ) {
+				int owners = 0;
+				for ( final TileReconciler.Tile tile : tiles ) {
+					if ( tile.coreContains( x, y ) ) {
+						owners++;
+						assertTrue( x >= tile.getMinX() && x <= tile.getMaxX() && y >= tile.getMinY() && y <= tile.getMaxY() );
+					}
+				}
+				assertEquals( 1, owners );
+			}
+		}
+	}
+
+	@Test
+	public void testTrackCrossingTileBorderIsContinuous() throws IOException {
+		final List< TileReconciler.Tile > tiles = TileReconciler.computeTiles( 100, 40, 60, 20 );
+		assertEquals( 2, tiles.size() );
+		final List< List< TrackedFrame > > tileFrames = new ArrayList<>();
+		for ( final TileReconciler.Tile tile : tiles ) {
+			tileFrames.add( createTile( tile, 6 ) );
+		}
+
+		final List< TrackedFrame > result = new ArrayList<>();
+		new TileReconciler( tiles ).reconcile( tileFrames, result::add );
+
+		assertEquals( 6, result.size() );
+		int movements = 0;
+		int appearances = 0;
+		int disappearances = 0;
+		for ( int t = 0; t < result.size(); t++ ) {
+			final TrackedFrame frame = result.get( t );
+			assertEquals( 1, frame.getSegments().size() );
+			assertEquals( 30 + 10 * t, frame.getSegments().get( 0 ).getX(), 1e-9 );
+			for ( final TrackedFrame.Link link : frame.getLinks() ) {
+				if ( link.getType() == TrackedFrame.LinkType.MOVEMENT ) {
+					movements++;
+					assertEquals( frame.getSegments().get( 0 ).getId(), link.getSource() );
+					assertEquals( result.get( t + 1 ).getSegments().get( 0 ).getId(), link.getTarget1() );
+				}
+				if ( link.getType() == TrackedFrame.LinkType.APPEARANCE ) appearances++;
+				if ( link.getType() == TrackedFrame.LinkType.DISAPPEARANCE ) disappearances++;
+			}
+		}
+		assertEquals( 5, movements );
+		assertEquals( 1, appearances );
+		assertEquals( 0, disappearances );
+	}
+}
@@ -0,0 +1,27 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class Tr2dBatchApplicationTest {
+
+	@Test
+	public void testExportNames() {
+		final File a = new File( "/data/2017/exp1/project" );
+		final File b = new File( "/data/2018/exp1/project" );
+		final File c = new File( "/data/2018/other" );
+		final Map< File, String > names = Tr2dBatchApplication.getExportNames( Arrays.asList( a, b, c ) );
+		assertEquals( "2017_exp1_project", names.get( a ) );
+		assertEquals( "2018_exp1_project", names.get( b ) );
+		assertEquals( "other", names.get( c ) );
+
+		// the same folder twice
+		final Map< File, String > twice = Tr2dBatchApplication.getExportNames( Arrays.asList( a, new File( "/data/2017/exp1/./project" ) ) );
+		assertEquals( "project", twice.get( a ) );
+	}
+}
@@ -0,0 +1,56 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.plugin.PluginService;
+import org.scijava.service.Service;
+
+import com.indago.plugins.seg.IndagoSegmentationPlugin;
+
+public class Tr2dContextsTest {
+
+	@Test
+	public void testFastStartContextFindsAllSegmentationPlugins() {
+		final Context full = Tr2dContexts.createFullContext();
+		final Context fast = Tr2dContexts.createFastStartContext();
+		try {
+			assertEquals(
+					full.service( PluginService.class ).getPluginsOfType( IndagoSegmentationPlugin.class ).size(),
+					fast.service( PluginService.class ).getPluginsOfType( IndagoSegmentationPlugin.class ).size() );
+		} finally {
+			full.dispose();
+			fast.dispose();
+		}
+	}
+
+	@Test
+	@SuppressWarnings( "unchecked" )
+	public void testFastStartContextHasServicesOfSegmentationPlugins() throws Exception {
+		final Context context = Tr2dContexts.createFastStartContext();
+		try {
+			final List< PluginInfo< IndagoSegmentationPlugin > > plugins =
+					context.service( PluginService.class ).getPluginsOfType( IndagoSegmentationPlugin.class );
+			for ( final PluginInfo< IndagoSegmentationPlugin > info : plugins ) {
+				for ( Class< ? > c = info.loadClass(); c != null; c = c.getSuperclass() ) {
+					for ( final Field field : c.getDeclaredFields() ) {
+						final Parameter parameter = field.getAnnotation( Parameter.class );
+						if ( parameter == null || !parameter.required() || !Service.class.isAssignableFrom( field.getType() ) ) continue;
+						assertNotNull(
+								info.getClassName() + " needs " + field.getType().getName(),
+								context.getService( ( Class< ? extends Service > ) field.getType() ) );
+					}
+				}
+			}
+		} finally {
+			context.dispose();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.indago.tr2d.app.garcia;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.scijava.Context;
+
+import com.indago.plugins.seg.IndagoSegmentationPluginService;
+import com.indago.tr2d.Tr2dContext;
+import com.indago.tr2d.io.projectfolder.Tr2dProjectFolder;
+import com.indago.tr2d.ui.model.Tr2dModel;
+
+import net.imagej.ImgPlus;
+import net.imagej.ops.OpService;
+
+/**
+ * Construction of the tr2d model on a synthetic project, the first stage
+ * <code>Tr2dApplication</code> runs after loading the raw data. Segmentation
+ * and tracking are not benchmarked here: the synthetic project has no
+ * configured segmentation plugin, so there is nothing real to segment and
+ * track.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 1 )
+@Measurement( iterations = 3 )
+@Fork( 1 )
+public class Tr2dPipelineBenchmark {
+
+	private static final int NUM_FRAMES = 20;
+
+	private Context context;
+	private File folder;
+	private File stack;
+	private Tr2dProjectFolder projectFolder;
+	private ImgPlus imgPlus;
+
+	@Setup( Level.Trial )
+	public void setup() throws IOException {
+		context = Tr2dContexts.createFastStartContext();
+		Tr2dContext.ops = context.getService( OpService.class );
+		Tr2dContext.segPlugins = context.getService( IndagoSegmentationPluginService.class );
+
+		folder = Files.createTempDirectory( "tr2d-benchmark" ).toFile();
+		stack = SyntheticStack.write( folder, 256, 256, NUM_FRAMES );
+		final File project = new File( folder, "project" );
+		project.mkdirs();
+		projectFolder = new Tr2dProjectFolder( project );
+		projectFolder.initialize( stack );
+		imgPlus = new ImageStackLoader().open( stack );
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown() throws IOException {
+		context.dispose();
+		SubProjectFolders.delete( folder );
+	}
+
+	@Benchmark
+	public Tr2dModel modelConstruction() {
+		final Tr2dModel model = new Tr2dModel( projectFolder, imgPlus );
+		model.close();
+		return model;
+	}
+
+	public static void main( final String... args ) throws RunnerException {
+		new Runner( new OptionsBuilder().include( Tr2dPipelineBenchmark.class.getSimpleName() ).build() ).run();
+	}
+}
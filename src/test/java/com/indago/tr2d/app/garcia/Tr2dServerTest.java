@@ -0,0 +1,35 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class Tr2dServerTest {
+
+	@Test
+	public void testIsLocalHost() {
+		assertTrue( Tr2dServer.isLocalHost( "localhost" ) );
+		assertTrue( Tr2dServer.isLocalHost( "LocalHost:8765" ) );
+		assertTrue( Tr2dServer.isLocalHost( "127.0.0.1:8765" ) );
+		assertTrue( Tr2dServer.isLocalHost( "[::1]:8765" ) );
+		assertTrue( Tr2dServer.isLocalHost( "[::1]" ) );
+
+		assertFalse( Tr2dServer.isLocalHost( null ) );
+		assertFalse( Tr2dServer.isLocalHost( "" ) );
+		assertFalse( Tr2dServer.isLocalHost( "evil.example.com" ) );
+		assertFalse( Tr2dServer.isLocalHost( "localhost.evil.example.com:8765" ) );
+		assertFalse( Tr2dServer.isLocalHost( "localhost:8765@evil" ) );
+		assertFalse( Tr2dServer.isLocalHost( "[::2]:8765" ) );
+	}
+
+	@Test
+	public void testIsAuthorized() {
+		assertTrue( Tr2dServer.isAuthorized( "Bearer 0123abcd", "0123abcd" ) );
+
+		assertFalse( Tr2dServer.isAuthorized( null, "0123abcd" ) );
+		assertFalse( Tr2dServer.isAuthorized( "0123abcd", "0123abcd" ) );
+		assertFalse( Tr2dServer.isAuthorized( "Bearer 0123abce", "0123abcd" ) );
+		assertFalse( Tr2dServer.isAuthorized( "Bearer ", "0123abcd" ) );
+	}
+}
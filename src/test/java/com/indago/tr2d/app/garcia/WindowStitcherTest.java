@@ -0,0 +1,84 @@
+package com.indago.tr2d.app.garcia;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WindowStitcherTest {
+
+	/**
+	 * One cell moving right by one pixel per frame, as seen by a window of
+	 * <code>numFrames</code> frames starting at <code>start</code>.
+	 */
+	private static List< TrackedFrame > createWindow( final int start, final int numFrames, final double y ) {
+		final List< TrackedFrame > frames = new ArrayList<>();
+		for ( int t = 0; t < numFrames; t++ ) {
+			final TrackedFrame frame = new TrackedFrame( t );
+			frame.addSegment( new TrackedFrame.Segment( t, 100, 10.0 + start + t, y ) );
+			if ( t == 0 )
+				frame.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.APPEARANCE, TrackedFrame.Link.NONE, t, TrackedFrame.Link.NONE ) );
+			if ( t < numFrames - 1 )
+				frame.addLink( new TrackedFrame.Link( TrackedFrame.LinkType.MOVEMENT, t, t + 1, TrackedFrame.Link.NONE ) );
+			frames.add( frame );
+		}
+		return frames;
+	}
+
+	@Test
+	public void testComputeWindows() {
+		final List< int[] > windows = SlidingWindowTracker.computeWindows( 5, 20, 8, 2 );
+		assertEquals( 3, windows.size() );
+		assertEquals( 5, windows.get( 0 )[ 0 ] );
+		assertEquals( 12, windows.get( 0 )[ 1 ] );
+		assertEquals( 11, windows.get( 1 )[ 0 ] );
+		assertEquals( 17, windows.get( 2 )[ 0 ] );
+		assertEquals( 20, windows.get( 2 )[ 1 ] );
+	}
+
+	@Test
+	public void testStitchedTrackIsContinuous() throws IOException {
+		final List< TrackedFrame > result = new ArrayList<>();
+		final WindowStitcher stitcher = new WindowStitcher( 2, result::add );
+		stitcher.addWindow( 0, createWindow( 0, 4, 20.0 ) );
+		stitcher.addWindow( 2, createWindow( 2, 4, 20.0 ) );
+		stitcher.finish();
+
+		assertEquals( 6, result.size() );
+		int appearances = 0;
+		for ( int t = 0; t < result.size(); t++ ) {
+			final TrackedFrame frame = result.get( t );
+			assertEquals( t, frame.getTime() );
+			assertEquals( 1, frame.getSegments().size() );
+			for ( final TrackedFrame.Link link : frame.getLinks() ) {
+				if ( link.getType() == TrackedFrame.LinkType.APPEARANCE ) {
+					appearances++;
+				} else {
+					assertEquals( TrackedFrame.LinkType.MOVEMENT, link.getType() );
+					assertEquals( frame.getSegments().get( 0 ).getId(), link.getSource() );
+					assertEquals( result.get( t + 1 ).getSegments().get( 0 ).getId(), link.getTarget1() );
+				}
+			}
+		}
+		assertEquals( 1, appearances );
+	}
+
+	@Test
+	public void testUnmatchedSegmentDisappears() throws IOException {
+		final List< TrackedFrame > result = new ArrayList<>();
+		final WindowStitcher stitcher = new WindowStitcher( 1, result::add );
+		stitcher.addWindow( 0, createWindow( 0, 3, 20.0 ) );
+		// the second window found the cell somewhere else entirely
+		stitcher.addWindow( 2, createWindow( 2, 3, 80.0 ) );
+		stitcher.finish();
+
+		assertEquals( 5, result.size() );
+		final TrackedFrame.Link crossing = result.get( 1 ).getLinks().get( 0 );
+		assertEquals( TrackedFrame.LinkType.DISAPPEARANCE, crossing.getType() );
+		assertTrue( result.get( 2 ).getLinks().stream().anyMatch( l -> l.getType() == TrackedFrame.LinkType.APPEARANCE ) );
+	}
+}